@@ -5,6 +5,8 @@ import jdk.jfr.Description
 import nextflow.config.spec.ConfigOption
 import nextflow.config.spec.ConfigScope
 import nextflow.config.spec.ScopeName
+import nextflow.util.Duration
+import nextflow.util.MemoryUnit
 
 
 /**
@@ -46,6 +48,272 @@ class FovusConfig implements ConfigScope {
     @Description('(Optional) The project name to group jobs and pipelines for budget management.')
     final public String projectName
 
+    @ConfigOption
+    @Description("""
+        (Optional) Number of long-lived Fovus CLI worker processes used to run CLI commands.
+        Requests are streamed to the workers over stdin/stdout instead of starting a new CLI process per command.
+
+        Defaults to `0` (disabled), i.e. every command runs in its own process.
+    """)
+    final public int cliWorkers
+
+    @ConfigOption
+    @Description("""
+        (Optional) Command used to start a Fovus CLI worker process when `cliWorkers` is greater than `0`.
+
+        Defaults to `<cliPath> worker`.
+    """)
+    final public String cliWorkerCommand
+
+    @ConfigOption
+    @Description("""
+        (Optional) Longest time a command can run on a Fovus CLI worker. The worker is restarted when it is exceeded.
+
+        Defaults to `30m`.
+    """)
+    final public Duration cliWorkerTimeout
+
+    @ConfigOption
+    @Description("""
+        (Optional) How the plugin talks to Fovus: `cli` runs the Fovus CLI, `http` calls the Fovus API in-process
+        using pooled keep-alive connections.
+
+        Defaults to `cli`.
+    """)
+    final public String transport
+
+    @ConfigOption
+    @Description('(Optional) Base URL of the Fovus API. Required when `transport` is `http`.')
+    final public String apiUrl
+
+    @ConfigOption
+    @Description("""
+        (Optional) Token used to authenticate against the Fovus API when `transport` is `http`.
+
+        Defaults to the `FOVUS_API_TOKEN` environment variable.
+    """)
+    final public String apiToken
+
+    @ConfigOption
+    @Description("""
+        (Optional) Maximum number of Fovus CLI commands running at the same time.
+        Pending commands are queued by priority: job submissions and terminations run before status polls and listings.
+
+        Defaults to `8`.
+    """)
+    final public int cliMaxConcurrency
+
+    @ConfigOption
+    @Description('(Optional) Maximum number of attempts of a failed Fovus CLI command. Defaults to `3`.')
+    final public int cliMaxRetries
+
+    @ConfigOption
+    @Description("""
+        (Optional) Base delay of the exponential backoff between the attempts of a failed Fovus CLI command.
+        A random jitter is applied to every delay.
+
+        Defaults to `1s`.
+    """)
+    final public Duration cliRetryBaseDelay
+
+    @ConfigOption
+    @Description('(Optional) Maximum delay between the attempts of a failed Fovus CLI command. Defaults to `30s`.')
+    final public Duration cliRetryMaxDelay
+
+    @ConfigOption
+    @Description("""
+        (Optional) Number of consecutive failed Fovus CLI commands after which status polling is paused.
+        Set to `0` to never pause the polling.
+
+        Defaults to `5`.
+    """)
+    final public int cliCircuitBreakerThreshold
+
+    @ConfigOption
+    @Description('(Optional) How long status polling stays paused after too many consecutive failures. Defaults to `30s`.')
+    final public Duration cliCircuitBreakerCooldown
+
+    @ConfigOption
+    @Description("""
+        (Optional) Submit the Fovus jobs in the background. When enabled, the Nextflow submitter thread only queues
+        the tasks and a pool of `submitThreads` threads creates the jobs.
+
+        Defaults to `false`.
+    """)
+    final public boolean asyncSubmit
+
+    @ConfigOption
+    @Description("""
+        (Optional) Number of threads creating Fovus jobs when `asyncSubmit` is enabled. It also bounds the jobs of a
+        bulk creation batch created concurrently when the transport creates them one by one, and the packed jobs
+        created concurrently.
+
+        Defaults to `8`.
+    """)
+    final public int submitThreads
+
+    @ConfigOption
+    @Description("""
+        (Optional) Window during which the pending job submissions are collected and created together with a single
+        multi-job manifest, e.g. `200ms`. Enabling it also enables `asyncSubmit`.
+
+        Defaults to `0` (disabled), i.e. every job is created with its own call.
+    """)
+    final public Duration bulkCreateWindow
+
+    @ConfigOption
+    @Description('(Optional) Maximum number of jobs created with a single manifest. Defaults to `500`.')
+    final public int bulkCreateMaxJobs
+
+    @ConfigOption
+    @Description("""
+        (Optional) Pack compatible tasks, i.e. tasks with the same container, constraints and objective, into a single
+        Fovus job to save the infrastructure provisioning of short tasks. Enabling it also enables `asyncSubmit`.
+        Only the tasks whose `time` directive is at most `packMaxTime` are packed. Packing can be forced for a process
+        with `ext.packTasks = true`, or disabled with `ext.packTasks = false`.
+
+        Defaults to `false`.
+    """)
+    final public boolean packTasks
+
+    @ConfigOption
+    @Description('(Optional) Window during which the compatible tasks are collected into the same packed job. Defaults to `2s`.')
+    final public Duration packWindow
+
+    @ConfigOption
+    @Description('(Optional) Maximum number of tasks packed into a single job. Defaults to `100`.')
+    final public int packMaxTasks
+
+    @ConfigOption
+    @Description('(Optional) Longest `time` directive of a task that can be packed. Defaults to `10m`.')
+    final public Duration packMaxTime
+
+    @ConfigOption
+    @Description('(Optional) Maximum total of the minimum vCPUs (`ext.minvCpu`) of the tasks packed into a single job. Defaults to `192`.')
+    final public int packMaxvCpu
+
+    @ConfigOption
+    @Description("""
+        (Optional) Shortest interval between two status checks of a task. Used for the tasks that started recently
+        or are close to their expected runtime (`time` directive).
+
+        Defaults to `2s`.
+    """)
+    final public Duration pollIntervalMin
+
+    @ConfigOption
+    @Description("""
+        (Optional) Longest interval between two status checks of a task. The checks back off up to this interval
+        while a job is pending or provisioning.
+
+        Defaults to `60s`.
+    """)
+    final public Duration pollIntervalMax
+
+    @ConfigOption
+    @Description("""
+        (Optional) Number of background threads refreshing the task statuses. The task monitor then only reads
+        the latest statuses in memory instead of waiting for the Fovus backend. Set to `0` to refresh the statuses
+        on the task monitor thread.
+
+        Defaults to `4`.
+    """)
+    final public int statusRefreshThreads
+
+    @ConfigOption
+    @Description("""
+        (Optional) How long the metadata of a Fovus Storage file is cached after a lookup or a directory listing.
+        Set to `0` to always fetch the metadata from Fovus.
+
+        Defaults to `60s`.
+    """)
+    final public Duration metadataCacheTtl
+
+    @ConfigOption
+    @Description("(Optional) How long a missing Fovus Storage file is remembered as missing. Defaults to `5s`.")
+    final public Duration metadataCacheNegativeTtl
+
+    @ConfigOption
+    @Description('(Optional) Maximum number of Fovus Storage files with cached metadata. Defaults to `100000`.')
+    final public int metadataCacheMaxEntries
+
+    @ConfigOption
+    @Description("""
+        (Optional) Number of objects listed per request when iterating a Fovus Storage directory. The next page is
+        fetched in the background while the current one is iterated. Only the `http` transport pages the listings.
+
+        Defaults to `1000`.
+    """)
+    final public int listPageSize
+
+    @ConfigOption
+    @Description("""
+        (Optional) Number of file attribute lookups missing the cache in the same Fovus Storage directory after which
+        the directory is listed once, so that the attributes of the other files are read locally. Only a directory
+        listed in one page of at most `listPageSize` objects is read locally, also with the CLI transport which does not
+        page the listings. Set to `0` to look up each file on its own.
+
+        Defaults to `4`.
+    """)
+    final public int attributePrefetchThreshold
+
+    @ConfigOption
+    @Description("""
+        (Optional) Size of the blocks fetched when a Fovus Storage file is read directly, e.g. by `splitCsv` or `text`.
+        Only the `http` transport reads ranges of a file, the `cli` transport downloads the whole file once.
+
+        Defaults to `8 MB`.
+    """)
+    final public MemoryUnit readBlockSize
+
+    @ConfigOption
+    @Description('(Optional) Maximum disk space used by the cached blocks of the Fovus Storage files read directly. Defaults to `2 GB`.')
+    final public MemoryUnit readCacheSize
+
+    @ConfigOption
+    @Description('(Optional) Directory of the cached blocks of the Fovus Storage files read directly. Defaults to a temporary directory.')
+    final public String readCacheDir
+
+    @ConfigOption
+    @Description('(Optional) Number of blocks fetched ahead when a Fovus Storage file is read sequentially. Defaults to `2`.')
+    final public int readAheadBlocks
+
+    @ConfigOption
+    @Description('(Optional) Number of concurrent transfers when downloading Fovus Storage files. Defaults to `8`.')
+    final public int downloadParallelism
+
+    @ConfigOption
+    @Description("""
+        (Optional) Size of the chunks of a file downloaded concurrently. Only the `http` transport splits the files,
+        the `cli` transport downloads the files of a directory concurrently.
+
+        Defaults to `64 MB`.
+    """)
+    final public MemoryUnit downloadChunkSize
+
+    @ConfigOption
+    @Description("""
+        (Optional) Directory where the downloaded Fovus Storage files are kept across runs, by ETag and size.
+        A file already in the cache is hard linked, or copied, instead of downloaded again. Cached files are read-only.
+
+        Disabled by default.
+    """)
+    final public String stagingCacheDir
+
+    @ConfigOption
+    @Description('(Optional) Maximum size of the staging cache. The least recently used files are deleted first. Defaults to `50 GB`.')
+    final public MemoryUnit stagingCacheSize
+
+    @ConfigOption
+    @Description("""
+        (Optional) Run the children of an array job with one launcher, which finds the work directory of its child in a
+        manifest written once per array, instead of writing a `run.sh` script into the work directory of each child.
+        The child is found by the name of its task folder, the array index being only checked against the manifest.
+
+        Defaults to `false`.
+    """)
+    final public boolean arrayManifest
+
     /** Required by extension point - DO NOT REMOVE */
     FovusConfig() {}
 
@@ -58,9 +326,137 @@ class FovusConfig implements ConfigScope {
         }
 
         this.projectName = config.projectName ?: null
+        this.cliWorkers = config.cliWorkers != null ? config.cliWorkers as int : 0
+        this.cliWorkerCommand = config.cliWorkerCommand ?: "${cliPath} worker".toString()
+        this.cliWorkerTimeout = toDuration(config.cliWorkerTimeout, '30m')
+        this.transport = config.transport ?: "cli"
+        this.apiUrl = config.apiUrl ?: null
+        this.apiToken = config.apiToken ?: System.getenv('FOVUS_API_TOKEN')
+        this.cliMaxConcurrency = config.cliMaxConcurrency != null ? config.cliMaxConcurrency as int : 8
+        this.cliMaxRetries = config.cliMaxRetries != null ? config.cliMaxRetries as int : 3
+        this.cliRetryBaseDelay = toDuration(config.cliRetryBaseDelay, '1s')
+        this.cliRetryMaxDelay = toDuration(config.cliRetryMaxDelay, '30s')
+        this.cliCircuitBreakerThreshold = config.cliCircuitBreakerThreshold != null ? config.cliCircuitBreakerThreshold as int : 5
+        this.cliCircuitBreakerCooldown = toDuration(config.cliCircuitBreakerCooldown, '30s')
+        this.bulkCreateWindow = toDuration(config.bulkCreateWindow, '0ms')
+        this.pollIntervalMin = toDuration(config.pollIntervalMin, '2s')
+        this.pollIntervalMax = toDuration(config.pollIntervalMax, '60s')
+        this.statusRefreshThreads = config.statusRefreshThreads != null ? config.statusRefreshThreads as int : 4
+        this.packTasks = config.packTasks as boolean
+        this.packWindow = toDuration(config.packWindow, '2s')
+        this.packMaxTasks = config.packMaxTasks != null ? config.packMaxTasks as int : 100
+        this.packMaxTime = toDuration(config.packMaxTime, '10m')
+        this.packMaxvCpu = config.packMaxvCpu != null ? config.packMaxvCpu as int : 192
+        this.asyncSubmit = (config.asyncSubmit as boolean) || bulkCreateWindow.toMillis() > 0 || packTasks
+        this.submitThreads = config.submitThreads != null ? config.submitThreads as int : 8
+        this.bulkCreateMaxJobs = config.bulkCreateMaxJobs != null ? config.bulkCreateMaxJobs as int : 500
+        this.metadataCacheTtl = toDuration(config.metadataCacheTtl, '60s')
+        this.metadataCacheNegativeTtl = toDuration(config.metadataCacheNegativeTtl, '5s')
+        this.metadataCacheMaxEntries = config.metadataCacheMaxEntries != null ? config.metadataCacheMaxEntries as int : 100_000
+        this.listPageSize = config.listPageSize != null ? config.listPageSize as int : 1000
+        this.attributePrefetchThreshold = config.attributePrefetchThreshold != null ? config.attributePrefetchThreshold as int : 4
+        this.readBlockSize = toMemoryUnit(config.readBlockSize, '8 MB')
+        this.readCacheSize = toMemoryUnit(config.readCacheSize, '2 GB')
+        this.readCacheDir = config.readCacheDir ?: null
+        this.readAheadBlocks = config.readAheadBlocks != null ? config.readAheadBlocks as int : 2
+        this.downloadParallelism = config.downloadParallelism != null ? config.downloadParallelism as int : 8
+        this.downloadChunkSize = toMemoryUnit(config.downloadChunkSize, '64 MB')
+        this.stagingCacheDir = config.stagingCacheDir ?: null
+        this.stagingCacheSize = toMemoryUnit(config.stagingCacheSize, '50 GB')
+        this.arrayManifest = config.arrayManifest as boolean
+    }
+
+    private static Duration toDuration(Object value, String defaultValue) {
+        if (value instanceof Duration) {
+            return (Duration) value
+        }
+        return Duration.of(value != null ? value.toString() : defaultValue)
+    }
+
+    private static MemoryUnit toMemoryUnit(Object value, String defaultValue) {
+        if (value instanceof MemoryUnit) {
+            return (MemoryUnit) value
+        }
+        return MemoryUnit.of(value != null ? value.toString() : defaultValue)
     }
 
     String getCliPath() {cliPath}
 
     String getPipelineName() { pipelineName }
+
+    int getCliWorkers() { cliWorkers }
+
+    String getCliWorkerCommand() { cliWorkerCommand }
+
+    Duration getCliWorkerTimeout() { cliWorkerTimeout }
+
+    String getTransport() { transport }
+
+    String getApiUrl() { apiUrl }
+
+    String getApiToken() { apiToken }
+
+    int getCliMaxConcurrency() { cliMaxConcurrency }
+
+    int getCliMaxRetries() { cliMaxRetries }
+
+    Duration getCliRetryBaseDelay() { cliRetryBaseDelay }
+
+    Duration getCliRetryMaxDelay() { cliRetryMaxDelay }
+
+    int getCliCircuitBreakerThreshold() { cliCircuitBreakerThreshold }
+
+    Duration getCliCircuitBreakerCooldown() { cliCircuitBreakerCooldown }
+
+    boolean getAsyncSubmit() { asyncSubmit }
+
+    int getSubmitThreads() { submitThreads }
+
+    Duration getBulkCreateWindow() { bulkCreateWindow }
+
+    int getBulkCreateMaxJobs() { bulkCreateMaxJobs }
+
+    boolean getPackTasks() { packTasks }
+
+    Duration getPackWindow() { packWindow }
+
+    int getPackMaxTasks() { packMaxTasks }
+
+    Duration getPackMaxTime() { packMaxTime }
+
+    int getPackMaxvCpu() { packMaxvCpu }
+
+    Duration getPollIntervalMin() { pollIntervalMin }
+
+    Duration getPollIntervalMax() { pollIntervalMax }
+
+    int getStatusRefreshThreads() { statusRefreshThreads }
+
+    Duration getMetadataCacheTtl() { metadataCacheTtl }
+
+    Duration getMetadataCacheNegativeTtl() { metadataCacheNegativeTtl }
+
+    int getMetadataCacheMaxEntries() { metadataCacheMaxEntries }
+
+    int getListPageSize() { listPageSize }
+
+    int getAttributePrefetchThreshold() { attributePrefetchThreshold }
+
+    MemoryUnit getReadBlockSize() { readBlockSize }
+
+    MemoryUnit getReadCacheSize() { readCacheSize }
+
+    String getReadCacheDir() { readCacheDir }
+
+    int getReadAheadBlocks() { readAheadBlocks }
+
+    int getDownloadParallelism() { downloadParallelism }
+
+    MemoryUnit getDownloadChunkSize() { downloadChunkSize }
+
+    String getStagingCacheDir() { stagingCacheDir }
+
+    MemoryUnit getStagingCacheSize() { stagingCacheSize }
+
+    boolean getArrayManifest() { arrayManifest }
 }
@@ -6,30 +6,64 @@ import groovy.util.logging.Slf4j
 import nextflow.executor.Executor
 import nextflow.executor.TaskArrayExecutor
 import nextflow.extension.FilesEx
+import fovus.plugin.cli.FovusCliScheduler
+import fovus.plugin.cli.FovusCliWorkerPool
+import fovus.plugin.job.FovusJobBatcher
+import fovus.plugin.job.FovusJobClient
+import fovus.plugin.job.FovusJobConfigStore
 import fovus.plugin.storage.FovusStorageClient
 import fovus.plugin.pipeline.FovusPipelineClient
+import fovus.plugin.task.FovusPollSchedule
+import fovus.plugin.task.FovusTaskClient
+import fovus.plugin.task.FovusTaskStatusCache
 import nextflow.processor.TaskHandler
 import nextflow.processor.TaskMonitor
 import nextflow.processor.TaskPollingMonitor
 
 import nextflow.processor.TaskRun
-import nextflow.util.Duration
 import nextflow.util.ServiceName
 import org.pf4j.ExtensionPoint
 
 import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 
 @Slf4j
 @ServiceName('fovus')
 @CompileStatic
 class FovusExecutor extends Executor implements ExtensionPoint, TaskArrayExecutor {
     private static final String REMOTE_INPUT_MOUNT_POINT = '/fovus-storage'
+    private static final long JOB_CONFIG_RETENTION_MILLIS = 60 * 60 * 1000L
     protected FovusConfig fovusConfig
 
     protected FovusPipelineClient pipelineClient;
     protected FovusStorageClient storageClient;
     protected Path localWorkDirMount;
     protected Path remoteBinDir;
+    protected FovusTaskStatusCache taskStatusCache;
+
+    /**
+     * Pool creating the Fovus jobs in the background, or {@code null} when {@code fovus.asyncSubmit} is disabled
+     */
+    protected ExecutorService submitPool;
+
+    /**
+     * Batches the job creations, or {@code null} when {@code fovus.bulkCreateWindow} is disabled
+     */
+    protected FovusJobBatcher jobBatcher;
+
+    /**
+     * Packs the compatible tasks into shared jobs, or {@code null} when {@code fovus.packTasks} is disabled
+     */
+    protected FovusTaskPacker taskPacker;
+
+    /**
+     * Writes the job config files, one per distinct config
+     */
+    protected FovusJobConfigStore jobConfigStore;
 
     /**
      * Map the local work directory with Fovus job id
@@ -43,24 +77,76 @@ class FovusExecutor extends Executor implements ExtensionPoint, TaskArrayExecuto
      */
     @Override
     protected TaskMonitor createTaskMonitor() {
-        return TaskPollingMonitor.create(session, config, name, Duration.of("10 sec"))
+        // Tick at the min interval, each handler decides whether its next poll is due
+        return TaskPollingMonitor.create(session, config, name, getFovusConfig().getPollIntervalMin())
+    }
+
+    protected FovusConfig getFovusConfig() {
+        if (fovusConfig == null) {
+            fovusConfig = new FovusConfig(session.config.navigate('fovus') as Map)
+        }
+        return fovusConfig
     }
 
     @Override
     protected void register() {
         super.register()
 
-        fovusConfig = new FovusConfig(session.config.navigate('fovus') as Map);
+        fovusConfig = getFovusConfig()
+        FovusCliScheduler.configure(fovusConfig)
+        FovusCliWorkerPool.configure(fovusConfig)
         log.debug "[FOVUS] Creating fovus pipeline."
         this.pipelineClient = new FovusPipelineClient();
 
         FovusPipelineCache.getOrCreatePipelineId(this.pipelineClient, fovusConfig, this.fovusConfig.getPipelineName())
 
         storageClient = new FovusStorageClient(fovusConfig)
+
+        jobConfigStore = new FovusJobConfigStore(Paths.get(FovusTaskHandler.FOVUS_JOB_CONFIG_FOLDER as String), JOB_CONFIG_RETENTION_MILLIS)
+        session.onShutdown { stopBackgroundThreads() }
+
+        // Share one task listing per job and poll cycle between all the task handlers
+        final pollInterval = session.getPollInterval(name, fovusConfig.getPollIntervalMin())
+        taskStatusCache = new FovusTaskStatusCache(new FovusTaskClient(fovusConfig), (long) (pollInterval.toMillis() / 2), fovusConfig.getStatusRefreshThreads())
+
+        if (fovusConfig.getAsyncSubmit()) {
+            submitPool = createSubmitPool(Math.max(1, fovusConfig.getSubmitThreads()))
+        }
+
+        if (fovusConfig.getBulkCreateWindow().toMillis() > 0) {
+            jobBatcher = new FovusJobBatcher(new FovusJobClient(fovusConfig), fovusConfig.getBulkCreateWindow().toMillis(), fovusConfig.getBulkCreateMaxJobs(),
+                    Math.max(1, fovusConfig.getSubmitThreads()))
+        }
+
+        if (fovusConfig.getPackTasks()) {
+            taskPacker = new FovusTaskPacker(this, new FovusJobClient(fovusConfig), fovusConfig.getPackWindow().toMillis(), fovusConfig.getPackMaxTasks(),
+                    fovusConfig.getPackMaxTime().toMillis(), fovusConfig.getPackMaxvCpu(), Math.max(1, fovusConfig.getSubmitThreads()))
+        }
+
         validateWorkDir()
         uploadBinDir()
     }
 
+    /**
+     * Stop the background threads created by {@link #register()}
+     */
+    private void stopBackgroundThreads() {
+        submitPool?.shutdown()
+        jobBatcher?.close()
+        taskPacker?.close()
+        taskStatusCache?.close()
+        jobConfigStore?.close()
+    }
+
+    private static ExecutorService createSubmitPool(int threads) {
+        final counter = new AtomicInteger()
+        return Executors.newFixedThreadPool(threads, { Runnable runnable ->
+            final thread = new Thread(runnable, "fovus-submit-${counter.incrementAndGet()}".toString())
+            thread.setDaemon(true)
+            return thread
+        } as ThreadFactory)
+    }
+
     private void validateWorkDir() {
         // Or should we auto map to session.workDir/pipelines?
         assert session.workDir.endsWith("pipelines"), "[FOVUS] Working directory must end with pipelines. Current work directory: ${session.workDir}"
@@ -77,9 +163,8 @@ class FovusExecutor extends Executor implements ExtensionPoint, TaskArrayExecuto
             def copyBinDir = FilesEx.copyTo(session.binDir, tempDir)
             remoteBinDir = getRemotePath(copyBinDir)
 
-            // Change permission to executable in background
-            def changePermissionCmd = "chmod -R 755 ${copyBinDir}"
-            changePermissionCmd.execute()
+            // Make the binaries executable before any job can use them
+            FovusUtil.setPermissionsRecursively(copyBinDir, FovusUtil.EXECUTABLE_PERMISSIONS)
         }
     }
 
@@ -88,6 +173,33 @@ class FovusExecutor extends Executor implements ExtensionPoint, TaskArrayExecuto
         return remoteBinDir
     }
 
+    /**
+     * Create the adaptive poll schedule of a task handler, bounded by {@code fovus.pollIntervalMin} and {@code fovus.pollIntervalMax}
+     */
+    FovusPollSchedule newPollSchedule() {
+        return new FovusPollSchedule(session.getPollInterval(name, fovusConfig.getPollIntervalMin()).toMillis(), fovusConfig.getPollIntervalMax().toMillis())
+    }
+
+    FovusTaskStatusCache getTaskStatusCache() {
+        return taskStatusCache
+    }
+
+    ExecutorService getSubmitPool() {
+        return submitPool
+    }
+
+    FovusJobBatcher getJobBatcher() {
+        return jobBatcher
+    }
+
+    FovusTaskPacker getTaskPacker() {
+        return taskPacker
+    }
+
+    FovusJobConfigStore getJobConfigStore() {
+        return jobConfigStore
+    }
+
     @Override
     Path getWorkDir() {
         return session.workDir
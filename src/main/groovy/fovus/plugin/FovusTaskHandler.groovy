@@ -1,6 +1,8 @@
 package fovus.plugin
 
+import fovus.plugin.cli.FovusCliUnavailableException
 import fovus.plugin.job.ContainerizedEnvironment
+import groovy.transform.PackageScope
 import groovy.util.logging.Slf4j
 import nextflow.container.DockerConfig
 import nextflow.exception.ProcessException
@@ -8,8 +10,10 @@ import nextflow.executor.BashWrapperBuilder
 import fovus.plugin.job.FovusJobClient
 import fovus.plugin.job.FovusJobConfig
 import fovus.plugin.job.FovusJobStatus
-import fovus.plugin.task.FovusTaskClient
+import fovus.plugin.task.FovusPollSchedule
+import fovus.plugin.task.FovusTaskNotFoundException
 import fovus.plugin.task.FovusTaskStatus
+import fovus.plugin.transport.CreateJobRequest
 import nextflow.processor.TaskArrayRun
 import nextflow.processor.TaskHandler
 import nextflow.processor.TaskRun
@@ -20,6 +24,7 @@ import java.nio.charset.StandardCharsets
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.StandardOpenOption
+import java.util.concurrent.Future
 
 import static nextflow.processor.TaskStatus.*
 
@@ -51,7 +56,30 @@ class FovusTaskHandler extends TaskHandler {
     protected FovusJobConfig jobConfig;
 
     protected FovusJobClient jobClient;
-    protected FovusTaskClient taskClient;
+
+    /**
+     * The background job creation when {@code fovus.asyncSubmit} is enabled
+     */
+    private volatile Future<?> pendingSubmission;
+
+    private volatile Throwable submitError;
+
+    /**
+     * Set when the task is killed, so that a job created afterwards by the submit pool is terminated
+     */
+    private volatile boolean killed;
+
+    /**
+     * Set when the children of an array job are missing from its task listing, in which case the job status is used
+     */
+    private volatile boolean childTrackingUnavailable;
+
+    private final FovusPollSchedule pollSchedule
+
+    /**
+     * Whether the job or task was still pending or provisioning at the last status check
+     */
+    private volatile boolean lastPollPending = true
 
     private List<FovusJobStatus> RUNNING_JOB_STATUSES = [
             FovusJobStatus.PENDING,
@@ -61,6 +89,14 @@ class FovusTaskHandler extends TaskHandler {
             FovusJobStatus.REQUEUED,
     ]
 
+    private List<FovusJobStatus> PENDING_JOB_STATUSES = [
+            FovusJobStatus.PENDING,
+            FovusJobStatus.PROVISIONING_INFRASTRUCTURE,
+            FovusJobStatus.CREATED,
+            FovusJobStatus.CLOUD_STRATEGY_OPTIMIZATION,
+            FovusJobStatus.WAITING,
+    ]
+
     private List<FovusJobStatus> COMPLETED_JOB_STATUSES = [
             FovusJobStatus.COMPLETED,
             FovusJobStatus.FAILED,
@@ -84,13 +120,27 @@ class FovusTaskHandler extends TaskHandler {
 
     final static FOVUS_JOB_CONFIG_FOLDER = "./work/.nextflow/fovus/job_config"
 
+    /**
+     * The file listing the remote work directory of each child of an array job, one per line by array index
+     */
+    final static ARRAY_MANIFEST = ".fovus_array_manifest"
+
     FovusJobConfig getJobConfig() {
         return this.jobConfig
     }
 
     FovusTaskHandler(TaskRun task, FovusExecutor executor) {
+        this(task, executor, null)
+    }
+
+    /**
+     * @param jobConfig The job config of the task, or {@code null} to build it from the task
+     */
+    @PackageScope
+    FovusTaskHandler(TaskRun task, FovusExecutor executor, FovusJobConfig jobConfig) {
         super(task)
         this.executor = executor
+        this.pollSchedule = executor.newPollSchedule()
         this.logFile = task.workDir.resolve(TaskRun.CMD_LOG)
         this.scriptFile = task.workDir.resolve(TaskRun.CMD_SCRIPT)
         this.inputFile = task.workDir.resolve(TaskRun.CMD_INFILE)
@@ -101,14 +151,13 @@ class FovusTaskHandler extends TaskHandler {
         this.traceFile = task.workDir.resolve(TaskRun.CMD_TRACE)
 
         this.jobClient = new FovusJobClient(executor.fovusConfig)
-        this.taskClient = new FovusTaskClient(executor.fovusConfig)
 
         if (task instanceof TaskArrayRun) {
             def children = task.getChildren() as List<FovusTaskHandler>;
             def firstTask = children.first();
             this.jobConfig = firstTask.getJobConfig();
         } else {
-            this.jobConfig = new FovusJobConfig(this.jobClient, task)
+            this.jobConfig = jobConfig ?: new FovusJobConfig(this.jobClient, task)
         }
 
         this.jobClient.setJobConfig(this.jobConfig)
@@ -119,14 +168,44 @@ class FovusTaskHandler extends TaskHandler {
      */
     @Override
     boolean checkIfRunning() {
-        if (!jobId || !isSubmitted()) {
+        if (!jobId || !isSubmitted() || !pollSchedule.isDue()) {
+            return false
+        }
+
+        // Check again on the next tick, once the statuses of the job have been refreshed in the background
+        if (!executor.taskStatusCache.isReady(jobId)) {
             return false
         }
 
+        try {
+            final isRunning = checkIfRunning0()
+            if (!isRunning) {
+                pollSchedule.pending()
+            }
+            return isRunning
+        } catch (FovusCliUnavailableException e) {
+            log.trace "[FOVUS] Skipping status check of job ${jobId}: ${e.message}"
+            pollSchedule.pending()
+            return false
+        }
+    }
+
+    private boolean checkIfRunning0() {
+
         if (this.task instanceof TaskArrayRun) {
             log.debug("TaskArrayRun is detected: ${this.task} jobId: --> $jobId")
 
+            final childrenRunning = checkIfChildrenRunning()
+            if (childrenRunning != null) {
+                lastPollPending = (task as TaskArrayRun).children.every { TaskHandler child -> (child as FovusTaskHandler).lastPollPending }
+                if (childrenRunning) {
+                    status = TaskStatus.RUNNING
+                }
+                return childrenRunning
+            }
+
             final jobStatus = jobClient.getJobStatus(jobId)
+            lastPollPending = jobStatus in PENDING_JOB_STATUSES
             // Include completed statuses for very quick job that completed before running status is detected
             final isRunning = (jobStatus in RUNNING_JOB_STATUSES) || (jobStatus in COMPLETED_JOB_STATUSES)
 
@@ -136,8 +215,8 @@ class FovusTaskHandler extends TaskHandler {
 
             return isRunning
         }
-        final taskName = this.task.workDirStr.split("/")[-1];
-        final taskStatus = taskClient.getTaskStatus(jobId, taskName)
+        final taskStatus = executor.taskStatusCache.getTaskStatus(jobId, getTaskName())
+        lastPollPending = taskStatus == FovusTaskStatus.CREATED
         // Include completed statuses for very quick tasks that completed before running status is detected
         final isRunning = (taskStatus in RUNNING_RUN_STATUSES) || (taskStatus in COMPLETED_RUN_STATUSES)
 
@@ -151,33 +230,83 @@ class FovusTaskHandler extends TaskHandler {
 
     @Override
     boolean checkIfCompleted() {
-        assert jobId
-
         if (isCompleted()) {
             return true
         }
 
-        if (!isRunning()) {
+        if (submitError != null) {
+            task.error = new ProcessException("Failed to submit Fovus job for task ${task.lazyName()}: ${submitError.message}", submitError)
+            status = TaskStatus.COMPLETED
+            return true
+        }
+
+        // Still being submitted in the background
+        if (!jobId) {
+            return false
+        }
+
+        if (!isRunning() || !pollSchedule.isDue()) {
+            return false
+        }
+
+        if (!executor.taskStatusCache.isReady(jobId)) {
+            return false
+        }
+
+        try {
+            final isCompleted = checkIfCompleted0()
+            if (!isCompleted) {
+                scheduleNextPoll()
+            }
+            return isCompleted
+        } catch (FovusCliUnavailableException e) {
+            log.trace "[FOVUS] Skipping status check of job ${jobId}: ${e.message}"
+            pollSchedule.pending()
             return false
         }
+    }
+
+    private void scheduleNextPoll() {
+        if (lastPollPending) {
+            pollSchedule.pending()
+        } else {
+            pollSchedule.running(task.config.getTime()?.toMillis())
+        }
+    }
 
+    private boolean checkIfCompleted0() {
         def taskStatus
         if (this.task instanceof TaskArrayRun) {
             log.debug("TaskArrayRun is detected: ${this.task} jobId: --> $jobId")
-            taskStatus = jobClient.getJobStatus(jobId)
-            final isJobTerminated = taskStatus in COMPLETED_JOB_STATUSES
 
-            if (!isJobTerminated) {
-                return false
+            final childrenCompleted = checkIfChildrenCompleted()
+            if (childrenCompleted != null) {
+                if (!childrenCompleted) {
+                    lastPollPending = (task as TaskArrayRun).children.every { TaskHandler child -> (child as FovusTaskHandler).lastPollPending }
+                    return false
+                }
+
+                final failedChildren = (task as TaskArrayRun).children.count { TaskHandler child -> child.task.error != null }
+                taskStatus = failedChildren > 0 ? FovusTaskStatus.FAILED : FovusTaskStatus.COMPLETED
+            } else {
+                taskStatus = jobClient.getJobStatus(jobId)
+                lastPollPending = taskStatus in PENDING_JOB_STATUSES
+                final isJobTerminated = taskStatus in COMPLETED_JOB_STATUSES
+
+                if (!isJobTerminated) {
+                    return false
+                }
             }
         } else {
-            final taskName = this.task.workDirStr.split("/")[-1];
-            taskStatus = taskClient.getTaskStatus(jobId, taskName)
+            taskStatus = executor.taskStatusCache.getTaskStatus(jobId, getTaskName())
+            lastPollPending = taskStatus == FovusTaskStatus.CREATED
             final isRunTerminated = taskStatus in COMPLETED_RUN_STATUSES
 
             if (!isRunTerminated) {
                 return false
             }
+
+            executor.taskStatusCache.unregister(jobId, getTaskName())
         }
 
         task.stdout = outputFile
@@ -210,12 +339,105 @@ class FovusTaskHandler extends TaskHandler {
         return true
     }
 
+    /**
+     * Check the children of an array job with the shared task listing of the job.
+     *
+     * @return Whether any child is running, or {@code null} when the children cannot be tracked individually. A failed
+     * listing only skips this poll.
+     */
+    private Boolean checkIfChildrenRunning() {
+        if (childTrackingUnavailable) {
+            return null
+        }
+
+        try {
+            boolean anyRunning = false
+            for (TaskHandler child : (task as TaskArrayRun).children) {
+                final handler = child as FovusTaskHandler
+                if (handler.isSubmitted()) {
+                    handler.checkIfRunning0()
+                }
+                anyRunning |= handler.isRunning() || handler.isCompleted()
+            }
+            return anyRunning
+        } catch (FovusTaskNotFoundException e) {
+            disableChildTracking(e)
+            return null
+        } catch (FovusCliUnavailableException e) {
+            throw e
+        } catch (RuntimeException e) {
+            // Keep tracking the children, the next poll lists the tasks again
+            log.debug "[FOVUS] Skipping status check of the tasks of array job ${jobId}: ${e.message}"
+            return false
+        }
+    }
+
+    /**
+     * Complete each child of an array job as soon as its own task is terminated.
+     *
+     * @return Whether every child is completed, or {@code null} when the children cannot be tracked individually
+     */
+    private Boolean checkIfChildrenCompleted() {
+        if (childTrackingUnavailable) {
+            return null
+        }
+
+        try {
+            boolean allCompleted = true
+            for (TaskHandler child : (task as TaskArrayRun).children) {
+                final handler = child as FovusTaskHandler
+                if (handler.isCompleted()) {
+                    continue
+                }
+                if (handler.isSubmitted()) {
+                    handler.checkIfRunning0()
+                }
+                if (!handler.isRunning() || !handler.checkIfCompleted0()) {
+                    allCompleted = false
+                }
+            }
+            return allCompleted
+        } catch (FovusTaskNotFoundException e) {
+            disableChildTracking(e)
+            return null
+        } catch (FovusCliUnavailableException e) {
+            throw e
+        } catch (RuntimeException e) {
+            log.debug "[FOVUS] Skipping status check of the tasks of array job ${jobId}: ${e.message}"
+            return false
+        }
+    }
+
+    /**
+     * Remove the task, or the children of an array job, from the status listings
+     */
+    private void unregisterStatus() {
+        if (!jobId) {
+            return
+        }
+        if (task instanceof TaskArrayRun) {
+            for (TaskHandler child : (task as TaskArrayRun).children) {
+                (child as FovusTaskHandler).unregisterStatus()
+            }
+        } else {
+            executor.taskStatusCache.unregister(jobId, getTaskName())
+        }
+    }
+
+    private void disableChildTracking(Exception e) {
+        log.debug "[FOVUS] Cannot track the tasks of array job ${jobId} individually, using the job status: ${e.message}"
+        childTrackingUnavailable = true
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected void killTask() {
-        assert jobId
+        killed = true
+        // Skip a job that is still queued for submission, a job being created is terminated once its id is known
+        pendingSubmission?.cancel(false)
+        unregisterStatus()
 
         // Job deletion will be handled by backend
         log.debug "[FOVUS] Terminated job > $task"
@@ -266,12 +488,55 @@ class FovusTaskHandler extends TaskHandler {
 
     @Override
     void submit() {
+        final submitPool = executor.getSubmitPool()
+        if (submitPool == null) {
+            onJobCreated(jobClient.createJob(prepareJob()))
+            return
+        }
+
+        // Return immediately, the job id is set by the submit pool once the job is created
+        status = TaskStatus.SUBMITTED
+
+        final taskPacker = executor.getTaskPacker()
+        if (taskPacker != null && taskPacker.isPackable(this)) {
+            taskPacker.add(this)
+            return
+        }
+
+        pendingSubmission = submitPool.submit {
+            try {
+                final request = prepareJob()
+                final jobBatcher = executor.getJobBatcher()
+                if (jobBatcher == null) {
+                    onJobCreated(jobClient.createJob(request))
+                    return
+                }
+
+                // Do not hold a submit thread while the job waits for its batch
+                jobBatcher.submit(request).whenComplete { String createdJobId, Throwable error ->
+                    if (error != null) {
+                        onSubmitFailed(error)
+                    } else {
+                        onJobCreated(createdJobId)
+                    }
+                }
+            } catch (Throwable e) {
+                onSubmitFailed(e)
+            }
+        }
+    }
+
+    /**
+     * Write the job config of this task and build the request creating its job
+     */
+    private CreateJobRequest prepareJob() {
         def runCommand
         final isTaskArrayRun = task instanceof TaskArrayRun
 
+        // Set the permissions before the job is created, so that it cannot start without them
+        prepareWorkDir()
         if (isTaskArrayRun) {
-            prepareArrayTasks(task as TaskArrayRun)
-            runCommand = "./run.sh"
+            runCommand = prepareArrayTasks(task as TaskArrayRun)
         } else {
             final remoteRunScript = executor.getRemotePath(wrapperFile)
             final remoteWorkDir = remoteRunScript.getParent()
@@ -283,14 +548,8 @@ ln -s ${remoteWorkDir}/${TaskRun.CMD_SCRIPT} ${TaskRun.CMD_SCRIPT}
         }
         jobConfig.setRunCommand(runCommand)
 
-        // Save to config to JSON
-        final jobConfigFolder = new File(FOVUS_JOB_CONFIG_FOLDER)
-        if (!jobConfigFolder.exists()) {
-            jobConfigFolder.mkdirs()
-        }
-
-        final jobConfigFile = File.createTempFile("${jobConfig.jobName}_", ".json", new File(FOVUS_JOB_CONFIG_FOLDER))
-        final jobConfigFilePath = jobConfig.toJson(jobConfigFile.toPath())
+        // Save the config to JSON, shared with the tasks having the same config
+        final jobConfigFilePath = executor.getJobConfigStore().write(jobConfig)
 
         def jobDirectory = task.workDir.getParent().toString();
 
@@ -314,15 +573,42 @@ ln -s ${remoteWorkDir}/${TaskRun.CMD_SCRIPT} ${TaskRun.CMD_SCRIPT}
         log.debug "[FOVUS] Submitting job > $task"
         def pipelineId = this.executor.pipelineClient.getPipeline().getPipelineId();
 
-        jobId = jobClient.createJob(jobConfigFilePath, jobDirectory, pipelineId, includeList, jobConfig.jobName, isTaskArrayRun)
+        return jobClient.newCreateJobRequest(jobConfigFilePath, jobDirectory, pipelineId, includeList, jobConfig.jobName, isTaskArrayRun)
+    }
+
+    @PackageScope
+    void onJobCreated(String createdJobId) {
+        onJobCreated(createdJobId, true)
+    }
+
+    /**
+     * @param createdJobId The id of the created job
+     * @param ownJob       Whether the job only runs this task, in which case it is terminated if the task was killed meanwhile
+     */
+    @PackageScope
+    void onJobCreated(String createdJobId, boolean ownJob) {
+        if (killed) {
+            // A killed task is not tracked, and a shared job keeps running the other tasks
+            if (ownJob) {
+                log.debug "[FOVUS] Terminating job ${createdJobId} of killed task > $task"
+                try {
+                    jobClient.terminateJob(createdJobId)
+                } catch (RuntimeException e) {
+                    log.warn "[FOVUS] Failed to terminate job ${createdJobId} of killed task `${task.lazyName()}`: ${e.message}"
+                }
+            }
+            return
+        }
+        jobId = createdJobId
         updateStatus(jobId)
 
         executor.jobIdMap.put(task.workDir.toString(), jobId);
+    }
 
-        // Change the run scripts permission in background
-        "chmod +x ${Escape.path(wrapperFile)} ${Escape.path(scriptFile)}".execute()
-        // Allow creating new files in work directory
-        "chmod 777 ${Escape.path(task.workDir)}".execute()
+    @PackageScope
+    void onSubmitFailed(Throwable error) {
+        log.debug "[FOVUS] Failed to submit job > $task | ${error.message}"
+        submitError = error
     }
 
     private int readExitFile() {
@@ -346,9 +632,17 @@ ln -s ${remoteWorkDir}/${TaskRun.CMD_SCRIPT} ${TaskRun.CMD_SCRIPT}
         } else {
             this.jobId = jobId
             this.status = TaskStatus.SUBMITTED
+            executor.taskStatusCache.register(jobId, getTaskName())
         }
     }
 
+    /**
+     * The Fovus task name of this handler, i.e. the name of the task work directory
+     */
+    protected String getTaskName() {
+        return this.task.workDirStr.split("/")[-1]
+    }
+
     boolean isNew() { return status == NEW }
 
     boolean isSubmitted() { return status == SUBMITTED }
@@ -369,33 +663,109 @@ ln -s ${remoteWorkDir}/${TaskRun.CMD_SCRIPT} ${TaskRun.CMD_SCRIPT}
         return normalizeJobName(result)
     }
 
-    private void prepareArrayTasks(TaskArrayRun task) {
-        task.children.eachWithIndex { handler, int i ->
-            handler = handler as FovusTaskHandler
-            def taskFolder = handler.task.workDir
-            log.trace "[FOVUS] Preparing run.sh script for ${task.name} at ${taskFolder}"
-
-            final remoteTaskWorkDir = executor.getRemotePath(handler.getTask().workDir.toAbsolutePath())
-            final runScript = """
-            #!/bin/bash
-            ln -s "${remoteTaskWorkDir}/${TaskRun.CMD_RUN} ${TaskRun.CMD_RUN}"
-            ln -s "${remoteTaskWorkDir}/${TaskRun.CMD_SCRIPT} ${TaskRun.CMD_SCRIPT}"
-            ./${TaskRun.CMD_RUN}
-            """.stripIndent().leftTrim()
-
-            // Save script as run.sh
-            final runScriptPath = taskFolder.resolve("run.sh")
-            Files.write(
-                    runScriptPath,
-                    runScript.getBytes(StandardCharsets.UTF_8),
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING,
-                    StandardOpenOption.WRITE
-            )
-
-            "chmod +x ${Escape.path(runScriptPath)}".execute()
-            "chmod +x ${Escape.path(handler.wrapperFile)} ${Escape.path(handler.scriptFile)}".execute()
-            "chmod 777 ${Escape.path(handler.task.workDir)}".execute()
+    /**
+     * Prepare the children of an array job
+     *
+     * @return The run command of the array job
+     */
+    private String prepareArrayTasks(TaskArrayRun task) {
+        if (!executor.getFovusConfig().getArrayManifest()) {
+            FovusUtil.forEachInParallel(task.children) { TaskHandler handler ->
+                (handler as FovusTaskHandler).writeRunScript()
+            }
+            return "./run.sh"
         }
+
+        FovusUtil.forEachInParallel(task.children) { TaskHandler handler ->
+            (handler as FovusTaskHandler).prepareWorkDir()
+        }
+        final remoteManifest = executor.getRemotePath(writeArrayManifest(task).toAbsolutePath())
+        return arrayLaunchCommand(remoteManifest, executor.getArrayIndexName(), executor.getArrayIndexStart())
+    }
+
+    /**
+     * Write the remote work directory of each child of an array job, the line {@code n + 1} being the child of index {@code n}
+     */
+    private Path writeArrayManifest(TaskArrayRun task) {
+        final manifest = new StringBuilder()
+        for (TaskHandler handler : task.children) {
+            manifest.append(executor.getRemotePath(handler.task.workDir.toAbsolutePath()).toString()).append('\n')
+        }
+
+        final manifestPath = task.workDir.resolve(ARRAY_MANIFEST)
+        Files.write(
+                manifestPath,
+                manifest.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )
+        log.trace "[FOVUS] Array manifest of ${task.children.size()} tasks saved to ${manifestPath}"
+        return manifestPath
+    }
+
+    /**
+     * The run command of each child of an array job: find its work directory in the manifest by the exact name of the
+     * task folder, i.e. the last path segment of a line, and run it like {@link #writeRunScript} does. The array index, when set, is only checked against the
+     * manifest, since nothing guarantees that the backend numbers the tasks in the order of the manifest.
+     */
+    @PackageScope
+    static String arrayLaunchCommand(Path remoteManifest, String indexName, int indexStart) {
+        return """
+manifest=${Escape.path(remoteManifest)}
+taskDir=\$(awk -F/ -v name="\$(basename "\$PWD")" '\$NF == name { print; exit }' "\$manifest")
+if [ -z "\$taskDir" ]; then
+  echo "[FOVUS] No work directory for task folder \$(basename "\$PWD") in \$manifest" >&2
+  exit 1
+fi
+if [ -n "\${${indexName}:-}" ]; then
+  indexDir=\$(sed -n "\$((${indexName} - ${indexStart} + 1))p" "\$manifest")
+  if [ "\$indexDir" != "\$taskDir" ]; then
+    echo "[FOVUS] Array index \$${indexName} is listed as \$indexDir in \$manifest, running \$taskDir" >&2
+  fi
+fi
+ln -s "\$taskDir/${TaskRun.CMD_RUN}" ${TaskRun.CMD_RUN}
+ln -s "\$taskDir/${TaskRun.CMD_SCRIPT}" ${TaskRun.CMD_SCRIPT}
+./${TaskRun.CMD_RUN}
+"""
+    }
+
+    /**
+     * Make the run scripts executable and allow the job to create new files in the work directory
+     */
+    @PackageScope
+    void prepareWorkDir() {
+        FovusUtil.makeExecutable(wrapperFile, scriptFile)
+        FovusUtil.setPermissions(task.workDir, FovusUtil.SHARED_DIR_PERMISSIONS)
+    }
+
+    /**
+     * Write the run.sh script running this task as one of the tasks of a multi-task job
+     */
+    @PackageScope
+    void writeRunScript() {
+        def taskFolder = task.workDir
+        log.trace "[FOVUS] Preparing run.sh script for ${task.name} at ${taskFolder}"
+
+        final remoteTaskWorkDir = executor.getRemotePath(task.workDir.toAbsolutePath())
+        final runScript = """
+        #!/bin/bash
+        ln -s "${remoteTaskWorkDir}/${TaskRun.CMD_RUN} ${TaskRun.CMD_RUN}"
+        ln -s "${remoteTaskWorkDir}/${TaskRun.CMD_SCRIPT} ${TaskRun.CMD_SCRIPT}"
+        ./${TaskRun.CMD_RUN}
+        """.stripIndent().leftTrim()
+
+        // Save script as run.sh
+        final runScriptPath = taskFolder.resolve("run.sh")
+        Files.write(
+                runScriptPath,
+                runScript.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )
+
+        FovusUtil.makeExecutable(runScriptPath)
+        prepareWorkDir()
     }
 }
@@ -0,0 +1,221 @@
+package fovus.plugin
+
+import fovus.plugin.job.FovusJobClient
+import fovus.plugin.job.FovusJobConfig
+import fovus.plugin.job.Workload
+import groovy.json.JsonOutput
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+import groovy.util.logging.Slf4j
+import nextflow.processor.TaskArrayRun
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Packs compatible ready tasks into a single multi-task Fovus job.
+ *
+ * Only short tasks are packed, i.e. tasks with a {@code time} directive of at most {@code packMaxTime}, since a packed
+ * job lasts as long as its longest task. Tasks are compatible when they share the same environment (container),
+ * job and task constraints, objective and workload inputs. A packed job is sent once the pack window ends, or once it
+ * has {@code packMaxTasks} tasks or the minimum vCPUs of its tasks would exceed {@code packMaxvCpu}. The tasks of a packed job are laid out like the tasks of an array job:
+ * each task runs from its own work directory with a run.sh script, and Fovus runs them in parallel on
+ * the provisioned nodes according to the task constraints.
+ *
+ * Each packed task keeps its own handler and is reported separately through the task status listing of the job.
+ */
+@Slf4j
+@CompileStatic
+class FovusTaskPacker {
+    private final FovusExecutor executor
+    private final FovusJobClient jobClient
+    private final long windowMillis
+    private final int maxTasks
+    private final long maxTimeMillis
+    private final int maxvCpu
+
+    private final ScheduledExecutorService timer
+    private final ExecutorService creator
+
+    private final Map<String, List<FovusTaskHandler>> pending = [:]
+
+    /**
+     * @param maxTimeMillis The longest {@code time} directive of a packed task
+     * @param maxvCpu       The maximum total of the minimum vCPUs of the tasks of a packed job
+     * @param threads       The maximum number of packed jobs created concurrently
+     */
+    FovusTaskPacker(FovusExecutor executor, FovusJobClient jobClient, long windowMillis, int maxTasks, long maxTimeMillis, int maxvCpu, int threads) {
+        this.executor = executor
+        this.jobClient = jobClient
+        this.windowMillis = windowMillis
+        this.maxTasks = Math.max(1, maxTasks)
+        this.maxTimeMillis = maxTimeMillis
+        this.maxvCpu = maxvCpu
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory('fovus-pack-timer'))
+        this.creator = Executors.newFixedThreadPool(Math.max(1, threads), daemonThreadFactory('fovus-pack'))
+    }
+
+    /**
+     * Check whether a task can be packed with others, i.e. whether its {@code time} directive is short enough.
+     * Packing can be forced per process with {@code ext.packTasks = true}, or disabled with {@code ext.packTasks = false}.
+     */
+    boolean isPackable(FovusTaskHandler handler) {
+        final task = handler.getTask()
+        if (task instanceof TaskArrayRun) {
+            return false
+        }
+
+        final extension = task.config.get('ext') as Map<String, Object>
+        if (extension?.packTasks != null) {
+            return extension.packTasks as boolean
+        }
+        final time = task.config.getTime()
+        return time != null && time.toMillis() <= maxTimeMillis
+    }
+
+    /**
+     * Queue a task to be packed with the compatible tasks submitted within the pack window.
+     */
+    void add(FovusTaskHandler handler) {
+        final key = packKey(handler.getJobConfig())
+        final vCpu = minvCpu(handler)
+        final List<List<FovusTaskHandler>> ready = []
+        synchronized (pending) {
+            List<FovusTaskHandler> group = pending.get(key)
+            // Send the group as it is when the task does not fit in its vCPUs
+            if (group != null && totalvCpu(group) + vCpu > maxvCpu) {
+                ready.add(pending.remove(key))
+                group = null
+            }
+            if (group == null) {
+                final created = new ArrayList<FovusTaskHandler>()
+                pending.put(key, created)
+                timer.schedule({ flush(key, created) }, windowMillis, TimeUnit.MILLISECONDS)
+                group = created
+            }
+            group.add(handler)
+            if (group.size() >= maxTasks) {
+                ready.add(pending.remove(key))
+            }
+        }
+
+        ready.each { List<FovusTaskHandler> pack -> creator.execute { createPackedJob(pack) } }
+    }
+
+    private void flush(String key, List<FovusTaskHandler> group) {
+        synchronized (pending) {
+            // The group was already sent because it was full
+            if (!pending.get(key).is(group)) {
+                return
+            }
+            pending.remove(key)
+        }
+        creator.execute { createPackedJob(group) }
+    }
+
+    @PackageScope
+    void createPackedJob(List<FovusTaskHandler> pack) {
+        try {
+            log.debug "[FOVUS] Packing ${pack.size()} tasks into one job"
+
+            FovusUtil.forEachInParallel(pack) { FovusTaskHandler handler -> handler.writeRunScript() }
+            final List<String> includeList = []
+            for (FovusTaskHandler handler : pack) {
+                // Get the last 2 parts of the work dir (eg, ab/123)
+                final pathParts = handler.getTask().workDir.toString().tokenize("/")
+                includeList.add("${pathParts[-2..-1].join('/')}/".toString())
+            }
+
+            final jobConfig = packedJobConfig(pack)
+            final jobConfigFilePath = executor.getJobConfigStore().write(jobConfig)
+
+            // Like an array job, the job directory is the work dir root and each task is one include path
+            final jobDirectory = pack[0].getTask().workDir.getParent().getParent().toString()
+            final pipelineId = executor.pipelineClient.getPipeline().getPipelineId()
+            final jobId = jobClient.createJob(jobConfigFilePath, jobDirectory, pipelineId, includeList, jobConfig.jobName, true)
+
+            // The job is shared, it is not terminated when one of its tasks is killed
+            for (FovusTaskHandler handler : pack) {
+                handler.onJobCreated(jobId, false)
+            }
+        } catch (Throwable e) {
+            log.warn "[FOVUS] Failed to create packed job of ${pack.size()} tasks: ${e.message}"
+            for (FovusTaskHandler handler : pack) {
+                handler.onSubmitFailed(e)
+            }
+        }
+    }
+
+    /**
+     * The job config shared by the packed tasks. Output files of every task are included.
+     */
+    private static FovusJobConfig packedJobConfig(List<FovusTaskHandler> pack) {
+        final first = pack[0].getJobConfig()
+        final Set<String> outputFileList = new LinkedHashSet<>()
+        for (FovusTaskHandler handler : pack) {
+            outputFileList.addAll(handler.getJobConfig().workload.outputFileList)
+        }
+
+        final jobConfig = new FovusJobConfig()
+        jobConfig.setEnvironment(first.environment)
+        jobConfig.setConstraints(first.constraints)
+        jobConfig.setObjective(first.objective)
+        jobConfig.setJobName(pack.size() > 1 ? "${first.jobName}_packed_${pack.size()}".toString() : first.jobName)
+        jobConfig.setWorkload(new Workload(
+                remoteInputsForAllTasks: first.workload.remoteInputsForAllTasks,
+                parallelismConfigFiles: first.workload.parallelismConfigFiles,
+                runCommand: "./run.sh",
+                outputFileOption: first.workload.outputFileOption,
+                outputFileList: outputFileList.toList()
+        ))
+        return jobConfig
+    }
+
+    private static int minvCpu(FovusTaskHandler handler) {
+        return handler.getJobConfig().constraints?.taskConstraints?.minvCpu ?: 1
+    }
+
+    private static int totalvCpu(List<FovusTaskHandler> group) {
+        int total = 0
+        for (FovusTaskHandler handler : group) {
+            total += minvCpu(handler)
+        }
+        return total
+    }
+
+    /**
+     * Tasks with the same key can share a job
+     */
+    @PackageScope
+    static String packKey(FovusJobConfig jobConfig) {
+        return JsonOutput.toJson([
+                environment            : jobConfig.environment,
+                constraints            : jobConfig.constraints,
+                objective              : jobConfig.objective,
+                remoteInputsForAllTasks: jobConfig.workload.remoteInputsForAllTasks,
+                parallelismConfigFiles : jobConfig.workload.parallelismConfigFiles,
+                outputFileOption       : jobConfig.workload.outputFileOption,
+        ])
+    }
+
+    /**
+     * Stop sending the packs. The packs waiting for the end of their window are not sent, the ones already sent complete.
+     */
+    void close() {
+        timer.shutdownNow()
+        creator.shutdown()
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        final counter = new AtomicInteger()
+        return { Runnable runnable ->
+            final thread = new Thread(runnable, "${prefix}-${counter.incrementAndGet()}".toString())
+            thread.setDaemon(true)
+            return thread
+        } as ThreadFactory
+    }
+}
@@ -4,6 +4,8 @@ package fovus.plugin
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import nextflow.Session
+import fovus.plugin.cli.FovusCliScheduler
+import fovus.plugin.cli.FovusCliWorkerPool
 import fovus.plugin.pipeline.FovusPipelineClient
 import fovus.plugin.pipeline.FovusPipelineStatus
 import fovus.plugin.pipeline.ResourceConfiguration
@@ -23,6 +25,8 @@ class FovusTraceObserver implements TraceObserverV2 {
     FovusTraceObserver(Session session) {
         this.session = session
         this.fovusConfig = new FovusConfig(session.config.navigate('fovus') as Map);
+        FovusCliScheduler.configure(fovusConfig)
+        FovusCliWorkerPool.configure(fovusConfig)
         this.pipelineClient = new FovusPipelineClient();
     }
 
@@ -1,9 +1,22 @@
 package fovus.plugin
 
+import fovus.plugin.cli.FovusCliPriority
+import fovus.plugin.cli.FovusCliScheduler
+import fovus.plugin.cli.FovusCliWorkerPool
 import groovy.transform.CompileStatic
 import groovy.transform.MapConstructor
 import groovy.util.logging.Slf4j
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.attribute.PosixFilePermission
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Static helper methods
@@ -27,51 +40,101 @@ class FovusUtil {
     }
 
     /**
-     * Helper method to execute Fovus CLI commands with retry logic
-     * @param command
-     * @return
+     * Helper method to execute Fovus CLI commands with retry logic.
+     * Commands are queued on the shared {@link FovusCliScheduler} by priority.
+     *
+     * @param command The command to execute
+     * @param priority The priority class of the command
+     * @return The result of the last attempt
+     * @throws fovus.plugin.cli.FovusCliUnavailableException if a status poll is rejected while the backend is unavailable
      */
-    static public CliExecutionResult executeCommand(final List command) {
-        int maxRetries = 3
-        int attempt = 0
-        CliExecutionResult result = null
-
-        while (attempt < maxRetries) {
-            attempt++
-            log.debug "[FOVUS] Executing command (attempt ${attempt}/${maxRetries}): ${command.join(' ')}"
-
-            def stdout = new StringBuilder()
-            def stderr = new StringBuilder()
-
-            def process = command.execute()
-            process.consumeProcessOutput(stdout, stderr)
-            process.waitFor()
-
-            result = new CliExecutionResult(
-                    exitCode: process.exitValue(),
-                    output: stdout.toString(),
-                    error: stderr.toString()
-            )
-
-            log.debug "[FOVUS] Command executed with exit code: ${result.exitCode}"
-            log.debug "[FOVUS] Command output: ${result.output}"
-            log.debug "[FOVUS] Command error: ${result.error}"
-
-            if (result.exitCode == 0) {
-                // Success, break out of retry loop
-                break
-            } else {
-                log.warn "[FOVUS] Command failed on attempt ${attempt} with exit code ${result.exitCode}"
-                if (attempt < maxRetries) {
-                    log.info "[FOVUS] Retrying command in 2s..."
-                    sleep(2000)  // small backoff before retry
+    static public CliExecutionResult executeCommand(final List command, FovusCliPriority priority = FovusCliPriority.DEFAULT) {
+        return FovusCliScheduler.getInstance().execute(command, priority)
+    }
+
+    /**
+     * Execute a Fovus CLI command and parse its output while it runs, instead of buffering it.
+     * The parsed value is returned in {@link CliExecutionResult#parsedOutput}, and the {@code output} is empty.
+     *
+     * @param command The command to execute
+     * @param priority The priority class of the command
+     * @param parser Parses the standard output of the command
+     * @return The result of the last attempt
+     */
+    static public CliExecutionResult executeCommand(final List command, FovusCliPriority priority, CliOutputParser parser) {
+        return FovusCliScheduler.getInstance().execute(command, priority, parser)
+    }
+
+    /**
+     * Run a single attempt of a command, on a persistent CLI worker when the worker mode is enabled
+     * and otherwise in a new process.
+     *
+     * @param parser Parses the standard output of the command if not {@code null}
+     */
+    static CliExecutionResult runCommand(final List command, CliOutputParser parser = null) {
+        final workerPool = FovusCliWorkerPool.getInstance()
+        if (workerPool != null && workerPool.accepts(command)) {
+            try {
+                final result = workerPool.execute(command)
+                if (parser != null && result.exitCode == 0) {
+                    // The workers reply with the whole output
+                    parseOutput(result, new ByteArrayInputStream((result.output ?: '').getBytes(StandardCharsets.UTF_8)), parser)
+                    result.output = ''
                 }
+                return result
+            } catch (IOException e) {
+                log.debug "[FOVUS] CLI worker unavailable, running command in a new process: ${e.message}"
             }
         }
 
+        if (parser != null) {
+            return runStreamingCommand(command, parser)
+        }
+
+        def stdout = new StringBuilder()
+        def stderr = new StringBuilder()
+
+        def process = command.execute()
+        process.consumeProcessOutput(stdout, stderr)
+        process.waitFor()
+
+        return new CliExecutionResult(
+                exitCode: process.exitValue(),
+                output: stdout.toString(),
+                error: stderr.toString()
+        )
+    }
+
+    private static CliExecutionResult runStreamingCommand(final List command, CliOutputParser parser) {
+        def stderr = new StringBuilder()
+
+        def process = command.execute()
+        final stderrReader = process.consumeProcessErrorStream(stderr)
+        final result = new CliExecutionResult(output: '')
+        final stdout = process.getInputStream()
+        try {
+            parseOutput(result, stdout, parser)
+            // Drain what the parser did not read so the process can exit
+            stdout.transferTo(OutputStream.nullOutputStream())
+        } finally {
+            stdout.close()
+        }
+        process.waitFor()
+        stderrReader.join()
+
+        result.exitCode = process.exitValue()
+        result.error = stderr.toString()
         return result
     }
 
+    private static void parseOutput(CliExecutionResult result, InputStream output, CliOutputParser parser) {
+        try {
+            result.parsedOutput = parser.parse(output)
+        } catch (Exception e) {
+            result.parseError = e.message ?: e.toString()
+        }
+    }
+
     static boolean isRecentlySubmitted(String jobId) {
         def tsStr = jobId.split("-")[0]
         def tsMs = tsStr.toLong()
@@ -84,6 +147,99 @@ class FovusUtil {
         return diffMs <= 1 * 60 * 1000 && diffMs >= 0
     }
 
+    /**
+     * The permissions of a task work directory, which the job writes its outputs to (ie, {@code chmod 777})
+     */
+    static final Set<PosixFilePermission> SHARED_DIR_PERMISSIONS = PosixFilePermissions.fromString('rwxrwxrwx')
+
+    /**
+     * The permissions of the uploaded binaries (ie, {@code chmod 755})
+     */
+    static final Set<PosixFilePermission> EXECUTABLE_PERMISSIONS = PosixFilePermissions.fromString('rwxr-xr-x')
+
+    private static final Set<PosixFilePermission> EXECUTE_PERMISSIONS = EnumSet.of(
+            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.OTHERS_EXECUTE)
+
+    private static final int PREPARE_BATCH_SIZE = 64
+
+    private static final ExecutorService PREPARE_POOL = createPreparePool()
+
+    /**
+     * Add the execute permission to some files (ie, {@code chmod +x}), without spawning a process
+     */
+    static void makeExecutable(Path... files) {
+        for (Path file : files) {
+            try {
+                final permissions = Files.getPosixFilePermissions(file)
+                if (permissions.containsAll(EXECUTE_PERMISSIONS))
+                    continue
+                permissions.addAll(EXECUTE_PERMISSIONS)
+                Files.setPosixFilePermissions(file, permissions)
+            } catch (UnsupportedOperationException | IOException e) {
+                log.debug "[FOVUS] Unable to make ${file} executable: ${e.message}"
+            }
+        }
+    }
+
+    /**
+     * Set the permissions of a file or directory (eg, {@code chmod 777}), without spawning a process
+     */
+    static void setPermissions(Path file, Set<PosixFilePermission> permissions) {
+        try {
+            Files.setPosixFilePermissions(file, permissions)
+        } catch (UnsupportedOperationException | IOException e) {
+            log.debug "[FOVUS] Unable to change the permissions of ${file}: ${e.message}"
+        }
+    }
+
+    /**
+     * Set the permissions of a directory and all its content (eg, {@code chmod -R 755})
+     */
+    static void setPermissionsRecursively(Path root, Set<PosixFilePermission> permissions) {
+        try {
+            Files.walk(root).withCloseable { stream ->
+                stream.forEach { Path file -> setPermissions(file, permissions) }
+            }
+        } catch (IOException e) {
+            log.debug "[FOVUS] Unable to change the permissions of ${root}: ${e.message}"
+        }
+    }
+
+    /**
+     * Run an action on each item in parallel batches, and return once all of them are done
+     *
+     * @throws RuntimeException if the action failed for an item
+     */
+    static <T> void forEachInParallel(List<T> items, Closure action) {
+        if (items.size() <= PREPARE_BATCH_SIZE) {
+            items.each(action)
+            return
+        }
+
+        final List<Future<?>> batches = []
+        for (int from = 0; from < items.size(); from += PREPARE_BATCH_SIZE) {
+            final batch = items.subList(from, Math.min(from + PREPARE_BATCH_SIZE, items.size()))
+            batches.add(PREPARE_POOL.submit({ batch.each(action) } as Runnable))
+        }
+        try {
+            for (Future<?> batch : batches) {
+                batch.get()
+            }
+        } catch (ExecutionException e) {
+            batches*.cancel(false)
+            throw new RuntimeException("Failed to prepare tasks: ${e.cause.message}", e.cause)
+        }
+    }
+
+    private static ExecutorService createPreparePool() {
+        final counter = new AtomicInteger()
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), { Runnable runnable ->
+            final thread = new Thread(runnable, "fovus-prepare-${counter.incrementAndGet()}".toString())
+            thread.setDaemon(true)
+            return thread
+        } as ThreadFactory)
+    }
+
     /**
      * Normalize Nextflow glob patterns into those compatible with aws cli include/exclude pattern.
      *
@@ -148,4 +304,15 @@ class CliExecutionResult {
     int exitCode
     String output
     String error
+    /** The output parsed by a {@link CliOutputParser}, if any */
+    Object parsedOutput
+    /** The error raised by the {@link CliOutputParser}, if any */
+    String parseError
+}
+
+/**
+ * Parses the standard output of a CLI command while it runs
+ */
+interface CliOutputParser {
+    Object parse(InputStream output) throws IOException
 }
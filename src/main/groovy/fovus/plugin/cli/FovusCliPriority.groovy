@@ -0,0 +1,21 @@
+package fovus.plugin.cli
+
+/**
+ * Priority classes of Fovus CLI invocations, from the most to the least urgent
+ */
+enum FovusCliPriority {
+    TERMINATE,
+    SUBMIT,
+    PIPELINE,
+    DEFAULT,
+    DOWNLOAD,
+    LISTING,
+    STATUS;
+
+    /**
+     * Status polls are skipped while the circuit breaker is open, they are retried on the next poll cycle anyway
+     */
+    boolean isPolling() {
+        return this == STATUS
+    }
+}
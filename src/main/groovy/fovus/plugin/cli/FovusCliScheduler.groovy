@@ -0,0 +1,431 @@
+package fovus.plugin.cli
+
+import fovus.plugin.CliExecutionResult
+import fovus.plugin.CliOutputParser
+import fovus.plugin.FovusConfig
+import fovus.plugin.FovusUtil
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.Predicate
+import java.util.regex.Pattern
+
+/**
+ * Central scheduler of the Fovus CLI invocations, and of the Fovus API calls of the HTTP transport.
+ *
+ * <ul>
+ *   <li>At most {@code fovus.cliMaxConcurrency} commands run at the same time.</li>
+ *   <li>Queued commands run by {@link FovusCliPriority}, so submissions and terminations go ahead of status polls and listings.</li>
+ *   <li>Failed commands are retried with exponential backoff and full jitter. A command waiting for its retry does not hold a slot.
+ *       Errors the CLI reports as definitive, such as usage or validation errors and missing objects, are not retried.</li>
+ *   <li>A circuit breaker opens after {@code fovus.cliCircuitBreakerThreshold} consecutive commands failed all their
+ *       attempts, and rejects status polls until {@code fovus.cliCircuitBreakerCooldown} has elapsed, then lets a single
+ *       probe through. Definitive errors do not count as failures.</li>
+ * </ul>
+ *
+ * Queue depth, wait times, retries and rejected polls are available from {@link #getMetrics()} and logged periodically.
+ */
+@Slf4j
+@CompileStatic
+class FovusCliScheduler implements Closeable {
+    private static final long METRICS_LOG_INTERVAL_MS = 60_000
+
+    /** Exit code of the CLI for a command line usage error */
+    private static final int USAGE_ERROR_EXIT_CODE = 2
+
+    /**
+     * Errors that the same command would fail with again, whatever the state of the backend. A missing object is only
+     * definitive when the CLI names it, e.g. "Job 123 does not exist": a bare "404 Not Found" from a proxy or a
+     * "host not found" is a transient failure.
+     */
+    private static final Pattern DEFINITIVE_ERROR = Pattern.compile(
+            /(?i)no such (command|option)|usage:|invalid value|missing (argument|option)|validation|\b(job|task|file|object|pipeline|project)( id)? \S+ (was )?(not found|does not exist)/)
+
+    private static volatile FovusCliScheduler instance
+
+    private final int maxRetries
+    private final long baseDelayMillis
+    private final long maxDelayMillis
+    private final int circuitBreakerThreshold
+    private final long circuitBreakerCooldownMillis
+
+    private final ThreadPoolExecutor executor
+    private final ScheduledExecutorService timer
+    private final AtomicLong sequence = new AtomicLong()
+
+    // circuit breaker state
+    private final AtomicInteger consecutiveFailures = new AtomicInteger()
+    private volatile long circuitOpenUntil = 0
+    private volatile boolean probeInFlight = false
+
+    // metrics
+    private final AtomicLong executedCount = new AtomicLong()
+    private final AtomicLong totalWaitMillis = new AtomicLong()
+    private final AtomicLong maxWaitMillis = new AtomicLong()
+    private final AtomicLong retryCount = new AtomicLong()
+    private final AtomicLong rejectedCount = new AtomicLong()
+
+    FovusCliScheduler(int maxConcurrency, int maxRetries, long baseDelayMillis, long maxDelayMillis,
+                      int circuitBreakerThreshold, long circuitBreakerCooldownMillis) {
+        this.maxRetries = Math.max(1, maxRetries)
+        this.baseDelayMillis = baseDelayMillis
+        this.maxDelayMillis = maxDelayMillis
+        this.circuitBreakerThreshold = circuitBreakerThreshold
+        this.circuitBreakerCooldownMillis = circuitBreakerCooldownMillis
+
+        final concurrency = Math.max(1, maxConcurrency)
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), daemonThreadFactory('fovus-cli'))
+        this.executor.allowCoreThreadTimeOut(true)
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory('fovus-cli-timer'))
+        this.timer.scheduleWithFixedDelay({ logMetrics() }, METRICS_LOG_INTERVAL_MS, METRICS_LOG_INTERVAL_MS, TimeUnit.MILLISECONDS)
+    }
+
+    FovusCliScheduler(FovusConfig config) {
+        this(config.getCliMaxConcurrency(), config.getCliMaxRetries(), config.getCliRetryBaseDelay().toMillis(),
+                config.getCliRetryMaxDelay().toMillis(), config.getCliCircuitBreakerThreshold(),
+                config.getCliCircuitBreakerCooldown().toMillis())
+    }
+
+    /**
+     * Create the shared scheduler from the given config. Only the first call has an effect.
+     */
+    static synchronized void configure(FovusConfig config) {
+        if (instance == null) {
+            instance = new FovusCliScheduler(config)
+        }
+    }
+
+    /**
+     * @return The shared scheduler, created with the default settings if not configured yet
+     */
+    static FovusCliScheduler getInstance() {
+        if (instance == null) {
+            synchronized (FovusCliScheduler) {
+                if (instance == null) {
+                    instance = new FovusCliScheduler(8, 3, 1_000, 30_000, 5, 30_000)
+                }
+            }
+        }
+        return instance
+    }
+
+    /**
+     * Run a CLI command through the scheduler and wait for its result.
+     *
+     * @param command The command to run
+     * @param priority The priority class of the command
+     * @param parser Parses the output of the command while it runs, or {@code null} to buffer the output
+     * @return The result of the last attempt
+     * @throws FovusCliUnavailableException if a status poll is rejected by the open circuit breaker
+     */
+    CliExecutionResult execute(List command, FovusCliPriority priority, CliOutputParser parser = null) {
+        final Callable<Attempt> attempt = { runCommand(command, parser) } as Callable<Attempt>
+        final result = schedule(command.join(' '), priority, attempt)
+        if (result instanceof Throwable) {
+            final error = (Throwable) result
+            throw error instanceof RuntimeException ? (RuntimeException) error : new RuntimeException(error)
+        }
+        return (CliExecutionResult) result
+    }
+
+    /**
+     * Run an in-process call, e.g. a Fovus API request, through the scheduler and wait for its result.
+     * A call throwing an exception is retried like a failed command, unless the exception is definitive.
+     *
+     * @param description Describes the call in the logs
+     * @param priority The priority class of the call
+     * @param action The call
+     * @param definitive Whether an exception thrown by the call is an error that retrying cannot fix
+     * @return The value returned by the last attempt
+     * @throws FovusCliUnavailableException if a status poll is rejected by the open circuit breaker
+     */
+    <T> T execute(String description, FovusCliPriority priority, Callable<T> action, Predicate<Throwable> definitive) {
+        final Callable<Attempt> attempt = {
+            try {
+                return Attempt.success(action.call())
+            } catch (Exception e) {
+                return definitive.test(e) ? Attempt.definitive(e) : Attempt.failure(e)
+            }
+        } as Callable<Attempt>
+        final result = schedule(description, priority, attempt)
+        if (result instanceof Throwable) {
+            // The exception of the call, unwrapped so that callers see the same exceptions as without the scheduler
+            throw (Throwable) result
+        }
+        return (T) result
+    }
+
+    /**
+     * Queue the first attempt of a command or a call and wait for the outcome of its last attempt
+     *
+     * @return The value of the last attempt, or the exception it failed with
+     */
+    private Object schedule(String description, FovusCliPriority priority, Callable<Attempt> attempt) {
+        if (priority.isPolling() && !allowPoll()) {
+            rejectedCount.incrementAndGet()
+            throw new FovusCliUnavailableException("Fovus backend unavailable, skipping: ${description}")
+        }
+
+        final future = new CompletableFuture<Object>()
+        enqueue(new ScheduledCommand(description, priority, attempt, sequence.incrementAndGet(), 1, future))
+        try {
+            return future.get()
+        } catch (ExecutionException e) {
+            return e.cause
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt()
+            throw new RuntimeException("Interrupted while waiting for Fovus command: ${description}", e)
+        }
+    }
+
+    Map<String, Object> getMetrics() {
+        final executed = executedCount.get()
+        return [
+                queueDepth       : executor.getQueue().size(),
+                running          : executor.getActiveCount(),
+                executed         : executed,
+                averageWaitMillis: executed > 0 ? totalWaitMillis.get().intdiv(executed) : 0L,
+                maxWaitMillis    : maxWaitMillis.get(),
+                retries          : retryCount.get(),
+                rejectedPolls    : rejectedCount.get(),
+                circuitOpen      : isCircuitOpen(),
+        ] as Map<String, Object>
+    }
+
+    boolean isCircuitOpen() {
+        return System.currentTimeMillis() < circuitOpenUntil
+    }
+
+    @Override
+    void close() {
+        timer.shutdownNow()
+        executor.shutdownNow()
+    }
+
+    private void enqueue(ScheduledCommand scheduled) {
+        scheduled.enqueuedAt = System.currentTimeMillis()
+        executor.execute(scheduled)
+    }
+
+    private void run(ScheduledCommand scheduled) {
+        final waitMillis = System.currentTimeMillis() - scheduled.enqueuedAt
+        executedCount.incrementAndGet()
+        totalWaitMillis.addAndGet(waitMillis)
+        maxWaitMillis.accumulateAndGet(waitMillis, { long a, long b -> Math.max(a, b) })
+
+        log.debug "[FOVUS] Executing command (attempt ${scheduled.attempt}/${maxRetries}, waited ${waitMillis}ms): ${scheduled.description}"
+
+        Attempt outcome
+        try {
+            outcome = scheduled.action.call()
+        } catch (Exception e) {
+            outcome = Attempt.failure(e)
+        }
+
+        if (outcome.status == Attempt.SUCCESS) {
+            recordSuccess()
+            scheduled.future.complete(outcome.value)
+            return
+        }
+
+        if (outcome.status == Attempt.DEFINITIVE) {
+            log.debug "[FOVUS] Command failed with a definitive error, not retrying"
+            // The backend answered, the breaker neither counts nor clears this command
+            probeInFlight = false
+            scheduled.future.complete(outcome.value)
+            return
+        }
+
+        log.warn "[FOVUS] Command failed on attempt ${scheduled.attempt}: ${outcome.describe()}"
+
+        final canRetry = scheduled.attempt < maxRetries && !(scheduled.priority.isPolling() && isCircuitOpen())
+        if (!canRetry) {
+            // One failure per command, once it has run out of attempts
+            recordFailure()
+            scheduled.future.complete(outcome.value)
+            return
+        }
+
+        final delay = backoffDelay(scheduled.attempt)
+        retryCount.incrementAndGet()
+        log.info "[FOVUS] Retrying command in ${delay}ms..."
+        final retry = new ScheduledCommand(scheduled.description, scheduled.priority, scheduled.action, scheduled.sequence, scheduled.attempt + 1, scheduled.future)
+        timer.schedule({ enqueue(retry) }, delay, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Run a single attempt of a CLI command. A failed command completes with its result, not with an exception.
+     */
+    private static Attempt runCommand(List command, CliOutputParser parser) {
+        CliExecutionResult result
+        try {
+            result = FovusUtil.runCommand(command, parser)
+        } catch (Exception e) {
+            result = new CliExecutionResult(exitCode: -1, output: '', error: e.message ?: e.toString())
+        }
+
+        log.debug "[FOVUS] Command executed with exit code: ${result.exitCode}"
+        log.debug "[FOVUS] Command output: ${result.output}"
+        log.debug "[FOVUS] Command error: ${result.error}"
+
+        if (result.exitCode == 0) {
+            return Attempt.success(result)
+        }
+        return isDefinitiveFailure(result) ? Attempt.definitive(result) : Attempt.failure(result)
+    }
+
+    /**
+     * Whether a failed command reported an error that retrying cannot fix, as opposed to a transport or backend failure
+     */
+    static boolean isDefinitiveFailure(CliExecutionResult result) {
+        if (result.exitCode == USAGE_ERROR_EXIT_CODE) {
+            return true
+        }
+        // The command could not be run at all
+        if (result.exitCode < 0) {
+            return false
+        }
+        return result.error && DEFINITIVE_ERROR.matcher(result.error).find()
+    }
+
+    /**
+     * Exponential backoff with full jitter, capped to the max delay
+     */
+    private long backoffDelay(int attempt) {
+        final exponential = Math.min(maxDelayMillis, baseDelayMillis * (1L << Math.min(attempt - 1, 20)))
+        return ThreadLocalRandom.current().nextLong(exponential + 1)
+    }
+
+    private boolean allowPoll() {
+        final openUntil = circuitOpenUntil
+        if (openUntil == 0) {
+            return true
+        }
+        if (System.currentTimeMillis() < openUntil) {
+            return false
+        }
+
+        // Half-open: let a single probe through once the cooldown is over
+        synchronized (this) {
+            if (probeInFlight) {
+                return false
+            }
+            probeInFlight = true
+            return true
+        }
+    }
+
+    private void recordSuccess() {
+        consecutiveFailures.set(0)
+        if (circuitOpenUntil > 0) {
+            log.info "[FOVUS] Fovus backend is available again, resuming status polling"
+        }
+        circuitOpenUntil = 0
+        probeInFlight = false
+    }
+
+    private void recordFailure() {
+        final failures = consecutiveFailures.incrementAndGet()
+        if (circuitBreakerThreshold > 0 && failures >= circuitBreakerThreshold) {
+            if (!isCircuitOpen()) {
+                log.warn "[FOVUS] ${failures} consecutive Fovus CLI failures, pausing status polling for ${circuitBreakerCooldownMillis}ms"
+            }
+            circuitOpenUntil = System.currentTimeMillis() + circuitBreakerCooldownMillis
+        }
+        probeInFlight = false
+    }
+
+    private void logMetrics() {
+        if (executedCount.get() > 0 || executor.getQueue().size() > 0) {
+            log.debug "[FOVUS] CLI scheduler metrics: ${getMetrics()}"
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        final counter = new AtomicInteger()
+        return { Runnable runnable ->
+            final thread = new Thread(runnable, "${prefix}-${counter.incrementAndGet()}".toString())
+            thread.setDaemon(true)
+            return thread
+        } as ThreadFactory
+    }
+
+    /**
+     * The outcome of an attempt: its value is the result of a CLI command, the value returned by a call, or the
+     * exception a call failed with
+     */
+    @CompileStatic
+    private static class Attempt {
+        static final int SUCCESS = 0
+        static final int DEFINITIVE = 1
+        static final int FAILURE = 2
+
+        final int status
+        final Object value
+
+        private Attempt(int status, Object value) {
+            this.status = status
+            this.value = value
+        }
+
+        static Attempt success(Object value) { new Attempt(SUCCESS, value) }
+
+        static Attempt definitive(Object value) { new Attempt(DEFINITIVE, value) }
+
+        static Attempt failure(Object value) { new Attempt(FAILURE, value) }
+
+        String describe() {
+            if (value instanceof CliExecutionResult) {
+                return "exit code ${((CliExecutionResult) value).exitCode}".toString()
+            }
+            return value instanceof Throwable ? (((Throwable) value).message ?: value.toString()) : String.valueOf(value)
+        }
+    }
+
+    /**
+     * A queued command attempt, ordered by priority and then by submission order
+     */
+    @CompileStatic
+    private class ScheduledCommand implements Runnable, Comparable<ScheduledCommand> {
+        final String description
+        final FovusCliPriority priority
+        final Callable<Attempt> action
+        final long sequence
+        final int attempt
+        final CompletableFuture<Object> future
+        long enqueuedAt
+
+        ScheduledCommand(String description, FovusCliPriority priority, Callable<Attempt> action, long sequence, int attempt, CompletableFuture<Object> future) {
+            this.description = description
+            this.priority = priority
+            this.action = action
+            this.sequence = sequence
+            this.attempt = attempt
+            this.future = future
+        }
+
+        @Override
+        void run() {
+            FovusCliScheduler.this.run(this)
+        }
+
+        @Override
+        int compareTo(ScheduledCommand other) {
+            final byPriority = priority <=> other.priority
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence)
+        }
+    }
+}
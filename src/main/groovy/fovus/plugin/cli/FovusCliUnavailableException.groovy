@@ -0,0 +1,13 @@
+package fovus.plugin.cli
+
+import groovy.transform.CompileStatic
+
+/**
+ * Thrown when a CLI invocation is rejected because the Fovus backend is considered unavailable
+ */
+@CompileStatic
+class FovusCliUnavailableException extends RuntimeException {
+    FovusCliUnavailableException(String message) {
+        super(message)
+    }
+}
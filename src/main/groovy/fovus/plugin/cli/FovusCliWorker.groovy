@@ -0,0 +1,164 @@
+package fovus.plugin.cli
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import fovus.plugin.CliExecutionResult
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A long-lived Fovus CLI process that executes commands streamed over its stdin.
+ *
+ * The protocol is line-delimited JSON. Each request is a single line
+ * <pre>
+ *   {"id": 1, "args": ["job", "status", "--job-id", "123"]}
+ * </pre>
+ * and the worker answers each request with a single line carrying the same id
+ * <pre>
+ *   {"id": 1, "exitCode": 0, "output": "...", "error": "..."}
+ * </pre>
+ */
+@Slf4j
+@CompileStatic
+class FovusCliWorker implements Closeable {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+
+    private final Process process
+    private final BufferedWriter stdin
+    private final AtomicLong requestIds = new AtomicLong()
+    private final Map<Long, CompletableFuture<CliExecutionResult>> pendingRequests = new ConcurrentHashMap<>()
+    private volatile boolean alive = true
+
+    FovusCliWorker(List<String> command) {
+        this.process = new ProcessBuilder(command).start()
+        this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8))
+
+        final name = "fovus-cli-worker-${process.pid()}".toString()
+        startDaemon(name + "-stdout", { readResponses() })
+        startDaemon(name + "-stderr", { drainErrors() })
+        log.debug "[FOVUS] Started CLI worker process ${process.pid()}: ${command.join(' ')}"
+    }
+
+    boolean isAlive() {
+        return alive && process.isAlive()
+    }
+
+    /**
+     * Send a command to the worker and wait for its result. A worker that does not answer within the timeout
+     * is closed, since it may still be running the command.
+     *
+     * @param args          The CLI arguments without the CLI executable
+     * @param timeoutMillis The longest time to wait for the result
+     * @throws IOException if the worker cannot process the request, e.g. the process died or timed out
+     */
+    CliExecutionResult execute(List<String> args, long timeoutMillis) throws IOException {
+        if (!isAlive()) {
+            throw new IOException("Fovus CLI worker ${process.pid()} is not running")
+        }
+
+        final id = requestIds.incrementAndGet()
+        final future = new CompletableFuture<CliExecutionResult>()
+        pendingRequests.put(id, future)
+
+        try {
+            final line = MAPPER.writeValueAsString([id: id, args: args])
+            synchronized (stdin) {
+                stdin.write(line)
+                stdin.newLine()
+                stdin.flush()
+            }
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS)
+        } catch (TimeoutException e) {
+            close()
+            throw new IOException("Fovus CLI worker ${process.pid()} did not answer within ${timeoutMillis} ms", e)
+        } catch (ExecutionException e) {
+            throw new IOException("Fovus CLI worker ${process.pid()} failed: ${e.cause?.message}", e.cause)
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt()
+            throw new IOException("Interrupted while waiting for Fovus CLI worker ${process.pid()}", e)
+        } catch (IOException e) {
+            markDead(e)
+            throw e
+        } finally {
+            pendingRequests.remove(id)
+        }
+    }
+
+    @Override
+    void close() {
+        alive = false
+        try {
+            stdin.close()
+        } catch (IOException e) {
+            log.trace "[FOVUS] Cannot close stdin of CLI worker ${process.pid()}: ${e.message}"
+        }
+        process.destroy()
+        failPendingRequests(new IOException("Fovus CLI worker ${process.pid()} was closed"))
+    }
+
+    private void readResponses() {
+        try {
+            final reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))
+            String line
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim()) {
+                    continue
+                }
+
+                final response = MAPPER.readValue(line, Map)
+                final id = (response.get('id') as Number)?.longValue()
+                final future = id != null ? pendingRequests.get(id) : null
+                if (future == null) {
+                    log.debug "[FOVUS] Ignoring unexpected CLI worker response: ${line}"
+                    continue
+                }
+
+                future.complete(new CliExecutionResult(
+                        exitCode: (response.get('exitCode') as Number)?.intValue() ?: 0,
+                        output: response.get('output') as String ?: '',
+                        error: response.get('error') as String ?: ''
+                ))
+            }
+            markDead(new IOException("Fovus CLI worker ${process.pid()} closed its output"))
+        } catch (Exception e) {
+            markDead(e)
+        }
+    }
+
+    private void drainErrors() {
+        try {
+            process.getErrorStream().newReader(StandardCharsets.UTF_8.name()).eachLine { String line ->
+                log.trace "[FOVUS] CLI worker ${process.pid()} > ${line}"
+            }
+        } catch (IOException e) {
+            log.trace "[FOVUS] Stopped reading CLI worker ${process.pid()} stderr: ${e.message}"
+        }
+    }
+
+    private void markDead(Exception cause) {
+        if (alive) {
+            log.debug "[FOVUS] CLI worker ${process.pid()} is no longer usable: ${cause.message}"
+        }
+        alive = false
+        failPendingRequests(cause)
+    }
+
+    private void failPendingRequests(Exception cause) {
+        for (CompletableFuture<CliExecutionResult> future : pendingRequests.values()) {
+            future.completeExceptionally(cause)
+        }
+    }
+
+    private static void startDaemon(String name, Runnable runnable) {
+        final thread = new Thread(runnable, name)
+        thread.setDaemon(true)
+        thread.start()
+    }
+}
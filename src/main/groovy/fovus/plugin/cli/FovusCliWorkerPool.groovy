@@ -0,0 +1,133 @@
+package fovus.plugin.cli
+
+import fovus.plugin.CliExecutionResult
+import fovus.plugin.FovusConfig
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+
+/**
+ * A small pool of {@link FovusCliWorker} processes shared by all the Fovus clients.
+ *
+ * The pool is started once per Nextflow run when {@code fovus.cliWorkers} is greater than 0.
+ * Each worker serves one request at a time. Dead workers are replaced on the next request.
+ */
+@Slf4j
+@CompileStatic
+class FovusCliWorkerPool implements Closeable {
+    private static volatile FovusCliWorkerPool instance
+
+    private final String cliPath
+    private final List<String> workerCommand
+    private final long timeoutMillis
+    private final BlockingQueue<FovusCliWorker> idleWorkers
+    private final List<FovusCliWorker> workers = []
+    private volatile boolean closed = false
+
+    /**
+     * @param timeoutMillis The longest time a command can run on a worker
+     */
+    FovusCliWorkerPool(String cliPath, List<String> workerCommand, int size, long timeoutMillis) {
+        this.cliPath = cliPath
+        this.workerCommand = workerCommand
+        this.timeoutMillis = timeoutMillis
+        this.idleWorkers = new ArrayBlockingQueue<>(size)
+        try {
+            for (int i = 0; i < size; i++) {
+                idleWorkers.add(startWorker())
+            }
+        } catch (IOException | RuntimeException e) {
+            // Do not leave the workers already started running
+            close()
+            throw e
+        }
+    }
+
+    /**
+     * Start the shared worker pool if enabled in the given config. Only the first call has an effect.
+     */
+    static synchronized void configure(FovusConfig config) {
+        if (instance != null || config.getCliWorkers() <= 0) {
+            return
+        }
+
+        final command = config.getCliWorkerCommand().tokenize(' ')
+        try {
+            instance = new FovusCliWorkerPool(config.getCliPath(), command, config.getCliWorkers(), config.getCliWorkerTimeout().toMillis())
+            Runtime.getRuntime().addShutdownHook(new Thread({ instance?.close() }, 'fovus-cli-worker-shutdown'))
+            log.debug "[FOVUS] Started ${config.getCliWorkers()} CLI workers"
+        } catch (IOException e) {
+            log.warn "[FOVUS] Cannot start Fovus CLI workers, falling back to one process per command: ${e.message}"
+        }
+    }
+
+    /**
+     * @return The shared worker pool, or {@code null} when the worker mode is disabled
+     */
+    static FovusCliWorkerPool getInstance() {
+        return instance
+    }
+
+    /**
+     * Check whether the given command can be served by the workers, i.e. it is a Fovus CLI command.
+     */
+    boolean accepts(List command) {
+        return !closed && command && command[0]?.toString() == cliPath
+    }
+
+    /**
+     * Execute a Fovus CLI command on an idle worker.
+     *
+     * @param command The full CLI command, including the CLI executable
+     * @throws IOException if the worker failed to process the request
+     */
+    CliExecutionResult execute(List command) throws IOException {
+        if (closed) {
+            throw new IOException("Fovus CLI worker pool is closed")
+        }
+
+        final args = command.drop(1).collect { it.toString() }
+        FovusCliWorker worker = null
+        try {
+            worker = idleWorkers.take()
+            if (!worker.isAlive()) {
+                worker = replaceWorker(worker)
+            }
+            return worker.execute(args, timeoutMillis)
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt()
+            throw new IOException("Interrupted while waiting for an idle Fovus CLI worker", e)
+        } finally {
+            if (worker != null) {
+                idleWorkers.offer(worker)
+            }
+        }
+    }
+
+    @Override
+    synchronized void close() {
+        closed = true
+        for (FovusCliWorker worker : workers) {
+            worker.close()
+        }
+    }
+
+    private synchronized FovusCliWorker replaceWorker(FovusCliWorker deadWorker) {
+        if (closed) {
+            throw new IOException("Fovus CLI worker pool is closed")
+        }
+
+        deadWorker.close()
+        workers.remove(deadWorker)
+        log.debug "[FOVUS] Replacing dead CLI worker"
+        return startWorker()
+    }
+
+    private synchronized FovusCliWorker startWorker() {
+        final worker = new FovusCliWorker(workerCommand)
+        workers.add(worker)
+        return worker
+    }
+}
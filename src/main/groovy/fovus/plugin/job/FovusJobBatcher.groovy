@@ -0,0 +1,161 @@
+package fovus.plugin.job
+
+import fovus.plugin.transport.CreateJobRequest
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Collects the job creations requested within a short window and creates them with a single
+ * multi-job manifest.
+ *
+ * A batch is sent when the window of its first job elapses or when it reaches the max batch size.
+ * If the transport does not support bulk creation, the jobs of this batch and of every later batch are created one by
+ * one. Any other failure fails the whole batch: the backend may already have created some of its jobs, so creating them
+ * again would start duplicates.
+ */
+@Slf4j
+@CompileStatic
+class FovusJobBatcher {
+    private final FovusJobClient jobClient
+    private final long windowMillis
+    private final int maxBatchSize
+
+    private final ScheduledExecutorService timer
+    private final ExecutorService creator
+
+    private List<PendingJob> pending = []
+    private long generation = 0
+
+    /** Set once the transport has rejected a bulk creation as unsupported */
+    private volatile boolean batchUnsupported = false
+
+    /**
+     * @param threads The maximum number of concurrent creations, i.e. of concurrent CLI calls when the jobs are created one by one
+     */
+    FovusJobBatcher(FovusJobClient jobClient, long windowMillis, int maxBatchSize, int threads) {
+        this.jobClient = jobClient
+        this.windowMillis = windowMillis
+        this.maxBatchSize = Math.max(1, maxBatchSize)
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory('fovus-job-batch-timer'))
+        this.creator = Executors.newFixedThreadPool(Math.max(1, threads), daemonThreadFactory('fovus-job-batch'))
+    }
+
+    /**
+     * Queue a job creation.
+     *
+     * @return A future completed with the id of the created job
+     */
+    CompletableFuture<String> submit(CreateJobRequest request) {
+        final job = new PendingJob(request)
+        List<PendingJob> batch = null
+        synchronized (this) {
+            pending.add(job)
+            if (pending.size() >= maxBatchSize) {
+                batch = drain()
+            } else if (pending.size() == 1) {
+                final batchGeneration = generation
+                timer.schedule({ flush(batchGeneration) }, windowMillis, TimeUnit.MILLISECONDS)
+            }
+        }
+
+        if (batch != null) {
+            final fullBatch = batch
+            creator.execute { create(fullBatch) }
+        }
+        return job.future
+    }
+
+    private void flush(long batchGeneration) {
+        List<PendingJob> batch
+        synchronized (this) {
+            // The batch was already sent because it was full
+            if (batchGeneration != generation || pending.isEmpty()) {
+                return
+            }
+            batch = drain()
+        }
+        creator.execute { create(batch) }
+    }
+
+    private List<PendingJob> drain() {
+        final batch = pending
+        pending = []
+        generation++
+        return batch
+    }
+
+    private void create(List<PendingJob> batch) {
+        if (batch.size() == 1 || batchUnsupported) {
+            createEach(batch)
+            return
+        }
+
+        List<String> jobIds
+        try {
+            log.debug "[FOVUS] Creating ${batch.size()} jobs in one batch"
+            jobIds = jobClient.createJobs(batch.collect { PendingJob job -> job.request })
+        } catch (UnsupportedOperationException e) {
+            log.warn "[FOVUS] Bulk job creation is not supported, creating the jobs one by one: ${e.message}"
+            batchUnsupported = true
+            createEach(batch)
+            return
+        } catch (Throwable e) {
+            log.debug "[FOVUS] Failed to create ${batch.size()} jobs in one batch: ${e.message}"
+            for (PendingJob job : batch) {
+                job.future.completeExceptionally(e)
+            }
+            return
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch[i].future.complete(jobIds[i])
+        }
+    }
+
+    private void createEach(List<PendingJob> batch) {
+        for (PendingJob job : batch) {
+            creator.execute {
+                try {
+                    job.future.complete(jobClient.createJob(job.request))
+                } catch (Throwable e) {
+                    job.future.completeExceptionally(e)
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop sending the batches. The batches waiting for the end of their window are not sent, the ones already sent complete.
+     */
+    void close() {
+        timer.shutdownNow()
+        creator.shutdown()
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        final counter = new AtomicInteger()
+        return { Runnable runnable ->
+            final thread = new Thread(runnable, "${prefix}-${counter.incrementAndGet()}".toString())
+            thread.setDaemon(true)
+            return thread
+        } as ThreadFactory
+    }
+
+    @CompileStatic
+    private static class PendingJob {
+        final CreateJobRequest request
+        final CompletableFuture<String> future = new CompletableFuture<>()
+
+        PendingJob(CreateJobRequest request) {
+            this.request = request
+        }
+    }
+}
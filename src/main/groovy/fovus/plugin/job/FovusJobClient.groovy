@@ -1,31 +1,42 @@
 package fovus.plugin.job
 
-import groovy.json.JsonSlurper
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import fovus.plugin.FovusConfig
-import fovus.plugin.FovusUtil
 import fovus.plugin.nio.FovusFileMetadata
+import fovus.plugin.transport.CreateJobRequest
+import fovus.plugin.transport.CreateJobsRequest
+import fovus.plugin.transport.DefaultJobConfigRequest
+import fovus.plugin.transport.DownloadRequest
+import fovus.plugin.transport.FovusTransport
+import fovus.plugin.transport.FovusTransportFactory
+import fovus.plugin.transport.JobStatusRequest
+import fovus.plugin.transport.ListObjectsRequest
+import fovus.plugin.transport.ListObjectsResponse
+import fovus.plugin.transport.ReadRangeRequest
+import fovus.plugin.transport.TerminateJobRequest
 import java.util.concurrent.ConcurrentHashMap
 
 /**
- * Client for executing Fovus CLI commands
+ * Client for executing Fovus job operations
  */
 @CompileStatic
 @Slf4j
 class FovusJobClient {
     private FovusConfig config
     private FovusJobConfig jobConfig
-    private static final Map<String, Map> jobConfigCache = new ConcurrentHashMap<>()
+    private final FovusTransport transport
+    private static final ConcurrentHashMap<String, FovusLoadOnce<String>> jobConfigCache = new ConcurrentHashMap<>()
     private static final long TTL_MS = 10 * 60 * 1000
 
     FovusJobClient(FovusConfig config, FovusJobConfig jobConfig) {
-        this.config = config
+        this(config)
         this.jobConfig = jobConfig
     }
 
     FovusJobClient(FovusConfig config) {
         this.config = config
+        this.transport = FovusTransportFactory.get(config)
     }
 
     void setJobConfig(FovusJobConfig jobConfig) {
@@ -33,47 +44,48 @@ class FovusJobClient {
     }
 
     String createJob(String jobConfigFilePath, String jobDirectory, String pipelineId, List<String> includeList, String jobName = null, isArrayJob = false) {
-        def command = [config.getCliPath(), '--silence', '--nextflow', 'job', 'create', jobConfigFilePath, jobDirectory]
-
-        if(pipelineId){
-            command << "--pipeline-id"
-            command << pipelineId
-        }
-
-        if (jobName) {
-            command << "--job-name"
-            command << jobName
-        }
+        return createJob(newCreateJobRequest(jobConfigFilePath, jobDirectory, pipelineId, includeList, jobName, isArrayJob as boolean))
+    }
 
-        if (includeList.size() > 0) {
-            command << "--include-paths"
-            command << includeList.join(",")
-        }
+    CreateJobRequest newCreateJobRequest(String jobConfigFilePath, String jobDirectory, String pipelineId, List<String> includeList, String jobName, boolean isArrayJob) {
+        return new CreateJobRequest(
+                jobConfigFilePath: jobConfigFilePath,
+                jobDirectory: jobDirectory,
+                pipelineId: pipelineId,
+                includePaths: includeList,
+                jobName: jobName,
+                arrayJob: isArrayJob,
+                projectName: config.projectName
+        )
+    }
 
-        if (config.projectName != null && config.projectName != "") {
-            command << "--project-name"
-            command << config.projectName
-        }
+    String createJob(CreateJobRequest request) {
+        final response = transport.createJob(request)
 
-        def result = FovusUtil.executeCommand(command)
+        log.trace"[FOVUS] Job created with ID: ${response.jobId}"
 
+        return response.jobId
+    }
 
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to create Fovus job: ${result.error}")
+    /**
+     * Create several jobs with a single backend call.
+     *
+     * @return The ids of the created jobs, in the order of the requests
+     * @throws UnsupportedOperationException if the transport cannot create several jobs at once, no job being created
+     */
+    List<String> createJobs(List<CreateJobRequest> requests) {
+        final jobIds = transport.createJobs(new CreateJobsRequest(jobs: requests)).jobIds
+        if (jobIds == null || jobIds.size() != requests.size()) {
+            throw new RuntimeException("Failed to create Fovus jobs: expected ${requests.size()} job ids, got ${jobIds?.size()}")
         }
 
-        // Get the Job ID (the last line of the output)
-        def jobId = result.output.trim().split('\n')[-1]
-        log.trace"[FOVUS] Job created with ID: ${jobId}"
+        log.trace"[FOVUS] Jobs created with IDs: ${jobIds}"
 
-        return jobId
+        return jobIds
     }
 
     FovusJobStatus getJobStatus(String jobId) {
-        def command = [config.getCliPath(), 'job', 'status', '--job-id', jobId]
-        def result = FovusUtil.executeCommand(command)
-
-        def jobStatus = result.output.trim().split('\n')[-1]
+        def jobStatus = transport.getJobStatus(new JobStatusRequest(jobId: jobId)).status
         log.trace"[FOVUS] Job Id: ${jobId}, status: ${jobStatus}"
 
         switch (jobStatus) {
@@ -108,62 +120,23 @@ class FovusJobClient {
     }
 
     public void downloadJobOutputs(String jobDirectoryPath, String jobId) {
-        def downloadJobCommand = [config.getCliPath(), 'job', 'download', jobDirectoryPath, '--job-id', jobId]
-
         log.trace"[FOVUS] Download job outputs"
-        def result = FovusUtil.executeCommand(downloadJobCommand)
-
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to download Fovus job outputs: ${result.error}")
-        }
+        transport.download(new DownloadRequest(fileType: "jobs", path: "${jobId}/".toString(), localPath: jobDirectoryPath))
     }
 
     public void terminateJob(String jobId) {
-        def command = [config.getCliPath(), 'job', 'terminate', '--job-id', jobId]
-        def result = FovusUtil.executeCommand(command)
-
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to terminate Fovus job: ${result.error}")
-        }
+        transport.terminateJob(new TerminateJobRequest(jobId: jobId))
     }
 
+    /**
+     * Get the default job config JSON of a benchmarking profile. It is cached for 10 minutes and fetched
+     * once when many tasks ask for it at the same time.
+     */
     String getDefaultJobConfig(String benchmarkingProfileName) {
-        long currentTime = System.currentTimeMillis()
-
-        // 1. Check if the result exists and is still valid (within TTL)
-        if (jobConfigCache.containsKey(benchmarkingProfileName)) {
-            // Explicitly define the map to help the static type checker
-            Map entry = (Map) jobConfigCache.get(benchmarkingProfileName)
-
-            // Cast timestamp to long specifically
-            long entryTime = (long) entry.timestamp
-
-            if ((currentTime - entryTime) < TTL_MS) {
-                log.trace "[FOVUS] Returning cached config for: ${benchmarkingProfileName}"
-                return (String) entry.output
-            } else {
-                log.trace "[FOVUS] Cache expired for: ${benchmarkingProfileName}. Re-fetching..."
-                jobConfigCache.remove(benchmarkingProfileName)
-            }
+        return FovusLoadOnce.load(jobConfigCache, benchmarkingProfileName, null, TTL_MS) {
+            log.trace "[FOVUS] Fetching default job config for: ${benchmarkingProfileName}"
+            transport.getDefaultJobConfig(new DefaultJobConfigRequest(benchmarkingProfileName: benchmarkingProfileName)).jobConfigJson
         }
-
-        // 2. Execute the actual command if no valid cache exists
-        def command = [config.getCliPath(), 'job', 'get-default-config', '--benchmarking-profile-name', "${benchmarkingProfileName}"]
-        def result = FovusUtil.executeCommand(command)
-
-        log.trace "[FOVUS] getDefaultJobConfig with exit code: ${result.exitCode}"
-        if (result.exitCode != 0) {
-            log.trace "[FOVUS] Command error: ${result.error}"
-            return null
-        }
-
-        // 3. Save to cache before returning
-        jobConfigCache.put(benchmarkingProfileName, [
-                output: result.output,
-                timestamp: currentTime
-        ])
-
-        return result.output
     }
 
     String getDefaultJobConfig() {
@@ -172,57 +145,38 @@ class FovusJobClient {
 
     /**
      * Download a file from Fovus Storage (either jobs of files type) to a local directory.
-     * @param jobId The job ID to download from (if any)
      * @param fovusPath The Fovus Storage path (relative to jobs/ or files/).
      *  The component after the last / will be used as value for the --include-paths option. If this is a directory, need to add / at the end.
      * @param localPath The local directory to download to
+     * @param fileType jobs or files
      */
     void downloadFile(String fovusPath, String localPath, String fileType) {
         log.debug "[FOVUS] Downloading file: ${fovusPath} to ${localPath}"
-        def command
-        if (fileType == "jobs") {
-            command = getJobFileDownloadCommand(fovusPath, localPath)
-        } else {
-            command = getStorageFileDownloadCommand(fovusPath, localPath)
-        }
-        def result = FovusUtil.executeCommand(command)
-
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to upload file: ${result.error}")
-        }
+        transport.download(new DownloadRequest(fileType: fileType, path: fovusPath, localPath: localPath))
     }
 
-    private final List<String> getJobFileDownloadCommand(String fovusPath, String localPath) {
-        final parts = fovusPath.split("/")
-        final String jobId = parts[0]
-        final includePath = parts[1..-1].join('/')
-
-        def command = [config.getCliPath(), '--silence', 'job', 'download', localPath, '--job-id', jobId]
-
-        if (!includePath.isEmpty()) {
-            command << '--include-paths'
-            command << includePath
-        }
-
-        return command
+    /**
+     * Read a byte range of a file from Fovus Storage.
+     *
+     * @param fileType jobs or files
+     * @param path The path of the file relative to jobs/ or files/.
+     * @param offset The offset of the first byte to read
+     * @param length The number of bytes to read
+     * @return The bytes read, shorter than {@code length} at the end of the file
+     * @throws UnsupportedOperationException if the transport can only download whole files
+     */
+    byte[] readFileRange(String fileType, String path, long offset, int length) {
+        log.trace "[FOVUS] Reading ${length} bytes at ${offset} of file: ${path}"
+        return transport.readRange(new ReadRangeRequest(fileType: fileType, path: path, offset: offset, length: length)).data
     }
 
-    private final List<String> getStorageFileDownloadCommand(String fovusPath, String localPath) {
-        final parts = fovusPath.split("/")
-        def fovusPathDir
-        def includePath
-        if (fovusPath.endsWith("/")) {
-            fovusPathDir = parts[0..-1].join('/')
-            includePath = "*"
-        } else {
-            fovusPathDir = parts.size() > 1 ? parts[0..-2].join('/') : ""
-            includePath = parts[-1]
-        }
-        def command = [config.getCliPath(), '--silence', 'storage', 'download', fovusPathDir, localPath, '--include-paths', includePath]
-        return command
+    /**
+     * Whether {@link #readFileRange} is supported, otherwise the files can only be downloaded whole
+     */
+    boolean supportsRangedReads() {
+        return transport.supportsRangedReads()
     }
 
-
     /**
      * List the files in the provided path.
      *
@@ -231,63 +185,37 @@ class FovusJobClient {
      * @return List of FovusFileMetadata objects
      */
     List<FovusFileMetadata> listFileObjects(String fileType, String path) {
-        def command = [config.getCliPath(), '--silence', 'job', 'list-objects']
-
-        if (fileType == "jobs") {
-            def parts = path.tokenize('/')
-            if (parts.isEmpty()) {
-                throw new RuntimeException("Invalid Fovus path: ${path}")
-            }
-            final jobId = parts[0]
-            final jobRelativePath = parts.size() > 1 ? parts[1..-1].join('/') : ""
-            command << jobRelativePath
-            command << '--job-id'
-            command << jobId.toString()
-        } else {
-            command << path
-        }
-
-        def result = FovusUtil.executeCommand(command)
-
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to upload file: ${result.error}")
+        def page = listFileObjectsPage(fileType, path, null)
+        if (page.objects == null || page.nextContinuationToken == null) {
+            return page.objects
         }
 
-
-        try {
-            def output = result.output.toString()
-
-            def jsonText = output.readLines().drop(2).join('\n')
-
-            def json = new JsonSlurper().parseText(jsonText)
-            if (!(json instanceof List)) {
-                throw new RuntimeException("No objects found for path: ${path}")
-            }
-
-
-            List<Map> jsonList = (List<Map>) json
-            List<FovusFileMetadata> metaDataList = []
-
-            for (Map obj : jsonList) {
-                def lastModifiedStr = obj['LastModified'] as String
-                def dateFormat = new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX")
-                Date lastModifiedDate = dateFormat.parse(lastModifiedStr)
-
-                def objMetadata = new FovusFileMetadata(
-                        obj['Key'] as String,
-                        lastModifiedDate,
-                        obj['ETag'] as String,
-                        (obj['Size'] as Number).longValue(),
-                )
-                metaDataList.add(objMetadata)
-
+        final List<FovusFileMetadata> objects = new ArrayList<>(page.objects)
+        while (page.nextContinuationToken != null) {
+            page = listFileObjectsPage(fileType, path, page.nextContinuationToken)
+            if (page.objects == null) {
+                throw new RuntimeException("Failed to list objects: invalid page of ${fileType}/${path}")
             }
-
-            return metaDataList
-        } catch (Exception e) {
-            log.error "[FOVUS] Error listing file objects: ${e.message}"
+            objects.addAll(page.objects)
         }
-        return null
+        return objects
+    }
+
+    /**
+     * List one page of the files in the provided path. The page size is set by the {@code listPageSize} option.
+     *
+     * @param fileType jobs or files
+     * @param path The path to list files from that is relative to files/ or jobs/.
+     * @param continuationToken The token of the page to list, or {@code null} for the first page
+     * @return The page of FovusFileMetadata objects, with the token of the next page if any
+     */
+    ListObjectsResponse listFileObjectsPage(String fileType, String path, String continuationToken) {
+        return transport.listObjects(new ListObjectsRequest(
+                fileType: fileType,
+                path: path,
+                maxKeys: config.listPageSize,
+                continuationToken: continuationToken
+        ))
     }
 
 
@@ -1,16 +1,15 @@
 package fovus.plugin.job
 
+import com.fasterxml.jackson.annotation.JsonIgnore
+import com.fasterxml.jackson.annotation.JsonPropertyOrder
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize
 import fovus.plugin.FovusUtil
-import groovy.json.JsonOutput
 import groovy.transform.Canonical
 import groovy.transform.CompileStatic
 import groovy.transform.MapConstructor
 import groovy.util.logging.Slf4j
 import nextflow.processor.TaskRun
 
-import java.nio.file.Files
-import java.nio.file.Path
 
 /**
  * Configurations for Fovus job.
@@ -22,6 +21,7 @@ import java.nio.file.Path
  */
 @Slf4j
 @CompileStatic
+@JsonPropertyOrder(['environment', 'constraints', 'objective', 'workload'])
 class FovusJobConfig {
 
     @JsonDeserialize(using = EnvironmentDeserializer)
@@ -29,9 +29,15 @@ class FovusJobConfig {
     Constraints constraints
     Objective objective
     Workload workload
+    /**
+     * Given with the job creation rather than in the config file, so that the tasks of a process share the same file
+     */
+    @JsonIgnore
     String jobName
+    @JsonIgnore
     FovusJobClient jobClient
 
+    @JsonIgnore
     private final TaskRun task
 
     void setEnvironment(Environment environment) {
@@ -71,15 +77,17 @@ class FovusJobConfig {
                 : task.config.get('benchmarkingProfileName')
         def fovusJobConfig
 
+        // The templates are shared by the tasks, the values overridden by a task are copied
         if (jobConfigFilePath) {
-            fovusJobConfig = FovusJobConfigBuilder.fromJsonFile(jobConfigFilePath as String)
+            fovusJobConfig = FovusJobConfigBuilder.templateFromJsonFile(jobConfigFilePath as String)
         } else {
-            def defaultConfigFromBenchmarkName = jobClient.getDefaultJobConfig((benchmarkingProfileName ?: "Default") as String)
+            final profileName = (benchmarkingProfileName ?: "Default") as String
+            def defaultConfigFromBenchmarkName = jobClient.getDefaultJobConfig(profileName)
 
             if (!defaultConfigFromBenchmarkName || defaultConfigFromBenchmarkName == "{}") {
                 throw new Error("[Fovus] No default job config found")
             }
-            fovusJobConfig = FovusJobConfigBuilder.fromJsonString(defaultConfigFromBenchmarkName)
+            fovusJobConfig = FovusJobConfigBuilder.templateFromJsonString(profileName, defaultConfigFromBenchmarkName)
         }
 
         this.task = task
@@ -149,7 +157,7 @@ class FovusJobConfig {
     private JobConstraints createJobConstraints(FovusJobConfig fovusJobConfig) {
         def extension = task.config.get('ext') as Map<String, Object>;
         def defaultJobConstraints = fovusJobConfig.getConstraints().jobConstraints;
-        def cpuArchitectures = defaultJobConstraints.supportedCpuArchitectures;
+        def cpuArchitectures = copyOf(defaultJobConstraints.supportedCpuArchitectures);
 
         if (extension?.supportedCpuArchitectures != null && extension?.supportedCpuArchitectures instanceof List &&
             (extension?.supportedCpuArchitectures as List<String>).size() > 0) {
@@ -226,8 +234,8 @@ class FovusJobConfig {
         def extension = task.config.get('ext') as Map<String, Object>
         def defaultWorkload = fovusJobConfig.workload;
 
-        def remoteInputsForAllTasks = defaultWorkload.remoteInputsForAllTasks
-        def parallelismConfigFiles = defaultWorkload.parallelismConfigFiles
+        def remoteInputsForAllTasks = copyOf(defaultWorkload.remoteInputsForAllTasks)
+        def parallelismConfigFiles = copyOf(defaultWorkload.parallelismConfigFiles)
 
         def outputFileOption = (extension?.outputFileOption != null)
                 ? extension.outputFileOption
@@ -278,18 +286,10 @@ class FovusJobConfig {
     }
 
 
-    /**
-     * Save the job config to a JSON file and return the file path.
-     */
-    String toJson(Path jobConfigFile) {
-        // Write the job config to a file
-        def jsonString = JsonOutput.prettyPrint(JsonOutput.toJson(this))
-        Files.write(jobConfigFile, jsonString.bytes)
-
-        log.debug "[FOVUS] Job config file for ${task.name} saved to ${jobConfigFile.toString()}"
-
-        return jobConfigFile.toString()
+    private static List<String> copyOf(List<String> values) {
+        return values != null ? new ArrayList<String>(values) : null
     }
+
     /**
      * Remove invalid characters from a job name string
      *
@@ -1,71 +1,127 @@
-package fovus.plugin.job
-
-import com.fasterxml.jackson.databind.module.SimpleModule
-import com.fasterxml.jackson.databind.node.ObjectNode
-import groovy.json.JsonSlurper
-import groovy.transform.CompileStatic
-import com.fasterxml.jackson.databind.DeserializationFeature
-import com.fasterxml.jackson.core.JsonParser
-import com.fasterxml.jackson.databind.DeserializationContext
-import com.fasterxml.jackson.databind.JsonDeserializer
-import com.fasterxml.jackson.databind.ObjectMapper
-
-@CompileStatic
-class FovusJobConfigBuilder {
-    static FovusJobConfig fromJsonString(String jsonData) {
-
-        def mapper = new ObjectMapper()
-        SimpleModule module = new SimpleModule()
-        module.addDeserializer(Environment, new EnvironmentDeserializer())
-        mapper.registerModule(module)
-
-        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-        def defaultJobConfig = mapper.readValue(jsonData, FovusJobConfig)
-
-        def json = new JsonSlurper().parseText(jsonData)
-        if (json instanceof Map) {
-            def envData = json.environment
-            if (envData instanceof Map && envData?.containerized) {
-                def containerData = envData.containerized
-                if (containerData instanceof Map) {
-                    def containerized = new Containerized(
-                            container: containerData.container,
-                            imagePath: containerData.imagePath,
-                            version: containerData.version
-                    )
-
-                    def environment = new ContainerizedEnvironment(containerized: containerized)
-                    defaultJobConfig.environment = environment
-                }
-
-            } else if (envData instanceof Map && envData?.monolithicList) {
-                // TODO: Create monolithic environment object and set in config
-            }
-        }
-
-        return defaultJobConfig
-
-    }
-
-    static FovusJobConfig fromJsonFile(String path) {
-        String jsonData = new File(path).getText()
-        return fromJsonString(jsonData)
-    }
-}
-
-class EnvironmentDeserializer extends JsonDeserializer<Environment> {
-    @Override
-    Environment deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-        def mapper = (ObjectMapper) p.codec
-        ObjectNode node = p.codec.readTree(p)
-
-        if (node.has("monolithicList")) {
-            return mapper.treeToValue(node, MonolithicEnvironment)
-        } else if (node.has("containerized")) {
-            return mapper.treeToValue(node, ContainerizedEnvironment)
-        }
-
-        return null // fallback
-    }
-}
-
+package fovus.plugin.job
+
+import com.fasterxml.jackson.databind.module.SimpleModule
+import com.fasterxml.jackson.databind.node.ObjectNode
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.databind.DeserializationContext
+import com.fasterxml.jackson.databind.JsonDeserializer
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Parse the job config JSON files and the default job configs of the benchmarking profiles.
+ * <p>
+ * The parsed configs are templates shared by the tasks: they are parsed once per file version or default
+ * config, and must not be modified. {@link FovusJobConfig} copies the values it overrides.
+ */
+@Slf4j
+@CompileStatic
+class FovusJobConfigBuilder {
+
+    static final ObjectMapper MAPPER = createMapper()
+
+    private static final ConcurrentHashMap<String, FovusLoadOnce<FovusJobConfig>> templates = new ConcurrentHashMap<>()
+
+    private static ObjectMapper createMapper() {
+        def mapper = new ObjectMapper()
+        SimpleModule module = new SimpleModule()
+        module.addDeserializer(Environment, new EnvironmentDeserializer())
+        mapper.registerModule(module)
+
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+        return mapper
+    }
+
+    static FovusJobConfig fromJsonString(String jsonData) {
+        final json = MAPPER.readTree(jsonData)
+        def defaultJobConfig = MAPPER.treeToValue(json, FovusJobConfig)
+
+        final envData = json.get('environment')
+        if (envData != null && envData.isObject() && isTrue(envData.get('containerized'))) {
+            def containerData = envData.get('containerized')
+            if (containerData.isObject()) {
+                def containerized = new Containerized(
+                        container: textOf(containerData, 'container'),
+                        imagePath: textOf(containerData, 'imagePath'),
+                        version: textOf(containerData, 'version')
+                )
+
+                def environment = new ContainerizedEnvironment(containerized: containerized)
+                defaultJobConfig.environment = environment
+            }
+
+        } else if (envData != null && envData.isObject() && isTrue(envData.get('monolithicList'))) {
+            // TODO: Create monolithic environment object and set in config
+        }
+
+        return defaultJobConfig
+
+    }
+
+    static FovusJobConfig fromJsonFile(String path) {
+        String jsonData = new File(path).getText()
+        return fromJsonString(jsonData)
+    }
+
+    /**
+     * Get the template parsed from a job config file, parsing it again when the file is modified
+     */
+    static FovusJobConfig templateFromJsonFile(String path) {
+        final file = new File(path)
+        return FovusLoadOnce.load(templates, "file:${file.absolutePath}".toString(), file.lastModified(), 0) {
+            log.debug "[FOVUS] Parsing job config file ${path}"
+            fromJsonFile(path)
+        }
+    }
+
+    /**
+     * Get the template parsed from the default job config of a benchmarking profile, parsing it again when the default config changes
+     */
+    static FovusJobConfig templateFromJsonString(String benchmarkingProfileName, String jsonData) {
+        return FovusLoadOnce.load(templates, "profile:${benchmarkingProfileName}".toString(), jsonData, 0) {
+            fromJsonString(jsonData)
+        }
+    }
+
+    /**
+     * Groovy truth of a JSON value, as the values parsed by JsonSlurper
+     */
+    private static boolean isTrue(JsonNode node) {
+        if (node == null || node.isNull())
+            return false
+        if (node.isContainerNode())
+            return node.size() > 0
+        if (node.isTextual())
+            return !node.asText().isEmpty()
+        if (node.isNumber())
+            return node.asDouble() != 0
+        return node.asBoolean()
+    }
+
+    private static String textOf(JsonNode node, String field) {
+        final value = node.get(field)
+        return value == null || value.isNull() ? null : value.asText()
+    }
+}
+
+class EnvironmentDeserializer extends JsonDeserializer<Environment> {
+    @Override
+    Environment deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        def mapper = (ObjectMapper) p.codec
+        ObjectNode node = p.codec.readTree(p)
+
+        if (node.has("monolithicList")) {
+            return mapper.treeToValue(node, MonolithicEnvironment)
+        } else if (node.has("containerized")) {
+            return mapper.treeToValue(node, ContainerizedEnvironment)
+        }
+
+        return null // fallback
+    }
+}
+
@@ -0,0 +1,124 @@
+package fovus.plugin.job
+
+import com.google.common.hash.Hashing
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * Store of the job config files passed to the job creation.
+ * <p>
+ * A file is named after the hash of its content, so the tasks with the same config, e.g. the tasks of an array
+ * or of a process with the same run command, share one file. The files not used for {@code retentionMillis}
+ * are deleted in the background, as are the files left by the previous runs.
+ */
+@Slf4j
+@CompileStatic
+class FovusJobConfigStore {
+
+    private final Path directory
+
+    private final long retentionMillis
+
+    /**
+     * The last use of each file written or reused by this run
+     */
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>()
+
+    private final ScheduledExecutorService sweeper
+
+    FovusJobConfigStore(Path directory, long retentionMillis) {
+        this.directory = directory
+        this.retentionMillis = retentionMillis
+        this.sweeper = Executors.newSingleThreadScheduledExecutor({ Runnable runnable ->
+            final thread = new Thread(runnable, 'fovus-job-config-sweeper')
+            thread.setDaemon(true)
+            return thread
+        } as ThreadFactory)
+        final period = Math.max(retentionMillis / 4 as long, 1000L)
+        sweeper.scheduleWithFixedDelay({ sweep() } as Runnable, period, period, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Write a job config, or reuse the file of the same config
+     *
+     * @return The path of the job config file
+     */
+    String write(FovusJobConfig jobConfig) {
+        final bytes = toBytes(jobConfig)
+        final name = Hashing.sha256().hashBytes(bytes).toString().substring(0, 32) + '.json'
+        final file = directory.resolve(name)
+        final now = System.currentTimeMillis()
+
+        final previous = lastUsed.put(name, now)
+        if (previous == null || !Files.exists(file)) {
+            Files.createDirectories(directory)
+            final tmp = Files.createTempFile(directory, name, '.tmp')
+            Files.write(tmp, bytes)
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE)
+            }
+            catch (FileAlreadyExistsException e) {
+                // Written concurrently with the same content
+                Files.deleteIfExists(tmp)
+            }
+            log.debug "[FOVUS] Job config ${jobConfig.jobName} saved to ${file}"
+        }
+        else if (now - previous > retentionMillis / 2) {
+            // Keep the file away from the sweeper of the other runs
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now))
+        }
+        return file.toString()
+    }
+
+    /**
+     * Serialize the fields of a job config sent to Fovus
+     */
+    static byte[] toBytes(FovusJobConfig jobConfig) {
+        return FovusJobConfigBuilder.MAPPER.writeValueAsBytes(jobConfig)
+    }
+
+    /**
+     * Delete the job config files not used for the retention period
+     */
+    void sweep() {
+        if (!Files.isDirectory(directory))
+            return
+
+        final now = System.currentTimeMillis()
+        int deleted = 0
+        try {
+            Files.newDirectoryStream(directory).withCloseable { stream ->
+                for (Path file : stream) {
+                    final name = file.fileName.toString()
+                    final used = lastUsed.get(name)
+                    final last = used != null ? used : Files.getLastModifiedTime(file).toMillis()
+                    if (now - last > retentionMillis) {
+                        Files.deleteIfExists(file)
+                        lastUsed.remove(name, used)
+                        deleted++
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            log.debug "[FOVUS] Unable to clean up the job config files in ${directory}: ${e.message}"
+        }
+        if (deleted > 0)
+            log.debug "[FOVUS] Deleted ${deleted} unused job config files from ${directory}"
+    }
+
+    void close() {
+        sweeper.shutdownNow()
+    }
+}
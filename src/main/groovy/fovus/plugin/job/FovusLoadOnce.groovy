@@ -0,0 +1,79 @@
+package fovus.plugin.job
+
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.BiFunction
+
+/**
+ * A cached value loaded by a single caller: the concurrent callers asking for the same key wait
+ * for the first one to load it, instead of loading it each. A failed load is not kept.
+ */
+@CompileStatic
+class FovusLoadOnce<T> {
+
+    /**
+     * The version of the source the value is loaded from, e.g. the last modified time of a file
+     */
+    final Object version
+
+    final long createdAt = System.currentTimeMillis()
+
+    private final AtomicBoolean claimed = new AtomicBoolean()
+
+    private final CompletableFuture<T> result = new CompletableFuture<>()
+
+    FovusLoadOnce(Object version) {
+        this.version = version
+    }
+
+    /**
+     * Get the value of a key, loading it if it is missing, expired or of another version
+     *
+     * @param ttlMillis How long the value is kept, {@code 0} to keep it until its version changes
+     * @param loader Load the value, a {@code null} value is returned but not kept
+     */
+    static <T> T load(ConcurrentMap<String, FovusLoadOnce<T>> cache, String key, Object version, long ttlMillis, Closure<T> loader) {
+        final now = System.currentTimeMillis()
+        final entry = cache.compute(key, { String k, FovusLoadOnce<T> current ->
+            current != null && current.isValid(version, ttlMillis, now) ? current : new FovusLoadOnce<T>(version)
+        } as BiFunction<String, FovusLoadOnce<T>, FovusLoadOnce<T>>)
+
+        try {
+            final value = entry.get(loader)
+            if (value == null)
+                cache.remove(key, entry)
+            return value
+        }
+        catch (Throwable e) {
+            cache.remove(key, entry)
+            throw e
+        }
+    }
+
+    private boolean isValid(Object version, long ttlMillis, long now) {
+        return this.version == version
+                && !result.isCompletedExceptionally()
+                && (ttlMillis <= 0 || now - createdAt < ttlMillis)
+    }
+
+    private T get(Closure<T> loader) {
+        if (claimed.compareAndSet(false, true)) {
+            try {
+                result.complete(loader.call())
+            }
+            catch (Throwable e) {
+                result.completeExceptionally(e)
+            }
+        }
+        try {
+            return result.join()
+        }
+        catch (CompletionException e) {
+            throw e.cause
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020-2022, Seqera Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package fovus.plugin.nio;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import fovus.plugin.transport.ListObjectsResponse;
+
+/**
+ * Read the attributes of many Fovus Storage files with one listing per directory instead of one per file.
+ * <p>
+ * Nextflow reads the attributes of the task inputs one file at a time, e.g. to hash them on resume, so the lookups
+ * are grouped as they come: once {@code threshold} lookups missed the cache in the same directory, the first page of
+ * the directory is listed. The listing is recursive, so it is capped at one page of {@code maxObjects} objects, also
+ * when the transport cannot page the listing: a directory listed in one page goes to the {@link FovusPathIndex}, which
+ * answers the following lookups locally, while the first objects of a larger directory only go to the metadata cache
+ * and the directory is not listed again until its misses expire.
+ */
+public class FovusAttributePrefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(FovusAttributePrefetcher.class);
+
+    private final FovusFileSystem fileSystem;
+
+    private final int threshold;
+
+    private final int maxObjects;
+
+    /**
+     * The number of lookups missing the cache by directory
+     */
+    private final Cache<String, AtomicInteger> misses;
+
+    /**
+     * The directories being listed, so that concurrent lookups wait for the same listing
+     */
+    private final ConcurrentMap<String, CompletableFuture<Void>> listings = new ConcurrentHashMap<>();
+
+    /**
+     * The directories not listed in one page
+     */
+    private final Cache<String, Boolean> truncated;
+
+    private final AtomicInteger listed = new AtomicInteger();
+
+    /**
+     * @param threshold The number of lookups missing the cache in a directory before it is listed, {@code 0} disables the prefetch
+     * @param ttlMillis  How long the lookups of a directory are counted
+     * @param maxObjects The maximum number of objects of a listing, a larger directory is not indexed
+     */
+    public FovusAttributePrefetcher(FovusFileSystem fileSystem, int threshold, long ttlMillis, int maxObjects) {
+        this.fileSystem = fileSystem;
+        this.threshold = fileSystem.getPathIndex().isEnabled() ? threshold : 0;
+        this.maxObjects = maxObjects;
+        this.misses = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(ttlMillis, 1), TimeUnit.MILLISECONDS)
+                .maximumSize(10_000)
+                .build();
+        this.truncated = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(ttlMillis, 1), TimeUnit.MILLISECONDS)
+                .maximumSize(10_000)
+                .build();
+    }
+
+    /**
+     * Count a lookup missing the cache, and list its directory once enough lookups missed it
+     *
+     * @return {@code true} if the directory of the path was listed
+     */
+    public boolean onCacheMiss(FovusPath path) {
+        final String parentKey = parentKey(path.getKey());
+        if (threshold <= 0 || parentKey.isEmpty() || truncated.getIfPresent(parentKey) != null) {
+            // Never list a whole file type for a single file, nor a directory too large for one page
+            return false;
+        }
+
+        final AtomicInteger count;
+        try {
+            count = misses.get(parentKey, AtomicInteger::new);
+        } catch (Exception e) {
+            return false;
+        }
+        if (count.incrementAndGet() < threshold) {
+            return false;
+        }
+
+        misses.invalidate(parentKey);
+        list(path.getFileType(), parentKey);
+        return true;
+    }
+
+    public int getListed() {
+        return listed.get();
+    }
+
+    /**
+     * List the first page of a directory, or wait for the same listing started by another thread
+     */
+    private void list(String fileType, String parentKey) {
+        final CompletableFuture<Void> listing = new CompletableFuture<>();
+        final CompletableFuture<Void> existing = listings.putIfAbsent(parentKey, listing);
+        if (existing != null) {
+            existing.join();
+            return;
+        }
+
+        try {
+            log.trace("Fovus attribute prefetch of {}/{}", fileType, parentKey);
+            final FovusPathIndex.Listing indexed = fileSystem.getPathIndex().startListing(parentKey);
+            final ListObjectsResponse page = fileSystem.getJobClient().listFileObjectsPage(fileType, parentKey, null);
+            // A page without objects may come from a listing the transport could not read, its keys are not reported missing
+            final boolean hasObjects = page.getObjects() != null && !page.getObjects().isEmpty();
+            // The CLI transport returns the whole listing in one page whatever its size
+            final boolean complete = page.getNextContinuationToken() == null && (!hasObjects || page.getObjects().size() <= maxObjects);
+            final FovusFileMetadataCache metadataCache = fileSystem.getMetadataCache();
+            final String prefix = parentKey + FovusPath.PATH_SEPARATOR;
+            if (hasObjects) {
+                final List<FovusFileMetadata> objects = page.getObjects();
+                for (FovusFileMetadata object : objects.subList(0, Math.min(objects.size(), maxObjects))) {
+                    // E.g. files/run42/1.fq
+                    final String key = new FovusPath(fileSystem, FovusPath.FOVUS_PATH_PREFIX + FovusPath.PATH_SEPARATOR + object.getKey()).getKey();
+                    if (!key.startsWith(prefix)) {
+                        // A sibling sharing the directory name as prefix
+                        continue;
+                    }
+                    object.setKey(object.getKey().endsWith(FovusPath.PATH_SEPARATOR) ? key + FovusPath.PATH_SEPARATOR : key);
+                    metadataCache.put(fileType, key, object);
+                    if (complete) {
+                        indexed.add(key, object);
+                    }
+                }
+            }
+            if (complete && hasObjects) {
+                indexed.complete();
+            } else if (!complete) {
+                log.debug("Fovus attribute prefetch of {}/{} stopped at the first page", fileType, parentKey);
+                truncated.put(parentKey, Boolean.TRUE);
+            }
+            listed.incrementAndGet();
+            listing.complete(null);
+        } catch (RuntimeException e) {
+            listing.completeExceptionally(e);
+            throw e;
+        } finally {
+            listings.remove(parentKey, listing);
+        }
+    }
+
+    private static String parentKey(String key) {
+        final int pos = key.lastIndexOf('/');
+        return pos > 0 ? key.substring(0, pos) : "";
+    }
+}
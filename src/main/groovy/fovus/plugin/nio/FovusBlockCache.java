@@ -0,0 +1,409 @@
+/*
+ * Copyright 2020-2022, Seqera Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package fovus.plugin.nio;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+import fovus.plugin.job.FovusJobClient;
+
+/**
+ * On-disk cache of the blocks of the Fovus Storage files read through a {@link FovusReadChannel}.
+ * <p>
+ * Files are read in fixed-size blocks. Each block is stored in its own file, named after the file key,
+ * its ETag and the block index, and memory-mapped for the reads. The least recently used blocks are
+ * deleted once the cache exceeds its size limit.
+ * <p>
+ * When the transport cannot read a byte range, the whole file is downloaded once and split into blocks. The readers of
+ * other blocks of the same file version wait for that download instead of starting their own.
+ */
+public class FovusBlockCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FovusBlockCache.class);
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "fovus-read-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A cached block, mapped in memory
+     */
+    private static final class Block {
+        final Path file;
+        final MappedByteBuffer buffer;
+
+        Block(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final int blockSize;
+
+    private final long maxBytes;
+
+    private final String baseDir;
+
+    private Path directory;
+
+    /**
+     * The cached blocks by name, in access order
+     */
+    private final LinkedHashMap<String, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cachedBytes;
+
+    /**
+     * The blocks being fetched
+     */
+    private final Map<String, CompletableFuture<Block>> inflight = new ConcurrentHashMap<>();
+
+    /**
+     * The whole files being downloaded, by key and ETag, with all their blocks
+     */
+    private final Map<String, CompletableFuture<List<Block>>> downloads = new ConcurrentHashMap<>();
+
+    private volatile boolean rangedReadsUnsupported;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong fetchedBytes = new AtomicLong();
+
+    /**
+     * @param blockSize The size of a block in bytes
+     * @param maxBytes  The maximum size of the cached blocks
+     * @param baseDir   The directory where the cache directory is created, or {@code null} for the temporary directory
+     */
+    public FovusBlockCache(int blockSize, long maxBytes, String baseDir) {
+        Preconditions.checkArgument(blockSize > 0, "block size must be positive");
+        this.blockSize = blockSize;
+        this.maxBytes = maxBytes;
+        this.baseDir = baseDir;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Get a block of a file, fetching it if it is not cached.
+     *
+     * @param path     The file
+     * @param eTag     The ETag of the file, to tell apart the versions of a file
+     * @param fileSize The size of the file
+     * @param index    The index of the block
+     * @return A read-only view of the block content
+     */
+    public ByteBuffer getBlock(FovusPath path, String eTag, long fileSize, long index) throws IOException {
+        final String name = blockName(path, eTag, index);
+        final Block cached = cached(name);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.buffer.asReadOnlyBuffer();
+        }
+
+        misses.incrementAndGet();
+        try {
+            return fetch(path, eTag, fileSize, index, false).join().buffer.asReadOnlyBuffer();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Fetch the following blocks of a file in the background
+     */
+    public void prefetch(FovusPath path, String eTag, long fileSize, long fromIndex, int count) {
+        // A whole file download already brings all the blocks
+        if (rangedReadsUnsupported) {
+            return;
+        }
+        for (long index = fromIndex; index < fromIndex + count && index * blockSize < fileSize; index++) {
+            final String name = blockName(path, eTag, index);
+            if (cached(name) == null && !inflight.containsKey(name)) {
+                fetch(path, eTag, fileSize, index, true);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getFetchedBytes() {
+        return fetchedBytes.get();
+    }
+
+    public long getCachedBytes() {
+        synchronized (blocks) {
+            return cachedBytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FovusBlockCache {" +
+                "cachedBytes=" + getCachedBytes() +
+                ", hits=" + hits.get() +
+                ", misses=" + misses.get() +
+                ", fetchedBytes=" + fetchedBytes.get() +
+                '}';
+    }
+
+    private Block cached(String name) {
+        synchronized (blocks) {
+            return blocks.get(name);
+        }
+    }
+
+    /**
+     * Fetch a block once, whatever the number of concurrent readers
+     */
+    private CompletableFuture<Block> fetch(FovusPath path, String eTag, long fileSize, long index, boolean async) {
+        final String name = blockName(path, eTag, index);
+        final CompletableFuture<Block> result = new CompletableFuture<>();
+        final CompletableFuture<Block> existing = inflight.putIfAbsent(name, result);
+        if (existing != null) {
+            return existing;
+        }
+
+        final Runnable task = () -> {
+            try {
+                final Block cached = cached(name);
+                result.complete(cached != null ? cached : fetch0(path, eTag, fileSize, index));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                inflight.remove(name, result);
+            }
+        };
+        if (async) {
+            prefetcher.execute(task);
+        } else {
+            task.run();
+        }
+        return result;
+    }
+
+    private Block fetch0(FovusPath path, String eTag, long fileSize, long index) throws IOException {
+        final long offset = index * blockSize;
+        final int length = (int) Math.min(blockSize, fileSize - offset);
+        if (!rangedReadsUnsupported) {
+            try {
+                final FovusJobClient jobClient = path.getFileSystem().getJobClient();
+                final byte[] data = jobClient.readFileRange(path.getFileType(), path.getKey(), offset, length);
+                fetchedBytes.addAndGet(data.length);
+                return store(blockName(path, eTag, index), data);
+            } catch (UnsupportedOperationException e) {
+                log.debug("Fovus ranged reads not supported, downloading whole files: {}", e.getMessage());
+                rangedReadsUnsupported = true;
+            }
+        }
+        return downloadWhole(path, eTag, index);
+    }
+
+    /**
+     * Download the whole file once, whatever the number of blocks read concurrently
+     *
+     * @return The requested block
+     */
+    private Block downloadWhole(FovusPath path, String eTag, long index) throws IOException {
+        final String file = fileName(path, eTag);
+        final CompletableFuture<List<Block>> download = new CompletableFuture<>();
+        final CompletableFuture<List<Block>> existing = downloads.putIfAbsent(file, download);
+        final List<Block> fileBlocks;
+        if (existing != null) {
+            try {
+                fileBlocks = existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        } else {
+            try {
+                fileBlocks = downloadBlocks(path, eTag);
+                download.complete(fileBlocks);
+            } catch (IOException | RuntimeException e) {
+                download.completeExceptionally(e);
+                throw e;
+            } finally {
+                downloads.remove(file, download);
+            }
+        }
+
+        if (index >= fileBlocks.size()) {
+            throw new IOException("Block " + index + " is out of the bounds of file: " + path);
+        }
+        return fileBlocks.get((int) index);
+    }
+
+    /**
+     * Download the whole file and split it into blocks
+     */
+    private List<Block> downloadBlocks(FovusPath path, String eTag) throws IOException {
+        final Path downloadDir = Files.createTempDirectory(directory(), "download");
+        try {
+            path.getFileSystem().getJobClient().downloadFile(path.getKey(), downloadDir.toString(), path.getFileType());
+            final Path downloaded = downloadDir.resolve(path.getFileName().toString());
+            final long size = Files.size(downloaded);
+            fetchedBytes.addAndGet(size);
+
+            final List<Block> fileBlocks = new ArrayList<>();
+            try (FileChannel source = FileChannel.open(downloaded, StandardOpenOption.READ)) {
+                for (long i = 0; i * blockSize < size || i == 0; i++) {
+                    final int length = (int) Math.min(blockSize, size - i * blockSize);
+                    final ByteBuffer data = ByteBuffer.allocate(length);
+                    while (data.hasRemaining() && source.read(data, i * blockSize + data.position()) >= 0) {
+                        // read until the block is full
+                    }
+                    fileBlocks.add(store(blockName(path, eTag, i), data.array()));
+                }
+            }
+            return fileBlocks;
+        } finally {
+            deleteRecursively(downloadDir);
+        }
+    }
+
+    private Block store(String name, byte[] data) throws IOException {
+        final Path dir = directory();
+        final Path tmp = Files.createTempFile(dir, name, ".tmp");
+        Files.write(tmp, data);
+        final Path file = dir.resolve(name);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, data.length);
+        }
+
+        final Block block = new Block(file, buffer);
+        synchronized (blocks) {
+            final Block previous = blocks.put(name, block);
+            if (previous != null) {
+                cachedBytes -= previous.buffer.capacity();
+            }
+            cachedBytes += data.length;
+            evict();
+        }
+        return block;
+    }
+
+    /**
+     * Delete the least recently used blocks over the size limit. The mapped buffers already handed out stay readable.
+     */
+    private void evict() {
+        final Iterator<Map.Entry<String, Block>> it = blocks.entrySet().iterator();
+        while (cachedBytes > maxBytes && blocks.size() > 1 && it.hasNext()) {
+            final Block eldest = it.next().getValue();
+            it.remove();
+            cachedBytes -= eldest.buffer.capacity();
+            try {
+                Files.deleteIfExists(eldest.file);
+            } catch (IOException e) {
+                log.debug("Unable to delete Fovus cached block {}: {}", eldest.file, e.getMessage());
+            }
+        }
+    }
+
+    private synchronized Path directory() throws IOException {
+        if (directory == null) {
+            final Path base = baseDir != null
+                    ? Files.createDirectories(Paths.get(baseDir))
+                    : Paths.get(System.getProperty("java.io.tmpdir"));
+            directory = Files.createTempDirectory(base, "fovus-read-cache");
+            final Path created = directory;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteRecursively(created)));
+            log.debug("Fovus read cache directory: {}", directory);
+        }
+        return directory;
+    }
+
+    private String blockName(FovusPath path, String eTag, long index) {
+        return fileName(path, eTag) + "." + index;
+    }
+
+    private String fileName(FovusPath path, String eTag) {
+        final String object = path.toRemoteFilePath() + '\0' + (eTag != null ? eTag : "") + '\0' + blockSize;
+        return Hashing.sha256().hashString(object, StandardCharsets.UTF_8).toString();
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.debug("Unable to delete Fovus read cache {}: {}", dir, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2020-2022, Seqera Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package fovus.plugin.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import fovus.plugin.job.FovusJobClient;
+
+/**
+ * Downloads Fovus Storage files and directories with parallel transfers.
+ * <p>
+ * The source is listed, and each file is split into chunks of {@code downloadChunkSize} that are fetched
+ * concurrently with ranged reads and written in place. When the transport cannot read a byte range,
+ * a directory is downloaded with a single transfer and a file is downloaded whole.
+ * <p>
+ * The size of each downloaded file is checked against the listing, and so is its MD5 when the ETag is
+ * a plain MD5 (i.e. the file was not uploaded in parts). Progress and throughput are logged while the download runs.
+ */
+public class FovusDownloadEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(FovusDownloadEngine.class);
+
+    private static final long PROGRESS_LOG_INTERVAL_MS = 10_000;
+
+    private static final Pattern MD5_ETAG = Pattern.compile("[0-9a-fA-F]{32}");
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final long chunkSize;
+
+    private final ExecutorService executor;
+
+    private final FovusStagingCache stagingCache;
+
+    private volatile boolean rangedReadsUnsupported;
+
+    /**
+     * A file to download
+     */
+    private static final class Transfer {
+        final String key;
+        final Path target;
+        final long size;
+        final String eTag;
+
+        Transfer(String key, Path target, long size, String eTag) {
+            this.key = key;
+            this.target = target;
+            this.size = size;
+            this.eTag = eTag;
+        }
+    }
+
+    /**
+     * Progress of a download
+     */
+    private static final class Progress {
+        final long totalBytes;
+        final int totalFiles;
+        final long startedAt = System.currentTimeMillis();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicInteger cachedFiles = new AtomicInteger();
+        final AtomicLong lastLogAt = new AtomicLong(System.currentTimeMillis());
+        volatile boolean cancelled;
+
+        Progress(long totalBytes, int totalFiles) {
+            this.totalBytes = totalBytes;
+            this.totalFiles = totalFiles;
+        }
+
+        double throughput() {
+            final long elapsed = Math.max(1, System.currentTimeMillis() - startedAt);
+            return bytes.get() / 1024.0 / 1024.0 / (elapsed / 1000.0);
+        }
+    }
+
+    /**
+     * @param parallelism The number of concurrent transfers
+     * @param chunkSize   The size of the chunks of a file fetched concurrently
+     */
+    public FovusDownloadEngine(int parallelism, long chunkSize) {
+        this(parallelism, chunkSize, null);
+    }
+
+    /**
+     * @param parallelism  The number of concurrent transfers
+     * @param chunkSize    The size of the chunks of a file fetched concurrently
+     * @param stagingCache The cache of the downloaded files, or {@code null} to always download
+     */
+    public FovusDownloadEngine(int parallelism, long chunkSize, FovusStagingCache stagingCache) {
+        Preconditions.checkArgument(chunkSize > 0, "chunk size must be positive");
+        this.chunkSize = chunkSize;
+        this.stagingCache = stagingCache;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "fovus-download-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Download a file
+     *
+     * @param source   The file
+     * @param metadata The metadata of the file
+     * @param target   The local file
+     */
+    public void downloadFile(FovusPath source, FovusFileMetadata metadata, Path target) throws IOException {
+        final Transfer transfer = new Transfer(source.getKey(), target, metadata.getSize(), metadata.getETag());
+        run(source, List.of(transfer));
+    }
+
+    /**
+     * Download a directory with its structure
+     *
+     * @param source The directory
+     * @param target The local directory
+     */
+    public void downloadDirectory(FovusPath source, Path target) throws IOException {
+        final FovusJobClient jobClient = source.getFileSystem().getJobClient();
+        final String prefix = source.toRemoteFilePath() + "/";
+        final String fileTypePrefix = source.getFileType() + "/";
+
+        final List<Transfer> transfers = new ArrayList<>();
+        final List<FovusFileMetadata> objects = jobClient.listFileObjects(source.getFileType(), source.getKey());
+        if (objects == null) {
+            throw new IOException("Unable to list Fovus directory: " + source);
+        }
+        for (FovusFileMetadata object : objects) {
+            final String key = object.getKey();
+            // Skip the directory objects and the siblings sharing the same prefix
+            if (!key.startsWith(prefix) || key.endsWith("/")) {
+                continue;
+            }
+            final Path file = target.resolve(key.substring(prefix.length()));
+            transfers.add(new Transfer(key.substring(fileTypePrefix.length()), file, object.getSize(), object.getETag()));
+        }
+
+        Files.createDirectories(target);
+        if (rangedReadsUnsupported || !jobClient.supportsRangedReads()) {
+            downloadDirectoryWhole(source, target, transfers);
+            return;
+        }
+        run(source, transfers);
+    }
+
+    /**
+     * Download a directory with one transfer, when the files cannot be split in chunks. The files are restored
+     * from the staging cache instead if all of them are cached.
+     */
+    private void downloadDirectoryWhole(FovusPath source, Path target, List<Transfer> transfers) throws IOException {
+        boolean cached = stagingCache != null;
+        for (int i = 0; cached && i < transfers.size(); i++) {
+            final Transfer transfer = transfers.get(i);
+            Files.createDirectories(transfer.target.getParent());
+            cached = stagingCache.restore(transfer.eTag, transfer.size, transfer.target);
+        }
+        if (cached) {
+            log.info("Fovus staged {} files of {} from the cache", transfers.size(), source);
+            return;
+        }
+
+        final long startedAt = System.currentTimeMillis();
+        final FovusJobClient jobClient = source.getFileSystem().getJobClient();
+        jobClient.downloadFile(source.getKey() + "/", target.toAbsolutePath().toString(), source.getFileType());
+        for (Transfer transfer : transfers) {
+            if (transfer.size == 0 && !Files.exists(transfer.target)) {
+                Files.createDirectories(transfer.target.getParent());
+                Files.write(transfer.target, new byte[0]);
+            }
+            verify(transfer.target, transfer);
+            cache(transfer);
+        }
+        log.info("Fovus downloaded {} files from {} in {} ms", transfers.size(), source, System.currentTimeMillis() - startedAt);
+    }
+
+    private void run(FovusPath source, List<Transfer> transfers) throws IOException {
+        long totalBytes = 0;
+        for (Transfer transfer : transfers) {
+            totalBytes += transfer.size;
+        }
+        final Progress progress = new Progress(totalBytes, transfers.size());
+        log.debug("Fovus download of {} files ({} bytes) from {}", transfers.size(), totalBytes, source);
+
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Transfer transfer : transfers) {
+            futures.add(transfer(source, transfer, progress));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            // Skip the transfers not started yet
+            progress.cancelled = true;
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to download " + source + ": " + cause.getMessage(), cause);
+        }
+
+        final long elapsed = System.currentTimeMillis() - progress.startedAt;
+        log.info("Fovus downloaded {} files ({} MB) from {} in {} ms ({} MB/s), {} files staged from the cache",
+                progress.files.get(), String.format("%.1f", progress.bytes.get() / 1024.0 / 1024.0), source,
+                elapsed, String.format("%.1f", progress.throughput()), progress.cachedFiles.get());
+    }
+
+    private CompletableFuture<Void> transfer(FovusPath source, Transfer transfer, Progress progress) throws IOException {
+        Files.createDirectories(transfer.target.getParent());
+
+        if (stagingCache != null && stagingCache.restore(transfer.eTag, transfer.size, transfer.target)) {
+            progress.files.incrementAndGet();
+            progress.cachedFiles.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+        if (transfer.size == 0) {
+            Files.write(transfer.target, new byte[0]);
+            progress.files.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+        if (rangedReadsUnsupported || !source.getFileSystem().getJobClient().supportsRangedReads()) {
+            return CompletableFuture.runAsync(() -> downloadWhole(source, transfer, progress), executor);
+        }
+
+        // The chunks are written in place into a part file, moved to the target once verified
+        final Path part = transfer.target.resolveSibling(transfer.target.getFileName() + ".fovus-part");
+        Files.deleteIfExists(part);
+
+        final List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (long offset = 0; offset < transfer.size; offset += chunkSize) {
+            final long chunkOffset = offset;
+            final int length = (int) Math.min(chunkSize, transfer.size - offset);
+            chunks.add(CompletableFuture.runAsync(() -> downloadChunk(source, transfer, part, chunkOffset, length, progress), executor));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+                .handle((ignored, error) -> error)
+                .thenCompose(error -> {
+                    final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof UnsupportedOperationException) {
+                        // The transport only downloads whole files, fall back to one transfer per file
+                        rangedReadsUnsupported = true;
+                        deleteQuietly(part);
+                        return CompletableFuture.runAsync(() -> downloadWhole(source, transfer, progress), executor);
+                    }
+                    if (cause != null) {
+                        deleteQuietly(part);
+                        return CompletableFuture.failedFuture(cause);
+                    }
+                    return CompletableFuture.runAsync(() -> complete(part, transfer, progress), executor);
+                });
+    }
+
+    private void downloadChunk(FovusPath source, Transfer transfer, Path part, long offset, int length, Progress progress) {
+        if (progress.cancelled) {
+            throw new CancellationException();
+        }
+        if (rangedReadsUnsupported) {
+            throw new UnsupportedOperationException("Ranged reads not supported");
+        }
+        final FovusJobClient jobClient = source.getFileSystem().getJobClient();
+        final byte[] data = jobClient.readFileRange(source.getFileType(), transfer.key, offset, length);
+        if (data.length != length) {
+            throw new CompletionException(new IOException(String.format(
+                    "Fovus download of %s returned %d bytes at offset %d, expected %d", transfer.key, data.length, offset, length)));
+        }
+
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        progress(progress, data.length);
+    }
+
+    private void downloadWhole(FovusPath source, Transfer transfer, Progress progress) {
+        if (progress.cancelled) {
+            throw new CancellationException();
+        }
+        final FovusJobClient jobClient = source.getFileSystem().getJobClient();
+        final String name = transfer.key.substring(transfer.key.lastIndexOf('/') + 1);
+        Path tempDir = null;
+        try {
+            // The file is downloaded with its own name, into an empty directory so that no sibling of the target is replaced
+            tempDir = Files.createTempDirectory(transfer.target.getParent(), ".fovus-download");
+            jobClient.downloadFile(transfer.key, tempDir.toAbsolutePath().toString(), source.getFileType());
+            Files.move(tempDir.resolve(name), transfer.target, StandardCopyOption.REPLACE_EXISTING);
+            verify(transfer.target, transfer);
+            cache(transfer);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            if (tempDir != null) {
+                deleteQuietly(tempDir.resolve(name));
+                deleteQuietly(tempDir);
+            }
+        }
+        progress(progress, transfer.size);
+        progress.files.incrementAndGet();
+    }
+
+    private void complete(Path part, Transfer transfer, Progress progress) {
+        try {
+            verify(part, transfer);
+            Files.move(part, transfer.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cache(transfer);
+        } catch (IOException e) {
+            deleteQuietly(part);
+            throw new CompletionException(e);
+        }
+        progress.files.incrementAndGet();
+    }
+
+    private void cache(Transfer transfer) {
+        if (stagingCache != null) {
+            stagingCache.store(transfer.eTag, transfer.size, transfer.target);
+        }
+    }
+
+    /**
+     * Check the size and, for the files not uploaded in parts, the MD5 of a downloaded file
+     */
+    private static void verify(Path file, Transfer transfer) throws IOException {
+        final long size = Files.size(file);
+        if (size != transfer.size) {
+            throw new IOException(String.format("Fovus download of %s has %d bytes, expected %d", transfer.key, size, transfer.size));
+        }
+
+        final String eTag = transfer.eTag != null ? transfer.eTag.replace("\"", "") : null;
+        if (eTag == null || !MD5_ETAG.matcher(eTag).matches()) {
+            return;
+        }
+        final String md5 = md5(file);
+        if (!md5.equalsIgnoreCase(eTag)) {
+            throw new IOException(String.format("Fovus download of %s has MD5 %s, expected %s", transfer.key, md5, eTag));
+        }
+    }
+
+    private static String md5(Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream input = new DigestInputStream(Files.newInputStream(file), digest)) {
+            final byte[] buffer = new byte[64 * 1024];
+            while (input.read(buffer) != -1) {
+                // digest the whole file
+            }
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void progress(Progress progress, long bytes) {
+        final long done = progress.bytes.addAndGet(bytes);
+        final long now = System.currentTimeMillis();
+        final long last = progress.lastLogAt.get();
+        if (now - last >= PROGRESS_LOG_INTERVAL_MS && progress.lastLogAt.compareAndSet(last, now)) {
+            log.info("Fovus download progress: {}/{} files, {}/{} MB ({} MB/s)",
+                    progress.files.get(), progress.totalFiles,
+                    done / 1024 / 1024, progress.totalBytes / 1024 / 1024,
+                    String.format("%.1f", progress.throughput()));
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Unable to delete {}: {}", file, e.getMessage());
+        }
+    }
+}
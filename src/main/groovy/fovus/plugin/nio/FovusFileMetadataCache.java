@@ -0,0 +1,174 @@
+/*
+ * Copyright 2020-2022, Seqera Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package fovus.plugin.nio;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Metadata of the Fovus Storage objects, keyed by (fileType, key), shared by the paths of a {@link FovusFileSystem}.
+ * <p>
+ * Entries come from the metadata lookups and from the directory listings. A missing key is cached as well,
+ * with a shorter time to live since the outputs of a running job may appear at any time.
+ */
+public class FovusFileMetadataCache {
+
+    /**
+     * A cached lookup result. {@code metadata} is {@code null} when the key does not exist.
+     */
+    private static final class Entry {
+        final FovusFileMetadata metadata;
+        final long createdAt;
+
+        Entry(FovusFileMetadata metadata) {
+            this.metadata = metadata;
+            this.createdAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Returned by {@link #get(String, String)} for a key that is known not to exist
+     */
+    public static final FovusFileMetadata MISSING = new FovusFileMetadata();
+
+    private final Cache<String, Entry> entries;
+
+    private final long negativeTtlMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong negativeHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param ttlMillis         Time to live of an entry, {@code 0} disables the cache
+     * @param negativeTtlMillis Time to live of a missing key, {@code 0} disables the negative caching
+     * @param maxEntries        Maximum number of entries, the least recently used are evicted first
+     */
+    public FovusFileMetadataCache(long ttlMillis, long negativeTtlMillis, long maxEntries) {
+        Preconditions.checkArgument(ttlMillis >= 0, "ttl must not be negative");
+        Preconditions.checkArgument(maxEntries >= 0, "max entries must not be negative");
+        this.entries = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(ttlMillis > 0 ? maxEntries : 0)
+                .build();
+        this.negativeTtlMillis = Math.min(Math.max(0, negativeTtlMillis), ttlMillis);
+    }
+
+    /**
+     * Get the cached metadata of a key.
+     *
+     * @return A copy of the cached {@link FovusFileMetadata}, {@link #MISSING} if the key is known not to exist,
+     * or {@code null} if the key is not cached
+     */
+    public FovusFileMetadata get(String fileType, String key) {
+        final String cacheKey = cacheKey(fileType, key);
+        final Entry entry = entries.getIfPresent(cacheKey);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (entry.metadata == null) {
+            if (System.currentTimeMillis() - entry.createdAt >= negativeTtlMillis) {
+                entries.asMap().remove(cacheKey, entry);
+                misses.incrementAndGet();
+                return null;
+            }
+            negativeHits.incrementAndGet();
+            return MISSING;
+        }
+
+        hits.incrementAndGet();
+        return copy(entry.metadata);
+    }
+
+    public void put(String fileType, String key, FovusFileMetadata metadata) {
+        Preconditions.checkNotNull(metadata, "metadata is null");
+        entries.put(cacheKey(fileType, key), new Entry(copy(metadata)));
+    }
+
+    /**
+     * Cache the metadata of a key unless it is already known. Used for the metadata of implicit parent directories.
+     */
+    public void putIfAbsent(String fileType, String key, FovusFileMetadata metadata) {
+        Preconditions.checkNotNull(metadata, "metadata is null");
+        entries.asMap().putIfAbsent(cacheKey(fileType, key), new Entry(copy(metadata)));
+    }
+
+    /**
+     * Remember that a key does not exist
+     */
+    public void putMissing(String fileType, String key) {
+        if (negativeTtlMillis > 0) {
+            entries.put(cacheKey(fileType, key), new Entry(null));
+        }
+    }
+
+    public void invalidate(String fileType, String key) {
+        entries.invalidate(cacheKey(fileType, key));
+    }
+
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FovusFileMetadataCache {" +
+                "size=" + entries.size() +
+                ", hits=" + hits.get() +
+                ", negativeHits=" + negativeHits.get() +
+                ", misses=" + misses.get() +
+                '}';
+    }
+
+    private static String cacheKey(String fileType, String key) {
+        return fileType + FovusPath.PATH_SEPARATOR + key;
+    }
+
+    private static FovusFileMetadata copy(FovusFileMetadata metadata) {
+        return new FovusFileMetadata(
+                metadata.getKey(),
+                metadata.getLastModified() != null ? new Date(metadata.getLastModified().getTime()) : null,
+                metadata.getETag(),
+                metadata.getSize());
+    }
+}
@@ -23,18 +23,26 @@ import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
+import fovus.plugin.FovusConfig;
 import fovus.plugin.job.FovusJobClient;
+import fovus.plugin.util.FovusPathFactory;
 
 public class FovusFileSystem extends FileSystem {
 
+    private static final Logger log = LoggerFactory.getLogger(FovusFileSystem.class);
+
     private final FovusFileSystemProvider provider;
 
     private final FovusJobClient jobClient;
@@ -42,11 +50,54 @@ public class FovusFileSystem extends FileSystem {
 
     private final String fileType;
 
+    private final FovusFileMetadataCache metadataCache;
+
+    private final FovusPathIndex pathIndex;
+
+    private final FovusAttributePrefetcher attributePrefetcher;
+
+    private final FovusBlockCache blockCache;
+
+    private final int readAheadBlocks;
+
+    private final FovusDownloadEngine downloadEngine;
+
 
     public FovusFileSystem(FovusFileSystemProvider provider, FovusJobClient client, URI uri) {
         this.provider = provider;
         this.jobClient = client;
         this.fileType = FovusPath.getFileTypeOfUri(uri);
+        this.metadataCache = new FovusFileMetadataCache(0, 0, 0);
+        this.pathIndex = new FovusPathIndex(0, 0, 0);
+        this.attributePrefetcher = new FovusAttributePrefetcher(this, 0, 0, 0);
+        this.blockCache = new FovusBlockCache(8 * 1024 * 1024, 2L * 1024 * 1024 * 1024, null);
+        this.readAheadBlocks = 2;
+        this.downloadEngine = new FovusDownloadEngine(8, 64L * 1024 * 1024);
+    }
+
+    public FovusFileSystem(FovusFileSystemProvider provider, FovusJobClient client, URI uri, FovusConfig config) {
+        this.provider = provider;
+        this.jobClient = client;
+        this.fileType = FovusPath.getFileTypeOfUri(uri);
+        this.metadataCache = new FovusFileMetadataCache(
+                config.getMetadataCacheTtl().toMillis(),
+                config.getMetadataCacheNegativeTtl().toMillis(),
+                config.getMetadataCacheMaxEntries());
+        this.pathIndex = new FovusPathIndex(
+                config.getMetadataCacheTtl().toMillis(),
+                config.getMetadataCacheNegativeTtl().toMillis(),
+                config.getMetadataCacheMaxEntries());
+        this.attributePrefetcher = new FovusAttributePrefetcher(this, config.getAttributePrefetchThreshold(),
+                config.getMetadataCacheTtl().toMillis(), config.getListPageSize());
+        this.blockCache = new FovusBlockCache(
+                (int) config.getReadBlockSize().toBytes(),
+                config.getReadCacheSize().toBytes(),
+                config.getReadCacheDir());
+        this.readAheadBlocks = config.getReadAheadBlocks();
+        final FovusStagingCache stagingCache = config.getStagingCacheDir() != null
+                ? new FovusStagingCache(Paths.get(config.getStagingCacheDir()), config.getStagingCacheSize().toBytes())
+                : null;
+        this.downloadEngine = new FovusDownloadEngine(config.getDownloadParallelism(), config.getDownloadChunkSize().toBytes(), stagingCache);
     }
 
     @Override
@@ -57,6 +108,8 @@ public class FovusFileSystem extends FileSystem {
 
     @Override
     public void close() {
+        log.debug("Fovus {} file system closed, metadata cache: {}, read cache: {}", fileType, metadataCache, blockCache);
+        FovusPathFactory.invalidate(fileType, this);
         this.provider.fileSystems.remove(fileType);
     }
 
@@ -102,7 +155,7 @@ public class FovusFileSystem extends FileSystem {
 
     @Override
     public PathMatcher getPathMatcher(String syntaxAndPattern) {
-        throw new UnsupportedOperationException();
+        return new FovusPathMatcher(syntaxAndPattern);
     }
 
     @Override
@@ -118,4 +171,28 @@ public class FovusFileSystem extends FileSystem {
     public FovusJobClient getJobClient() {
         return jobClient;
     }
+
+    public FovusFileMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public FovusPathIndex getPathIndex() {
+        return pathIndex;
+    }
+
+    public FovusAttributePrefetcher getAttributePrefetcher() {
+        return attributePrefetcher;
+    }
+
+    public FovusBlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public int getReadAheadBlocks() {
+        return readAheadBlocks;
+    }
+
+    public FovusDownloadEngine getDownloadEngine() {
+        return downloadEngine;
+    }
 }
@@ -161,17 +161,16 @@ public class FovusFileSystemProvider extends FileSystemProvider implements FileS
         } else if (Files.exists(localDestination))
             throw new FileAlreadyExistsException(localDestination.toString());
 
-        final Optional<FovusFileAttributes> attrs = readAttr1(source);
-        final boolean isDir = attrs.isPresent() && attrs.get().isDirectory();
+        final FovusFileMetadata fileMetadata = fovusFileMetadataLookup.lookup(source);
+        final boolean isDir = toAttributes(source, fileMetadata).isDirectory();
         final String type = isDir ? "directory" : "file";
-        final FovusJobClient fovusJobClient = source.getFileSystem().getJobClient();
         log.debug("Fovus download {} from={} to={}", type, FilesEx.toUriString(source), localDestination);
 
+        final FovusDownloadEngine downloadEngine = source.getFileSystem().getDownloadEngine();
         if (isDir) {
-            fovusJobClient.downloadFile(source.getKey() + "/", localDestination.toAbsolutePath().toString(), source.getFileType());
+            downloadEngine.downloadDirectory(source, localDestination.toAbsolutePath());
         } else {
-            // Need to use getParent because the download destination is expected to be a directory
-            fovusJobClient.downloadFile(source.getKey(), localDestination.getParent().toAbsolutePath().toString(), source.getFileType());
+            downloadEngine.downloadFile(source, fileMetadata, localDestination.toAbsolutePath());
         }
     }
 
@@ -184,7 +183,20 @@ public class FovusFileSystemProvider extends FileSystemProvider implements FileS
     public SeekableByteChannel newByteChannel(Path path,
                                               Set<? extends OpenOption> options, FileAttribute<?>... attrs)
             throws IOException {
-        throw new UnsupportedOperationException("Fovus Storage is read-only. newByteChannel is not supported");
+        Preconditions.checkArgument(path instanceof FovusPath, "path must be an instance of %s", FovusPath.class.getName());
+        if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+            throw new UnsupportedOperationException("Fovus Storage is read-only. Writing with newByteChannel is not supported");
+        }
+
+        final FovusPath fovusPath = (FovusPath) path;
+        final FovusFileMetadata fileMetadata = fovusFileMetadataLookup.lookup(fovusPath);
+        final FovusFileAttributes attributes = toAttributes(fovusPath, fileMetadata);
+        if (attributes.isDirectory()) {
+            throw new IOException("Cannot read a directory: " + FilesEx.toUriString(fovusPath));
+        }
+
+        final FovusFileSystem fileSystem = fovusPath.getFileSystem();
+        return new FovusReadChannel(fileSystem.getBlockCache(), fovusPath, fileMetadata.getETag(), attributes.size(), fileSystem.getReadAheadBlocks());
     }
 
     @Override
@@ -267,17 +279,11 @@ public class FovusFileSystemProvider extends FileSystemProvider implements FileS
         throw new UnsupportedOperationException(format("only %s supported", BasicFileAttributes.class));
     }
 
-    private Optional<FovusFileAttributes> readAttr1(FovusPath fovusPath) throws IOException {
-        try {
-            return Optional.of(readAttr0(fovusPath));
-        } catch (NoSuchFileException e) {
-            return Optional.<FovusFileAttributes>empty();
-        }
-    }
-
     private FovusFileAttributes readAttr0(FovusPath fovusPath) throws IOException {
-        FovusFileMetadata fileMetadata = fovusFileMetadataLookup.lookup(fovusPath);
+        return toAttributes(fovusPath, fovusFileMetadataLookup.lookup(fovusPath));
+    }
 
+    private FovusFileAttributes toAttributes(FovusPath fovusPath, FovusFileMetadata fileMetadata) {
         // parse the data to BasicFileAttributes.
         FileTime lastModifiedTime = null;
         if (fileMetadata.getLastModified() != null) {
@@ -321,7 +327,7 @@ public class FovusFileSystemProvider extends FileSystemProvider implements FileS
 
     protected FovusFileSystem createFileSystem(URI uri, FovusConfig fovusConfig) {
         FovusJobClient fovusJobClient = new FovusJobClient(fovusConfig);
-        return new FovusFileSystem(this, fovusJobClient, uri);
+        return new FovusFileSystem(this, fovusJobClient, uri, fovusConfig);
     }
 
 
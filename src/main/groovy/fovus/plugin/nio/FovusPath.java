@@ -17,11 +17,9 @@
 
 package fovus.plugin.nio;
 
-import com.google.common.base.*;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 
-import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
@@ -29,19 +27,43 @@ import java.nio.file.*;
 import java.util.*;
 import java.util.Objects;
 
-import static com.google.common.collect.Iterables.*;
 import static java.lang.String.format;
 
+/**
+ * Path of a Fovus Storage file, e.g. {@code /fovus-storage/files/folder1/input.txt}.
+ * <p>
+ * The key is kept as one string with the offsets of its segments. The parent, the file name and the other
+ * sub-paths share the string and the offsets of the path they come from, so walking a path does not copy it.
+ * The key, the string form and the hash code are computed once.
+ */
 public class FovusPath implements Path {
 
     public static final String PATH_SEPARATOR = "/";
 
     public static final String FOVUS_PATH_PREFIX = "/fovus-storage";
 
+    private static final int[] NO_OFFSETS = new int[0];
+
+    /**
+     * Key without fovus-storage prefix and fileType name, holding the segments of this path
+     * between {@link #from} and {@link #to}, and possibly more.
+     */
+    private final String backing;
+
+    /**
+     * The start of each segment in the backing key
+     */
+    private final int[] offsets;
+
+    /**
+     * The index of the first segment of this path
+     */
+    private final int from;
+
     /**
-     * Parts without fovus-storage prefix and fileType name.
+     * The index after the last segment of this path
      */
-    private final List<String> parts;
+    private final int to;
 
     /**
      * actual filesystem
@@ -50,11 +72,21 @@ public class FovusPath implements Path {
 
     private FovusFileMetadata fileMetadata;
 
-    private String fileType;
+    private final String fileType;
+
+    private String key;
+
+    private String string;
+
+    private int hash;
 
 
     public List<String> getParts() {
-        return new ArrayList<>(parts);
+        final List<String> parts = new ArrayList<>(getNameCount());
+        for (int i = from; i < to; i++) {
+            parts.add(segment(i));
+        }
+        return parts;
     }
 
     /**
@@ -79,7 +111,7 @@ public class FovusPath implements Path {
      *
      */
     public FovusPath(FovusFileSystem fileSystem, String path) {
-        this(fileSystem, path, "");
+        this(fileSystem, path, new String[0]);
     }
 
     /**
@@ -90,45 +122,74 @@ public class FovusPath implements Path {
      */
     public FovusPath(FovusFileSystem fileSystem, String first,
                      String... more) {
-        this.fileType = null;
-
-        List<String> parts = Lists.newArrayList(Splitter.on(PATH_SEPARATOR).split(first));
-        if (first.endsWith(PATH_SEPARATOR)) {
-            parts.remove(parts.size() - 1);
-        }
+        final KeyBuilder builder = new KeyBuilder();
+        String fileType = null;
+        int start = 0;
 
         if (first.startsWith(PATH_SEPARATOR)) { // absolute path
-            Preconditions.checkArgument(parts.size() >= 2 &&
-                            parts.get(1).equals("fovus-storage") &&
-                            (parts.get(2).equals("jobs") || parts.get(2).equals("files") || parts.get(2).equals("shared")),
+            final int prefixEnd = FOVUS_PATH_PREFIX.length();
+            final int typeEnd = first.indexOf('/', prefixEnd + 1);
+            fileType = canonicalFileType(first.startsWith(FOVUS_PATH_PREFIX + PATH_SEPARATOR)
+                    ? first.substring(prefixEnd + 1, typeEnd < 0 ? first.length() : typeEnd)
+                    : null);
+            Preconditions.checkArgument(fileType != null,
                     "Invalid Fovus file path. Path must start with fovus-storage prefix and followed by 'files' or 'jobs' or 'shared");
 
-            fileType = parts.get(2);
             if (fileType.equals("shared")) {
                 throw new UnsupportedOperationException("Shared files are not currently supported");
             }
 
             // Get the remaining parts after /fovus-storage/{fileType}/
-            parts = parts.subList(3, parts.size());
+            start = typeEnd < 0 ? first.length() : typeEnd;
         }
 
-        List<String> moreSplitted = Lists.newArrayList();
-
+        builder.append(first, start);
         for (String part : more) {
-            moreSplitted.addAll(Lists.newArrayList(Splitter.on(PATH_SEPARATOR).split(part)));
+            builder.append(part, 0);
         }
 
-        parts.addAll(moreSplitted);
-
-        this.parts = KeyParts.parse(parts);
         this.fileSystem = fileSystem;
+        this.fileType = fileType;
+        this.backing = builder.key();
+        this.offsets = builder.offsets();
+        this.from = 0;
+        this.to = offsets.length;
     }
 
     private FovusPath(FovusFileSystem fileSystem, String fileType,
-                      Iterable<String> keys) {
-        this.fileType = fileType;
-        this.parts = KeyParts.parse(keys);
+                      String backing, int[] offsets, int from, int to) {
         this.fileSystem = fileSystem;
+        this.fileType = fileType;
+        this.backing = backing;
+        this.offsets = offsets;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Build a path from its segments, e.g. when it is deserialized
+     *
+     * @param fileType The file type of an absolute path, {@code null} for a relative path
+     */
+    public static FovusPath of(FovusFileSystem fileSystem, String fileType, List<String> segments) {
+        final String type = canonicalFileType(fileType);
+        Preconditions.checkArgument(fileType == null || type != null, "Invalid Fovus file type: %s", fileType);
+        final KeyBuilder builder = new KeyBuilder();
+        for (String segment : segments) {
+            builder.append(segment, 0);
+        }
+        final int[] offsets = builder.offsets();
+        return new FovusPath(fileSystem, type, builder.key(), offsets, 0, offsets.length);
+    }
+
+    /**
+     * Build a path from a normalized key, i.e. without empty segments
+     */
+    private static FovusPath ofKey(FovusFileSystem fileSystem, String fileType, String key) {
+        final KeyBuilder builder = new KeyBuilder();
+        builder.append(key, 0);
+        final int[] offsets = builder.offsets();
+        return new FovusPath(fileSystem, fileType, builder.key(), offsets, 0, offsets.length);
     }
 
     /**
@@ -136,15 +197,18 @@ public class FovusPath implements Path {
      * <b>note:</b> the final slash need to be added to save a directory
      */
     public String getKey() {
-        if (parts.isEmpty()) {
-            return "";
+        String result = key;
+        if (result == null) {
+            if (from == to) {
+                result = "";
+            } else if (from == 0 && to == offsets.length) {
+                result = backing;
+            } else {
+                result = backing.substring(offsets[from], segmentEnd(to - 1));
+            }
+            key = result;
         }
-
-        List<String> mutableParts = new ArrayList<>(parts);
-
-        ImmutableList.Builder<String> builder = ImmutableList
-                .<String>builder().addAll(mutableParts);
-        return Joiner.on(PATH_SEPARATOR).join(builder.build());
+        return result;
     }
 
     /**
@@ -167,7 +231,7 @@ public class FovusPath implements Path {
     @Override
     public Path getRoot() {
         if (isAbsolute()) {
-            return new FovusPath(fileSystem, FOVUS_PATH_PREFIX + PATH_SEPARATOR + getFileType());
+            return new FovusPath(fileSystem, fileType, "", NO_OFFSETS, 0, 0);
         }
 
         return null;
@@ -175,45 +239,41 @@ public class FovusPath implements Path {
 
     @Override
     public Path getFileName() {
-        if (parts.isEmpty()) {
+        if (from == to) {
             return null;
         }
 
-        return new FovusPath(
-                fileSystem,
-                null,
-                parts.subList(parts.size() - 1, parts.size())
-        );
+        return new FovusPath(fileSystem, null, backing, offsets, to - 1, to);
     }
 
     @Override
     public Path getParent() {
-        if (parts.isEmpty()) {
+        if (from == to) {
             return null;
         }
 
         // Here, we only know the file name, so we can't get the parent
-        if (parts.size() == 1 && fileType == null) {
+        if (getNameCount() == 1 && fileType == null) {
             return null;
         }
 
-        return new FovusPath(fileSystem, fileType,
-                parts.subList(0, parts.size() - 1));
+        return new FovusPath(fileSystem, fileType, backing, offsets, from, to - 1);
     }
 
     @Override
     public int getNameCount() {
-        return parts.size();
+        return to - from;
     }
 
     @Override
     public Path getName(int index) {
-        return new FovusPath(fileSystem, null, parts.subList(index, index + 1));
+        return subpath(index, index + 1);
     }
 
     @Override
     public Path subpath(int beginIndex, int endIndex) {
-        return new FovusPath(fileSystem, null, parts.subList(beginIndex, endIndex));
+        Preconditions.checkPositionIndexes(beginIndex, endIndex, getNameCount());
+        return new FovusPath(fileSystem, null, backing, offsets, from + beginIndex, from + endIndex);
     }
 
     @Override
@@ -230,8 +290,8 @@ public class FovusPath implements Path {
         FovusPath path = (FovusPath) other;
 
         // Here, we don't know the fileType of the other path
-        if (path.parts.isEmpty() && path.fileType == null &&
-                (!this.parts.isEmpty() || this.fileType != null)) {
+        if (path.getNameCount() == 0 && path.fileType == null &&
+                (this.getNameCount() != 0 || this.fileType != null)) {
             return false;
         }
 
@@ -240,8 +300,8 @@ public class FovusPath implements Path {
             return false;
         }
 
-        for (int i = 0; i < path.parts.size(); i++) {
-            if (!path.parts.get(i).equals(this.parts.get(i))) {
+        for (int i = 0; i < path.getNameCount(); i++) {
+            if (!segmentEquals(path, path.from + i, this.from + i)) {
                 return false;
             }
         }
@@ -278,11 +338,11 @@ public class FovusPath implements Path {
 
         // check subkeys
 
-        int i = path.parts.size() - 1;
-        int j = this.parts.size() - 1;
-        for (; i >= 0 && j >= 0; ) {
+        int i = path.to - 1;
+        int j = this.to - 1;
+        for (; i >= path.from && j >= this.from; ) {
 
-            if (!path.parts.get(i).equals(this.parts.get(j))) {
+            if (!segmentEquals(path, i, j)) {
                 return false;
             }
             i--;
@@ -298,15 +358,11 @@ public class FovusPath implements Path {
 
     @Override
     public Path normalize() {
-        if (parts == null || parts.size() == 0)
+        if (!hasDotSegment())
             return this;
 
-        return new FovusPath(fileSystem, fileType, normalize0(parts));
-    }
-
-    private Iterable<String> normalize0(List<String> parts) {
-        final String s0 = Path.of(String.join(PATH_SEPARATOR, parts)).normalize().toString();
-        return Lists.newArrayList(Splitter.on(PATH_SEPARATOR).split(s0));
+        final String s0 = Path.of(getKey()).normalize().toString();
+        return ofKey(fileSystem, fileType, s0);
     }
 
     @Override
@@ -320,11 +376,11 @@ public class FovusPath implements Path {
             return fovusPath;
         }
 
-        if (fovusPath.parts.isEmpty()) { // other is relative and empty
+        if (fovusPath.getNameCount() == 0) { // other is relative and empty
             return this;
         }
 
-        return new FovusPath(fileSystem, fileType, concat(parts, fovusPath.parts));
+        return concat(this, fovusPath);
     }
 
     @Override
@@ -339,18 +395,17 @@ public class FovusPath implements Path {
 
         FovusPath fovusPath = (FovusPath) other;
 
-        Path parent = getParent();
+        FovusPath parent = (FovusPath) getParent();
 
         if (parent == null || fovusPath.isAbsolute()) {
             return fovusPath;
         }
 
-        if (fovusPath.parts.isEmpty()) { // other is relative and empty
+        if (fovusPath.getNameCount() == 0) { // other is relative and empty
             return parent;
         }
 
-        return new FovusPath(fileSystem, fileType, concat(
-                parts.subList(0, parts.size() - 1), fovusPath.parts));
+        return concat(parent, fovusPath);
     }
 
     @Override
@@ -376,38 +431,25 @@ public class FovusPath implements Path {
                 "Cannot relativize paths with different file type: '%s', '%s'",
                 this, other);
 
-        Preconditions.checkArgument(parts.size() <= fovusPath.parts.size(),
+        Preconditions.checkArgument(getNameCount() <= fovusPath.getNameCount(),
                 "Cannot relativize against a parent path: '%s', '%s'",
                 this, other);
 
 
         int startPart = 0;
-        for (int i = 0; i < this.parts.size(); i++) {
-            if (this.parts.get(i).equals(fovusPath.parts.get(i))) {
+        for (int i = 0; i < this.getNameCount(); i++) {
+            if (segmentEquals(fovusPath, fovusPath.from + i, this.from + i)) {
                 startPart++;
             }
         }
 
-        List<String> resultParts = new ArrayList<>();
-        for (int i = startPart; i < fovusPath.parts.size(); i++) {
-            resultParts.add(fovusPath.parts.get(i));
-        }
-
-        return new FovusPath(fileSystem, null, resultParts);
+        return new FovusPath(fileSystem, null, fovusPath.backing, fovusPath.offsets, fovusPath.from + startPart, fovusPath.to);
     }
 
     @Override
     public URI toUri() {
-        StringBuilder builder = new StringBuilder();
-        builder.append("fovus://");
-        builder.append(FOVUS_PATH_PREFIX);
-        builder.append(PATH_SEPARATOR);
-        builder.append(fileType);
-        builder.append(PATH_SEPARATOR);
-        builder.append(Joiner.on(PATH_SEPARATOR).join(parts));
-
         // Eg: fovus:///fovus-storage/{fileType}/{key}
-        return URI.create(builder.toString());
+        return URI.create("fovus://" + FOVUS_PATH_PREFIX + PATH_SEPARATOR + fileType + PATH_SEPARATOR + getKey());
     }
 
     @Override
@@ -444,11 +486,10 @@ public class FovusPath implements Path {
 
     @Override
     public Iterator<Path> iterator() {
-        ImmutableList.Builder<Path> builder = ImmutableList.builder();
+        ImmutableList.Builder<Path> builder = ImmutableList.builderWithExpectedSize(getNameCount());
 
-        for (Iterator<String> iterator = parts.iterator(); iterator.hasNext(); ) {
-            String part = iterator.next();
-            builder.add(new FovusPath(fileSystem, null, ImmutableList.of(part)));
+        for (int i = 0; i < getNameCount(); i++) {
+            builder.add(getName(i));
         }
 
         return builder.build().iterator();
@@ -461,18 +502,14 @@ public class FovusPath implements Path {
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-
-        if (isAbsolute()) {
-            builder.append(FOVUS_PATH_PREFIX);
-            builder.append(PATH_SEPARATOR);
-            builder.append(fileType);
-            builder.append(PATH_SEPARATOR);
+        String result = string;
+        if (result == null) {
+            result = isAbsolute()
+                    ? FOVUS_PATH_PREFIX + PATH_SEPARATOR + fileType + PATH_SEPARATOR + getKey()
+                    : getKey();
+            string = result;
         }
-
-        builder.append(Joiner.on(PATH_SEPARATOR).join(parts));
-
-        return builder.toString();
+        return result;
     }
 
     @Override
@@ -486,17 +523,22 @@ public class FovusPath implements Path {
 
         FovusPath path = (FovusPath) other;
 
-        if (!Objects.equals(fileType, path.fileType)) {
+        if (!Objects.equals(fileType, path.fileType) || getNameCount() != path.getNameCount()) {
             return false;
         }
 
-        return parts.equals(path.parts);
+        // the segments have no empty part, the same keys have the same segments
+        return getKey().equals(path.getKey());
     }
 
     @Override
     public int hashCode() {
-        int result = fileType != null ? fileType.hashCode() : 0;
-        result = 31 * result + parts.hashCode();
+        int result = hash;
+        if (result == 0) {
+            result = fileType != null ? fileType.hashCode() : 0;
+            result = 31 * result + getKey().hashCode();
+            hash = result;
+        }
         return result;
     }
 
@@ -522,38 +564,113 @@ public class FovusPath implements Path {
 
 
     // ~ helpers methods
-    private static Function<String, String> strip(final String... strs) {
-        return new Function<String, String>() {
-            public String apply(String input) {
-                String res = input;
-                for (String str : strs) {
-                    res = res.replace(str, "");
-                }
-                return res;
-            }
-        };
+    private String segment(int index) {
+        return backing.substring(offsets[index], segmentEnd(index));
+    }
+
+    private int segmentEnd(int index) {
+        return index + 1 < offsets.length ? offsets[index + 1] - 1 : backing.length();
+    }
+
+    /**
+     * Compare a segment of another path with a segment of this path without copying them
+     */
+    private boolean segmentEquals(FovusPath other, int otherIndex, int index) {
+        final int length = segmentEnd(index) - offsets[index];
+        return other.segmentEnd(otherIndex) - other.offsets[otherIndex] == length
+                && backing.regionMatches(offsets[index], other.backing, other.offsets[otherIndex], length);
     }
 
-    private static Predicate<String> notEmpty() {
-        return new Predicate<String>() {
-            @Override
-            public boolean apply(@Nullable String input) {
-                return input != null && !input.isEmpty();
+    private boolean hasDotSegment() {
+        for (int i = from; i < to; i++) {
+            final int length = segmentEnd(i) - offsets[i];
+            if (backing.charAt(offsets[i]) == '.' && (length == 1 || (length == 2 && backing.charAt(offsets[i] + 1) == '.'))) {
+                return true;
             }
-        };
+        }
+        return false;
+    }
+
+    private static FovusPath concat(FovusPath parent, FovusPath child) {
+        final String parentKey = parent.getKey();
+        final String childKey = child.getKey();
+        final String key = parentKey.isEmpty() ? childKey : parentKey + PATH_SEPARATOR + childKey;
+
+        final int count = parent.getNameCount() + child.getNameCount();
+        final int[] offsets = new int[count];
+        int i = 0;
+        for (int j = parent.from; j < parent.to; j++) {
+            offsets[i++] = parent.offsets[j] - parent.offsets[parent.from];
+        }
+        final int shift = parentKey.isEmpty() ? 0 : parentKey.length() + 1;
+        for (int j = child.from; j < child.to; j++) {
+            offsets[i++] = child.offsets[j] - child.offsets[child.from] + shift;
+        }
+        return new FovusPath(parent.fileSystem, parent.fileType, key, offsets, 0, count);
+    }
+
+    /**
+     * The file types share the same strings, so that they are compared by reference first
+     */
+    private static String canonicalFileType(String fileType) {
+        if (fileType == null) {
+            return null;
+        }
+        switch (fileType) {
+            case "files":
+                return "files";
+            case "jobs":
+                return "jobs";
+            case "shared":
+                return "shared";
+            default:
+                return null;
+        }
     }
 
     /*
-     * delete redundant "/" and empty parts
+     * Joins the parts of a path, deleting redundant "/" and empty parts, and records where each part starts
      */
-    private abstract static class KeyParts {
+    private static final class KeyBuilder {
+
+        private final StringBuilder key = new StringBuilder();
+
+        private int[] offsets = NO_OFFSETS;
+
+        private int count;
+
+        void append(String path, int start) {
+            final int length = path.length();
+            int i = start;
+            while (i < length) {
+                while (i < length && path.charAt(i) == '/') {
+                    i++;
+                }
+                if (i == length) {
+                    break;
+                }
+                int end = path.indexOf('/', i);
+                if (end < 0) {
+                    end = length;
+                }
+                if (count > 0) {
+                    key.append('/');
+                }
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, Math.max(4, count * 2));
+                }
+                offsets[count++] = key.length();
+                key.append(path, i, end);
+                i = end;
+            }
+        }
 
-        private static ImmutableList<String> parse(List<String> parts) {
-            return ImmutableList.copyOf(filter(transform(parts, strip("/")), notEmpty()));
+        String key() {
+            return key.toString();
         }
 
-        private static ImmutableList<String> parse(Iterable<String> parts) {
-            return ImmutableList.copyOf(filter(transform(parts, strip("/")), notEmpty()));
+        int[] offsets() {
+            return count == offsets.length ? offsets : Arrays.copyOf(offsets, count);
         }
     }
 
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2020-2022, Seqera Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package fovus.plugin.nio;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Prefix tree of the objects listed in a {@link FovusFileSystem}, one node per key segment.
+ * <p>
+ * A directory is indexed by a {@link Listing}: its objects are collected aside, and replace the indexed subtree of
+ * the directory once the listing completes. Until the listing expires, the index answers locally, in O(depth),
+ * whether a key below it is a file, a directory or missing, and what it contains. A key is only reported missing for
+ * the negative TTL after the listing, since the outputs of a running job can appear at any time.
+ * Keys are relative to the file type, without a trailing slash.
+ */
+public class FovusPathIndex {
+
+    private static final Interner<String> SEGMENTS = Interners.newWeakInterner();
+
+    private static final Splitter SPLITTER = Splitter.on(FovusPath.PATH_SEPARATOR).omitEmptyStrings();
+
+    /**
+     * Metadata returned by {@link #lookup(String)} for a key known not to exist
+     */
+    public static final FovusFileMetadata MISSING = new FovusFileMetadata();
+
+    private static final class Node {
+        Map<String, Node> children;
+        /** The metadata of the object at this key, if any */
+        FovusFileMetadata metadata;
+        /** The time this prefix was listed completely, or 0 */
+        long listedAt;
+
+        Node child(String segment, boolean create) {
+            if (children == null) {
+                if (!create) {
+                    return null;
+                }
+                children = new HashMap<>(4);
+            }
+            Node child = children.get(segment);
+            if (child == null && create) {
+                child = new Node();
+                children.put(SEGMENTS.intern(segment), child);
+            }
+            return child;
+        }
+
+        boolean isDirectory() {
+            return (children != null && !children.isEmpty())
+                    || (metadata != null && metadata.getKey() != null && metadata.getKey().endsWith("/"));
+        }
+    }
+
+    private final long ttlMillis;
+
+    private final long negativeTtlMillis;
+
+    private final long maxEntries;
+
+    private Node root = new Node();
+
+    private long entries;
+
+    /**
+     * Incremented each time the index is cleared, so that the listings started before are dropped
+     */
+    private long generation;
+
+    /**
+     * @param ttlMillis         How long a listing answers for its prefix, {@code 0} disables the index
+     * @param negativeTtlMillis How long a listing answers that a key of its prefix is missing
+     * @param maxEntries        The maximum number of indexed keys, the index is cleared when exceeded
+     */
+    public FovusPathIndex(long ttlMillis, long negativeTtlMillis, long maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = Math.min(ttlMillis, negativeTtlMillis);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Start listing a prefix. The listed objects are only indexed when the listing completes.
+     *
+     * @param key The prefix, relative to the file type
+     */
+    public synchronized Listing startListing(String key) {
+        return new Listing(key, generation);
+    }
+
+    /**
+     * @return {@code true} if the prefix, or one of its parents, was listed completely and has not expired
+     */
+    public synchronized boolean isListed(String key) {
+        return listedAncestor(key) != null;
+    }
+
+    /**
+     * Look up a key in the listed prefixes.
+     *
+     * @return The metadata of a file, a metadata with a trailing slash for a directory, {@link #MISSING}
+     * if the key is in a prefix listed within the negative TTL but does not exist, or {@code null} if the key is not
+     * in a listed prefix or the listing is too old to tell that it is missing
+     */
+    public synchronized FovusFileMetadata lookup(String key) {
+        final Node listed = listedAncestor(key);
+        if (listed == null) {
+            return null;
+        }
+        final FovusFileMetadata missing = System.currentTimeMillis() - listed.listedAt < negativeTtlMillis ? MISSING : null;
+
+        final Node node = find(key, false);
+        if (node == null) {
+            return missing;
+        }
+        if (node.isDirectory() || key.isEmpty()) {
+            final FovusFileMetadata explicit = node.metadata;
+            return new FovusFileMetadata(key + FovusPath.PATH_SEPARATOR,
+                    explicit != null ? explicit.getLastModified() : null,
+                    explicit != null ? explicit.getETag() : null,
+                    0);
+        }
+        if (node.metadata == null) {
+            return missing;
+        }
+        return new FovusFileMetadata(key, node.metadata.getLastModified(), node.metadata.getETag(), node.metadata.getSize());
+    }
+
+    /**
+     * Visit the keys below a listed prefix, parents first
+     *
+     * @param key     The prefix
+     * @param visitor Called with the key and the metadata of each file and directory, as returned by {@link #lookup(String)}
+     * @return {@code false} if the prefix is not listed
+     */
+    public synchronized boolean walk(String key, BiConsumer<String, FovusFileMetadata> visitor) {
+        if (listedAncestor(key) == null) {
+            return false;
+        }
+        final Node start = find(key, false);
+        if (start == null || start.children == null) {
+            return true;
+        }
+
+        final String base = key.isEmpty() ? "" : key + FovusPath.PATH_SEPARATOR;
+        final Deque<Map.Entry<String, Node>> stack = new ArrayDeque<>();
+        for (Map.Entry<String, Node> child : start.children.entrySet()) {
+            stack.push(Map.entry(base + child.getKey(), child.getValue()));
+        }
+        while (!stack.isEmpty()) {
+            final Map.Entry<String, Node> entry = stack.pop();
+            final String childKey = entry.getKey();
+            final Node node = entry.getValue();
+            if (node.isDirectory()) {
+                visitor.accept(childKey, new FovusFileMetadata(childKey + FovusPath.PATH_SEPARATOR,
+                        node.metadata != null ? node.metadata.getLastModified() : null, null, 0));
+                if (node.children != null) {
+                    for (Map.Entry<String, Node> child : node.children.entrySet()) {
+                        stack.push(Map.entry(childKey + FovusPath.PATH_SEPARATOR + child.getKey(), child.getValue()));
+                    }
+                }
+            } else if (node.metadata != null) {
+                visitor.accept(childKey, new FovusFileMetadata(childKey, node.metadata.getLastModified(),
+                        node.metadata.getETag(), node.metadata.getSize()));
+            }
+        }
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    public synchronized void clear() {
+        root = new Node();
+        entries = 0;
+        generation++;
+    }
+
+    public synchronized long size() {
+        return entries;
+    }
+
+    /**
+     * The closest listed prefix of a key that has not expired
+     */
+    private Node listedAncestor(String key) {
+        if (ttlMillis <= 0) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        Node node = root;
+        Node listed = isFresh(node, now) ? node : null;
+        for (String segment : SPLITTER.split(key)) {
+            node = node.child(segment, false);
+            if (node == null) {
+                break;
+            }
+            if (isFresh(node, now)) {
+                listed = node;
+            }
+        }
+        return listed;
+    }
+
+    /**
+     * Replace the subtree of a prefix with a completed listing and mark the prefix as listed
+     */
+    private synchronized void complete(Listing listing) {
+        if (listing.generation != generation || listing.entries > maxEntries) {
+            // The index was cleared during the listing, or cannot hold it: the prefix is not listed completely
+            return;
+        }
+
+        final Node previous = find(listing.key, false);
+        long replaced = previous != null ? descendants(previous) : 0;
+        if (entries - replaced + listing.entries > maxEntries) {
+            clear();
+            replaced = 0;
+        }
+        final Node node = find(listing.key, true);
+        node.children = listing.root.children;
+        node.listedAt = System.currentTimeMillis();
+        entries += listing.entries - replaced;
+    }
+
+    private static long descendants(Node node) {
+        long count = 0;
+        final Deque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            final Node current = stack.pop();
+            if (current.children != null) {
+                count += current.children.size();
+                current.children.values().forEach(stack::push);
+            }
+        }
+        return count;
+    }
+
+    private boolean isFresh(Node node, long now) {
+        return node.listedAt > 0 && now - node.listedAt < ttlMillis;
+    }
+
+    private Node find(String key, boolean create) {
+        Node node = root;
+        for (String segment : SPLITTER.split(key)) {
+            Node child = node.child(segment, false);
+            if (child == null) {
+                if (!create) {
+                    return null;
+                }
+                child = node.child(segment, true);
+                entries++;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * The objects listed below a prefix, indexed together by {@link #complete()}. A listing is used by a single thread.
+     */
+    public final class Listing {
+
+        private final String key;
+
+        private final long generation;
+
+        private final Node root = new Node();
+
+        private long entries;
+
+        private Listing(String key, long generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+
+        /**
+         * Add a listed object
+         *
+         * @param key      The key of the object, relative to the file type and below the listed prefix
+         * @param metadata The metadata of the object, its key ends with a slash for a directory object
+         */
+        public void add(String key, FovusFileMetadata metadata) {
+            if (ttlMillis <= 0 || entries > maxEntries) {
+                return;
+            }
+
+            Node node = root;
+            for (String segment : SPLITTER.split(key.substring(this.key.length()))) {
+                Node child = node.child(segment, false);
+                if (child == null) {
+                    child = node.child(segment, true);
+                    entries++;
+                }
+                node = child;
+            }
+            node.metadata = metadata;
+        }
+
+        /**
+         * Index the listed objects in place of the ones of a previous listing, and mark the prefix as listed.
+         * Nothing is indexed if the index was cleared since the listing started.
+         */
+        public void complete() {
+            if (ttlMillis > 0) {
+                FovusPathIndex.this.complete(this);
+            }
+        }
+    }
+}
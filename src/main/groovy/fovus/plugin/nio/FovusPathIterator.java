@@ -18,26 +18,48 @@
 package fovus.plugin.nio;
 
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 
+import fovus.plugin.transport.ListObjectsResponse;
+
 /**
  * Iterator over folders at first level of a FovusPath.
- * Future versions of this class should be return the elements
- * in an incremental way when the #next() method is called.
+ * <p>
+ * The objects are listed one page at a time and the paths are returned as the pages are parsed,
+ * so the memory used is bounded by the page size. The next page is fetched in the background
+ * while the current one is iterated.
  */
 public class FovusPathIterator implements Iterator<Path> {
 
     private static final Logger log = LoggerFactory.getLogger(FovusPathIterator.class);
 
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Fetches the next pages of all the iterators, so that many directories listed at once do not start as many threads
+     */
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "fovus-list-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final FovusFileSystem fovusFileSystem;
 
     private final String key;
@@ -47,7 +69,26 @@ public class FovusPathIterator implements Iterator<Path> {
      */
     FovusPath fovusPath;
 
-    private Iterator<FovusPath> it;
+    /**
+     * Paths of the current page not returned yet
+     */
+    private final Deque<FovusPath> pending = new ArrayDeque<>();
+
+    /**
+     * Parent folders already returned
+     */
+    private final Set<String> folders = new HashSet<>();
+
+    private CompletableFuture<ListObjectsResponse> nextPage;
+
+    private boolean started;
+
+    /**
+     * The listing indexed once all the pages are parsed, or {@code null} if a page could not be listed
+     */
+    private FovusPathIndex.Listing listing;
+
+    private boolean listedObjects;
 
     public FovusPathIterator(String key, FovusPath fovusPath) {
         FovusFileSystem fovusFileSystem = fovusPath.getFileSystem();
@@ -68,66 +109,121 @@ public class FovusPathIterator implements Iterator<Path> {
 
     @Override
     public FovusPath next() {
-        return getIterator().next();
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return pending.poll();
     }
 
     @Override
     public boolean hasNext() {
-        return getIterator().hasNext();
+        if (!started && listFromIndex()) {
+            started = true;
+        }
+        while (pending.isEmpty() && (!started || nextPage != null)) {
+            if (!started) {
+                listing = fovusFileSystem.getPathIndex().startListing(baseKey());
+            }
+            final ListObjectsResponse page = started ? await(nextPage) : fetch(null);
+            started = true;
+
+            // Prefetch the following page while this one is iterated
+            nextPage = page.getNextContinuationToken() != null
+                    ? CompletableFuture.supplyAsync(() -> fetch(page.getNextContinuationToken()), prefetcher)
+                    : null;
+
+            if (page.getObjects() != null) {
+                parseObjectListing(pending, page.getObjects());
+                listedObjects |= !page.getObjects().isEmpty();
+            } else {
+                listing = null;
+            }
+            // Do not report the keys of the prefix as missing from a listing the transport could not read
+            if (nextPage == null && listing != null && listedObjects) {
+                // All the pages are listed, the prefix can now be listed locally
+                listing.complete();
+                listing = null;
+            }
+        }
+        return !pending.isEmpty();
     }
 
-    private Iterator<FovusPath> getIterator() {
-        if (it == null) {
-            List<FovusPath> listPath = new ArrayList<>();
+    /**
+     * List the paths from the file system index when the prefix, or one of its parents, was already listed
+     */
+    private boolean listFromIndex() {
+        final String fileTypePrefix = FovusPath.FOVUS_PATH_PREFIX + "/" + fovusPath.getFileType() + "/";
+        final boolean listed = fovusFileSystem.getPathIndex().walk(baseKey(), (childKey, metadata) -> {
+            final FovusPath path = new FovusPath(fovusFileSystem, fileTypePrefix + childKey);
+            path.setFileMetadata(metadata);
+            pending.add(path);
+        });
+        if (listed) {
+            log.trace("Listed {}/{} from the path index", fovusPath.getFileType(), key);
+        }
+        return listed;
+    }
 
-            // iterator over this list
-            // TODO: Support paginated requests
-            List<FovusFileMetadata> fovusFileMetadataList = fovusFileSystem.getJobClient().listFileObjects(fovusPath.getFileType(), key.substring(0, key.length() - 1));
+    private String baseKey() {
+        return key.isEmpty() ? "" : key.substring(0, key.length() - 1);
+    }
 
-            parseObjectListing(listPath, fovusFileMetadataList);
+    private ListObjectsResponse fetch(String continuationToken) {
+        log.trace("Listing {}/{} from token {}", fovusPath.getFileType(), baseKey(), continuationToken);
+        return fovusFileSystem.getJobClient().listFileObjectsPage(fovusPath.getFileType(), baseKey(), continuationToken);
+    }
 
-            it = listPath.iterator();
+    private static ListObjectsResponse await(CompletableFuture<ListObjectsResponse> page) {
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
-
-        return it;
     }
 
     /**
      * add to the listPath the elements at the same level that fovusPath
      *
-     * @param listPath           List not null list to add
+     * @param listPath           not null queue to add
      * @param fovusFileMetadataList List<ObjectMetadata> to walk
      */
-    private void parseObjectListing(List<FovusPath> listPath, List<FovusFileMetadata> fovusFileMetadataList) {
-        Set<String> folders = new HashSet<>();
+    private void parseObjectListing(Deque<FovusPath> listPath, List<FovusFileMetadata> fovusFileMetadataList) {
+        final FovusFileMetadataCache metadataCache = fovusFileSystem.getMetadataCache();
+        final String fileTypePrefix = FovusPath.FOVUS_PATH_PREFIX + "/" + fovusPath.getFileType() + "/";
         for (final FovusFileMetadata fovusFileMetadata : fovusFileMetadataList) {
             String metaDataKey = fovusFileMetadata.getKey(); // E.g, files/folder1/text.txt
             FovusPath path = new FovusPath(fovusFileSystem, FovusPath.FOVUS_PATH_PREFIX + "/" + metaDataKey);
+            final String pathKey = path.getKey();
 
-            if (path.equals(fovusPath)) {
-                // Skip if the new path is the same as the initial target fovusPath to avoid circular file
+            if (path.equals(fovusPath) || !pathKey.startsWith(key)) {
+                // Skip the target fovusPath itself to avoid circular file, and the siblings sharing its name as prefix
                 continue;
             }
 
             listPath.add(path);
 
-
             if (fovusFileMetadata.getKey().endsWith("/")) {
-                fovusFileMetadata.setKey(path.getKey() + "/");
+                fovusFileMetadata.setKey(pathKey + "/");
             } else {
-                fovusFileMetadata.setKey(path.getKey());
+                fovusFileMetadata.setKey(pathKey);
             }
             path.setFileMetadata(fovusFileMetadata);
+            metadataCache.put(path.getFileType(), pathKey, fovusFileMetadata);
+            if (listing != null) {
+                listing.add(pathKey, fovusFileMetadata);
+            }
 
-            Path parentPath = path.getParent();
-            // Only loop until we reach the root or if the parentPath is fovusPath
-            while (parentPath != null && !fovusPath.startsWith(parentPath) && !fovusPath.equals(parentPath)) {
-                String parentKey = ((FovusPath) parentPath).getKey();
-                if (folders.contains(parentKey)) break;
+            // The parent folders below fovusPath, from the closest one, may not exist as objects
+            for (int end = pathKey.lastIndexOf('/'); end > key.length() - 1; end = pathKey.lastIndexOf('/', end - 1)) {
+                final String parentKey = pathKey.substring(0, end);
+                if (!folders.add(parentKey)) break;
 
-                folders.add(parentKey);
-                listPath.add((FovusPath) parentPath);
-                parentPath = parentPath.getParent();
+                listPath.add(new FovusPath(fovusFileSystem, fileTypePrefix + parentKey));
+                // Remember it as a directory
+                metadataCache.putIfAbsent(path.getFileType(), parentKey, new FovusFileMetadata(parentKey + "/", null, null, 0));
             }
         }
     }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020-2022, Seqera Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package fovus.plugin.nio;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Glob or regex {@link PathMatcher} of Fovus Storage paths.
+ * <p>
+ * Paths are matched by their string form, e.g. {@code /fovus-storage/files/run42/sample_R1.fq.gz},
+ * with the syntax of the default file system.
+ */
+public class FovusPathMatcher implements PathMatcher {
+
+    private static final String GLOB_SYNTAX = "glob";
+
+    private static final String REGEX_SYNTAX = "regex";
+
+    private final String syntax;
+
+    private final String pattern;
+
+    private final PathMatcher delegate;
+
+    public FovusPathMatcher(String syntaxAndPattern) {
+        final int pos = syntaxAndPattern.indexOf(':');
+        Preconditions.checkArgument(pos > 0, "Path matcher %s must be in the form syntax:pattern", syntaxAndPattern);
+        this.syntax = syntaxAndPattern.substring(0, pos).toLowerCase();
+        this.pattern = syntaxAndPattern.substring(pos + 1);
+        if (!GLOB_SYNTAX.equals(syntax) && !REGEX_SYNTAX.equals(syntax)) {
+            throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+        }
+        this.delegate = FileSystems.getDefault().getPathMatcher(syntax + ":" + pattern);
+    }
+
+    @Override
+    public boolean matches(Path path) {
+        return delegate.matches(Paths.get(path.toString()));
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return syntax + ":" + pattern;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020-2022, Seqera Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package fovus.plugin.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Read-only channel over a Fovus Storage file. The file is read by blocks through the {@link FovusBlockCache},
+ * so a small read only fetches the blocks it touches. The following blocks are prefetched while the file is read sequentially.
+ */
+public class FovusReadChannel implements SeekableByteChannel {
+
+    private final FovusBlockCache cache;
+
+    private final FovusPath path;
+
+    private final String eTag;
+
+    private final long size;
+
+    private final int readAheadBlocks;
+
+    private long position;
+
+    /**
+     * The position after the last read, to detect sequential reads
+     */
+    private long lastReadEnd;
+
+    private volatile boolean open = true;
+
+    public FovusReadChannel(FovusBlockCache cache, FovusPath path, String eTag, long size, int readAheadBlocks) {
+        this.cache = cache;
+        this.path = path;
+        this.eTag = eTag;
+        this.size = size;
+        this.readAheadBlocks = readAheadBlocks;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+
+        final boolean sequential = position == lastReadEnd;
+        final int blockSize = cache.getBlockSize();
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            final long index = position / blockSize;
+            final ByteBuffer block = cache.getBlock(path, eTag, size, index);
+            final int offset = (int) (position - index * blockSize);
+            if (offset >= block.limit()) {
+                // The file is shorter than expected, e.g. it changed since it was opened
+                break;
+            }
+
+            final int length = Math.min(block.limit() - offset, dst.remaining());
+            block.position(offset).limit(offset + length);
+            dst.put(block);
+            position += length;
+            total += length;
+        }
+        lastReadEnd = position;
+
+        if (sequential && readAheadBlocks > 0 && position < size) {
+            cache.prefetch(path, eTag, size, position / blockSize, readAheadBlocks);
+        }
+        return total > 0 ? total : -1;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        Preconditions.checkArgument(newPosition >= 0, "position must not be negative");
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
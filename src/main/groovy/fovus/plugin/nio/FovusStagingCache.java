@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020-2022, Seqera Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package fovus.plugin.nio;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+/**
+ * Local cache of the downloaded Fovus Storage files, kept across runs.
+ * <p>
+ * Files are stored by content, i.e. by ETag and size, so the same data is downloaded once whatever its path
+ * and the work directories it is staged into. A downloaded file is copied into the cache, so that the cache never
+ * shares the file of a work directory. A cached file is hard linked to the download target, or copied when the target
+ * is on another file system. Cached files are read-only, so that a staged input cannot be rewritten in place.
+ * <p>
+ * The last modified time of a cached file is its last use: the least recently used files are deleted
+ * once the cache exceeds its size limit.
+ */
+public class FovusStagingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FovusStagingCache.class);
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    /**
+     * The size of the cached files, computed on first use
+     */
+    private final AtomicLong cachedBytes = new AtomicLong(-1);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong hitBytes = new AtomicLong();
+
+    public FovusStagingCache(Path directory, long maxBytes) {
+        Preconditions.checkNotNull(directory, "directory is null");
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Stage a cached file to the target
+     *
+     * @return {@code true} if the file was cached, {@code false} if it must be downloaded
+     */
+    public boolean restore(String eTag, long size, Path target) throws IOException {
+        final Path entry = entry(eTag, size);
+        if (entry == null || !Files.exists(entry)) {
+            return false;
+        }
+        if (Files.size(entry) != size) {
+            log.debug("Discarding Fovus staging cache entry {} with an unexpected size", entry);
+            Files.deleteIfExists(entry);
+            return false;
+        }
+
+        Files.deleteIfExists(target);
+        Files.createDirectories(target.getParent());
+        link(entry, target);
+        touch(entry);
+
+        hits.incrementAndGet();
+        hitBytes.addAndGet(size);
+        return true;
+    }
+
+    /**
+     * Add a downloaded, and verified, file to the cache
+     */
+    public void store(String eTag, long size, Path file) {
+        final Path entry = entry(eTag, size);
+        if (entry == null) {
+            return;
+        }
+
+        try {
+            if (Files.exists(entry)) {
+                touch(entry);
+                return;
+            }
+
+            Files.createDirectories(directory);
+            final Path tmp = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+            Files.delete(tmp);
+            // Copy rather than link, the downloaded file belongs to the work directory
+            Files.copy(file, tmp);
+            tmp.toFile().setWritable(false, false);
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Added concurrently, e.g. by another run
+                Files.deleteIfExists(tmp);
+                return;
+            }
+
+            if (addCachedBytes(size) > maxBytes) {
+                evict();
+            }
+        } catch (IOException e) {
+            log.debug("Unable to add {} to the Fovus staging cache: {}", file, e.getMessage());
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FovusStagingCache {" +
+                "directory=" + directory +
+                ", hits=" + hits.get() +
+                ", hitBytes=" + hitBytes.get() +
+                '}';
+    }
+
+    /**
+     * Delete the least recently used files over the size limit
+     */
+    synchronized void evict() throws IOException {
+        final List<Map.Entry<Path, BasicFileAttributes>> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(".tmp")) {
+                    final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(file, attrs));
+                    total += attrs.size();
+                }
+            }
+        }
+
+        entries.sort(Comparator.comparing(e -> e.getValue().lastModifiedTime()));
+        for (Map.Entry<Path, BasicFileAttributes> entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            Files.deleteIfExists(entry.getKey());
+            total -= entry.getValue().size();
+            log.trace("Evicted Fovus staging cache entry {}", entry.getKey());
+        }
+        cachedBytes.set(total);
+    }
+
+    private long addCachedBytes(long size) throws IOException {
+        if (cachedBytes.get() < 0) {
+            synchronized (this) {
+                if (cachedBytes.get() < 0) {
+                    long total = 0;
+                    try (Stream<Path> files = Files.list(directory)) {
+                        for (Path file : (Iterable<Path>) files::iterator) {
+                            total += Files.size(file);
+                        }
+                    }
+                    // the new entry is already listed
+                    cachedBytes.set(total);
+                    return total;
+                }
+            }
+        }
+        return cachedBytes.addAndGet(size);
+    }
+
+    /**
+     * The cache entry of a file, or {@code null} if the file has no ETag
+     */
+    private Path entry(String eTag, long size) {
+        if (eTag == null || eTag.isEmpty()) {
+            return null;
+        }
+        final String content = eTag.replace("\"", "") + "-" + size;
+        return directory.resolve(Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString());
+    }
+
+    private static void link(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Different file systems, or no hard links
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.trace("Unable to update the last use of {}: {}", entry, e.getMessage());
+        }
+    }
+}
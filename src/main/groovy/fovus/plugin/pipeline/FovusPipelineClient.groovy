@@ -1,14 +1,17 @@
 package fovus.plugin.pipeline
 
 import groovy.json.JsonGenerator
-import groovy.json.JsonSlurper
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import fovus.plugin.FovusConfig
-import fovus.plugin.FovusUtil
+import fovus.plugin.transport.CreatePipelineRequest
+import fovus.plugin.transport.FovusTransportFactory
+import fovus.plugin.transport.GetPipelineRequest
+import fovus.plugin.transport.PreConfigResourcesRequest
+import fovus.plugin.transport.UpdatePipelineStatusRequest
 
 /**
- * Client for executing Fovus CLI commands
+ * Client for executing Fovus pipeline operations
  */
 @CompileStatic
 @Slf4j
@@ -18,19 +21,8 @@ class FovusPipelineClient {
     FovusPipelineClient() {}
 
     String createPipeline(FovusConfig config, String name) {
-        def command = [config.getCliPath(), '--silence', 'pipeline', 'create', '--name', name, '--workflow-host',
-                       'local']
-        def result = FovusUtil.executeCommand(command)
-
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to create Fovus pipeline: ${result.error}")
-        }
-        def slurper = new JsonSlurper()
-        // Parse the string. JsonSlurper is often lenient with single quotes.
-        log.debug "[FOVUS] Output: ${result.output.trim().split('\n')[-1]}"
-
-        def dataObject = slurper.parseText((result.output.trim().split('\n')[-1]).replaceAll("'", '"')) as Map
-        def pipelineId = dataObject.get("pipelineId") as String
+        final response = FovusTransportFactory.get(config).createPipeline(new CreatePipelineRequest(name: name, workflowHost: 'local'))
+        def pipelineId = response.pipelineId
 
         log.debug "[FOVUS] Pipeline created with ID: $pipelineId"
 
@@ -45,25 +37,18 @@ class FovusPipelineClient {
 
     void updatePipelineStatus(FovusConfig config, FovusPipeline pipeline, FovusPipelineStatus status) {
         log.trace "[FOVUS] Updating pipeline status to ${status.name()}"
-        def command = [config.getCliPath(), '--silence', 'pipeline', 'update', '--pipeline-id', pipeline.getPipelineId(), '--status', status.name()]
-        def result = FovusUtil.executeCommand(command)
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to update Fovus pipeline status: ${result.error}")
-        }
+        FovusTransportFactory.get(config).updatePipelineStatus(new UpdatePipelineStatusRequest(
+                pipelineId: pipeline.getPipelineId(),
+                status: status.name()
+        ))
     }
 
     FovusPipeline getPipeline(FovusConfig config, String pipelineId) {
-        def command = [config.getCliPath(), '--silence', 'pipeline', 'get', '--pipeline-id', pipelineId]
-        def result = FovusUtil.executeCommand(command)
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to get Fovus pipeline: ${result.error}")
-        }
-
-        final jsonData = new JsonSlurper().parseText(result.output)
+        final response = FovusTransportFactory.get(config).getPipeline(new GetPipelineRequest(pipelineId: pipelineId))
         final pipeline = new FovusPipeline(
-                jsonData["name"] as String,
-                jsonData["pipelineId"] as String,
-                jsonData["status"] as FovusPipelineStatus
+                response.name,
+                response.pipelineId,
+                response.status as FovusPipelineStatus
         )
 
         return pipeline
@@ -77,19 +62,9 @@ class FovusPipelineClient {
         def jsonGenerator = new JsonGenerator.Options().excludeNulls().build()
         def configurationsJson = jsonGenerator.toJson(configurations)
 
-        def command = [
-                config.getCliPath(),
-                '--silence',
-                'pipeline',
-                'pre-config-resources',
-                '--pipeline-id', pipeline.getPipelineId(),
-                '--configurations', configurationsJson
-        ]
-
-        def result = FovusUtil.executeCommand(command)
-
-        if (result.exitCode != 0) {
-            throw new RuntimeException("Failed to configure Fovus pipeline resources: ${result.error}")
-        }
+        FovusTransportFactory.get(config).preConfigResources(new PreConfigResourcesRequest(
+                pipelineId: pipeline.getPipelineId(),
+                configurationsJson: configurationsJson
+        ))
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package fovus.plugin.task
+
+import groovy.transform.CompileStatic
+
+/**
+ * Decides when a task handler should check its status again.
+ *
+ * The task monitor ticks at the min poll interval, and each handler only queries Fovus when its next poll is due:
+ * <ul>
+ *   <li>While the job is pending or provisioning, the interval doubles after each poll up to the max interval.</li>
+ *   <li>A task that started recently, or that is close to its expected runtime, is polled at the min interval.</li>
+ *   <li>Otherwise the interval grows with the time the task has been running, or follows its remaining expected runtime.</li>
+ * </ul>
+ */
+@CompileStatic
+class FovusPollSchedule {
+    /** Tasks running for less than this are polled at the min interval */
+    static final long RECENTLY_STARTED_MILLIS = 60_000
+
+    private final long minMillis
+    private final long maxMillis
+
+    private long nextPollAt = 0
+    private long pendingInterval = 0
+    private long runningSince = 0
+
+    FovusPollSchedule(long minMillis, long maxMillis) {
+        this.minMillis = Math.max(0, minMillis)
+        this.maxMillis = Math.max(this.minMillis, maxMillis)
+    }
+
+    boolean isDue() {
+        return System.currentTimeMillis() >= nextPollAt
+    }
+
+    /**
+     * Back off after a poll where the task was still pending
+     */
+    void pending() {
+        pendingInterval = pendingInterval == 0 ? minMillis : Math.min(maxMillis, pendingInterval * 2)
+        nextPollAt = System.currentTimeMillis() + pendingInterval
+    }
+
+    /**
+     * Schedule the next poll of a running task.
+     *
+     * @param expectedRuntimeMillis The expected runtime of the task, e.g. its {@code time} directive, or {@code null} if unknown
+     */
+    void running(Long expectedRuntimeMillis) {
+        final now = System.currentTimeMillis()
+        if (runningSince == 0) {
+            runningSince = now
+        }
+        nextPollAt = now + runningInterval(now - runningSince, expectedRuntimeMillis)
+    }
+
+    long getNextPollAt() {
+        return nextPollAt
+    }
+
+    protected long runningInterval(long elapsedMillis, Long expectedRuntimeMillis) {
+        if (elapsedMillis < RECENTLY_STARTED_MILLIS) {
+            return minMillis
+        }
+
+        if (expectedRuntimeMillis != null && expectedRuntimeMillis > 0) {
+            final remaining = expectedRuntimeMillis - elapsedMillis
+            // Close to (or past) the expected end
+            if (remaining <= expectedRuntimeMillis.intdiv(5)) {
+                return minMillis
+            }
+            return clamp(remaining.intdiv(4) as long)
+        }
+
+        return clamp(elapsedMillis.intdiv(10) as long)
+    }
+
+    private long clamp(long interval) {
+        return Math.max(minMillis, Math.min(maxMillis, interval))
+    }
+}
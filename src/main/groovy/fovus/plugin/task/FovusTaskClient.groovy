@@ -1,10 +1,13 @@
 package fovus.plugin.task
 
-import groovy.json.JsonSlurper
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import fovus.plugin.FovusConfig
 import fovus.plugin.FovusUtil
+import fovus.plugin.transport.FovusTransport
+import fovus.plugin.transport.FovusTransportFactory
+import fovus.plugin.transport.ListTasksRequest
+import fovus.plugin.transport.TaskInfo
 
 /**
  * Client for interacting with Fovus Task
@@ -13,73 +16,96 @@ import fovus.plugin.FovusUtil
 @Slf4j
 class FovusTaskClient {
     private FovusConfig config
+    private final FovusTransport transport
 
     FovusTaskClient(FovusConfig config) {
         this.config = config
-    }
-
-    static String getStatusFromJsonOutput(fullOutputString) {
-        // 1. Extract the JSON part from the string
-        // This regex looks for a '[' followed by anything, ending with a ']'
-        def matcher = (fullOutputString =~ /(?s)\[.*]/)
-        if (matcher.find()) {
-            def jsonPart = matcher.group(0) // Get the full matched JSON string
-
-            // 2. Parse the JSON part
-            def slurper = new JsonSlurper()
-            def parsedData = (List<Map<String, Object>>) slurper.parseText(jsonPart)
-
-            // 3. Access the status from the first element of the array
-            // Use null-safe operator and Elvis operator for robustness
-            return parsedData[0]?.get("status") as String ?: "Status Not Found"
-        } else {
-            // Handle case where no JSON part is found
-            return "No JSON found in output"
-        }
+        this.transport = FovusTransportFactory.get(config)
     }
 
     FovusTaskStatus getTaskStatus(String jobId, String taskName) {
-        def command = [config.getCliPath(), 'task', 'list', '--job-id', jobId, '--task-names', taskName]
         try {
-            def result = FovusUtil.executeCommand(command)
-            def taskStatus = getStatusFromJsonOutput(result.output)
+            final tasks = transport.listTasks(new ListTasksRequest(jobId: jobId, taskNames: [taskName])).tasks
+            final taskStatus = tasks ? tasks[0].status : null
 
             // If status not found immediately after submission then consider as CREATED
-            if (taskStatus == "Status Not Found" && FovusUtil.isRecentlySubmitted(jobId)) {
+            if (taskStatus == null && FovusUtil.isRecentlySubmitted(jobId)) {
                 log.trace "[FOVUS] Use CREATED for recently submitted task. Job Id: ${jobId}, task name: ${taskName}"
                 return FovusTaskStatus.CREATED
             }
 
             log.trace "[FOVUS] Job Id: ${jobId}, status: ${taskStatus}"
 
-            switch (taskStatus) {
-                case 'Pending':
-                    return FovusTaskStatus.CREATED
-                case 'Completed':
-                    return FovusTaskStatus.COMPLETED
-                case 'Failed':
-                    return FovusTaskStatus.FAILED
-                case 'Running':
-                    return FovusTaskStatus.RUNNING
-                case 'Requeued':
-                    return FovusTaskStatus.REQUEUED
-                case 'Terminated':
-                    return FovusTaskStatus.TERMINATED
-                case 'Terminating':
-                    return FovusTaskStatus.TERMINATING
-                case 'Uncompleted':
-                    return FovusTaskStatus.UNCOMPLETE
-                case 'Walltime Reached':
-                    return FovusTaskStatus.WALLTIME_REACHED
-                default:
-                    log.error "[FOVUS] Unknown job status: ${taskStatus}"
-                    throw new RuntimeException("Unknown job status: ${taskStatus}")
-            }
+            return toTaskStatus(taskStatus)
         } catch (Exception e) {
             log.error("getTaskStatus error, ex=${e.message}")
             throw new RuntimeException("getTaskStatusError")
         }
     }
+
+    /**
+     * List the status of every task of a job with a single request.
+     *
+     * @param jobId The Fovus job id
+     * @return Map of task name to its current status
+     */
+    Map<String, FovusTaskStatus> listTaskStatuses(String jobId) {
+        final tasks = transport.listTasks(new ListTasksRequest(jobId: jobId)).tasks
+
+        final Map<String, FovusTaskStatus> statuses = [:]
+        for (TaskInfo task : tasks) {
+            if (!task.taskName || !task.status) {
+                continue
+            }
+            final taskStatus = parseTaskStatus(task.status)
+            if (taskStatus == null) {
+                // Do not fail the statuses of the other tasks of the job
+                log.warn "[FOVUS] Skipping task ${task.taskName} of job ${jobId} with unknown status: ${task.status}"
+                continue
+            }
+            statuses.put(task.taskName, taskStatus)
+        }
+
+        log.trace "[FOVUS] Job Id: ${jobId}, listed ${statuses.size()} task statuses"
+        return statuses
+    }
+
+    static FovusTaskStatus toTaskStatus(String taskStatus) {
+        final status = parseTaskStatus(taskStatus)
+        if (status == null) {
+            log.error "[FOVUS] Unknown job status: ${taskStatus}"
+            throw new RuntimeException("Unknown job status: ${taskStatus}")
+        }
+        return status
+    }
+
+    /**
+     * @return The status, or {@code null} if it is unknown
+     */
+    private static FovusTaskStatus parseTaskStatus(String taskStatus) {
+        switch (taskStatus) {
+            case 'Pending':
+                return FovusTaskStatus.CREATED
+            case 'Completed':
+                return FovusTaskStatus.COMPLETED
+            case 'Failed':
+                return FovusTaskStatus.FAILED
+            case 'Running':
+                return FovusTaskStatus.RUNNING
+            case 'Requeued':
+                return FovusTaskStatus.REQUEUED
+            case 'Terminated':
+                return FovusTaskStatus.TERMINATED
+            case 'Terminating':
+                return FovusTaskStatus.TERMINATING
+            case 'Uncompleted':
+                return FovusTaskStatus.UNCOMPLETE
+            case 'Walltime Reached':
+                return FovusTaskStatus.WALLTIME_REACHED
+            default:
+                return null
+        }
+    }
 }
 
 
@@ -0,0 +1,13 @@
+package fovus.plugin.task
+
+import groovy.transform.CompileStatic
+
+/**
+ * Thrown when a task is missing from the task listing of its job once the submission grace period is over
+ */
+@CompileStatic
+class FovusTaskNotFoundException extends RuntimeException {
+    FovusTaskNotFoundException(String message) {
+        super(message)
+    }
+}
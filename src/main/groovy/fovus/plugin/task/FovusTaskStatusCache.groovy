@@ -0,0 +1,253 @@
+package fovus.plugin.task
+
+import fovus.plugin.FovusUtil
+import fovus.plugin.cli.FovusCliUnavailableException
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Executor-wide cache of Fovus task statuses.
+ *
+ * Active task handlers are grouped by job id, and the statuses of all tasks of a job are fetched
+ * with a single task listing that is shared by every handler of that job for the current poll cycle.
+ * Polling cost therefore grows with the number of jobs instead of the number of tasks.
+ *
+ * When created with refresh threads, the listings run in the background: a status lookup only reads the
+ * in-memory snapshot and requests a refresh when the snapshot is getting old, so the task monitor thread
+ * never waits for the Fovus backend. A lookup returns {@code null} while no recent enough snapshot is available.
+ */
+@Slf4j
+@CompileStatic
+class FovusTaskStatusCache {
+    private final FovusTaskClient taskClient
+
+    /**
+     * Maximum age of a job snapshot before it is listed again. Kept below the poll interval
+     * so that each poll cycle sees exactly one listing per job.
+     */
+    private final long maxAgeMillis
+
+    private final Map<String, Set<String>> activeTasks = new ConcurrentHashMap<>()
+    private final Map<String, JobTaskSnapshot> snapshots = new ConcurrentHashMap<>()
+    private final Map<String, Object> jobLocks = new ConcurrentHashMap<>()
+
+    /**
+     * Background refresher, or {@code null} when the listings run on the calling thread
+     */
+    private final ExecutorService refresher
+    private final Set<String> refreshing = ConcurrentHashMap.<String> newKeySet()
+
+    // refresher metrics
+    private final AtomicLong refreshCount = new AtomicLong()
+    private final AtomicLong failedRefreshCount = new AtomicLong()
+    private final AtomicLong totalLagMillis = new AtomicLong()
+    private final AtomicLong maxLagMillis = new AtomicLong()
+
+    FovusTaskStatusCache(FovusTaskClient taskClient, long maxAgeMillis) {
+        this(taskClient, maxAgeMillis, 0)
+    }
+
+    /**
+     * @param refreshThreads Number of background threads listing the job tasks, or {@code 0} to list them on the calling thread
+     */
+    FovusTaskStatusCache(FovusTaskClient taskClient, long maxAgeMillis, int refreshThreads) {
+        this.taskClient = taskClient
+        this.maxAgeMillis = maxAgeMillis
+        this.refresher = refreshThreads > 0 ? Executors.newFixedThreadPool(refreshThreads, daemonThreadFactory()) : null
+    }
+
+    /**
+     * Register a submitted task so that its job is part of the status listings.
+     */
+    void register(String jobId, String taskName) {
+        activeTasks.computeIfAbsent(jobId, { String key -> ConcurrentHashMap.<String> newKeySet() }).add(taskName)
+    }
+
+    /**
+     * Remove a completed task. The job snapshot is dropped once no active task is left for it.
+     */
+    void unregister(String jobId, String taskName) {
+        final tasks = activeTasks.get(jobId)
+        if (tasks == null) {
+            return
+        }
+
+        tasks.remove(taskName)
+        if (tasks.isEmpty()) {
+            activeTasks.remove(jobId)
+            snapshots.remove(jobId)
+            jobLocks.remove(jobId)
+        }
+    }
+
+    Set<String> getActiveJobIds() {
+        return Collections.unmodifiableSet(activeTasks.keySet())
+    }
+
+    /**
+     * Get the status of a task from the snapshot of its job, listing the job tasks if the snapshot is stale.
+     *
+     * @return The task status, or {@code null} when the background refresher has no recent snapshot of the job yet
+     */
+    FovusTaskStatus getTaskStatus(String jobId, String taskName) {
+        final snapshot = refresher != null ? getBackgroundSnapshot(jobId) : getSnapshot(jobId)
+        if (snapshot == null) {
+            return null
+        }
+
+        final taskStatus = snapshot.statuses.get(taskName)
+        if (taskStatus != null) {
+            return taskStatus
+        }
+
+        // If status not found immediately after submission then consider as CREATED
+        if (FovusUtil.isRecentlySubmitted(jobId)) {
+            log.trace "[FOVUS] Use CREATED for recently submitted task. Job Id: ${jobId}, task name: ${taskName}"
+            return FovusTaskStatus.CREATED
+        }
+
+        throw new FovusTaskNotFoundException("Status not found for task ${taskName} of job ${jobId}")
+    }
+
+    /**
+     * Check whether the statuses of a job can be read without waiting. With the background refresher,
+     * a refresh is requested when the job has no recent enough snapshot.
+     */
+    boolean isReady(String jobId) {
+        return refresher == null || getBackgroundSnapshot(jobId) != null
+    }
+
+    /**
+     * Request a background listing of the job tasks, unless one is already in progress
+     */
+    void requestRefresh(String jobId) {
+        if (!refreshing.add(jobId)) {
+            return
+        }
+
+        final requestedAt = System.currentTimeMillis()
+        refresher.execute {
+            try {
+                final snapshot = new JobTaskSnapshot(taskClient.listTaskStatuses(jobId), System.currentTimeMillis())
+                if (activeTasks.containsKey(jobId)) {
+                    snapshots.put(jobId, snapshot)
+                }
+
+                final lag = snapshot.fetchedAt - requestedAt
+                refreshCount.incrementAndGet()
+                totalLagMillis.addAndGet(lag)
+                maxLagMillis.accumulateAndGet(lag, { long a, long b -> Math.max(a, b) })
+                if (lag > maxAgeMillis * 4) {
+                    log.debug "[FOVUS] Task status refresh of job ${jobId} lagged ${lag}ms"
+                }
+            } catch (Exception e) {
+                failedRefreshCount.incrementAndGet()
+                log.debug "[FOVUS] Failed to refresh task statuses of job ${jobId}: ${e.message}"
+            } finally {
+                refreshing.remove(jobId)
+            }
+        }
+    }
+
+    /**
+     * Stop the background refresher
+     */
+    void close() {
+        refresher?.shutdownNow()
+    }
+
+    /**
+     * Metrics of the background refresher. The lag is the time between a refresh request and its new snapshot.
+     */
+    Map<String, Object> getMetrics() {
+        final refreshes = refreshCount.get()
+        final now = System.currentTimeMillis()
+        final oldestSnapshotAge = snapshots.values().collect { JobTaskSnapshot snapshot -> now - snapshot.fetchedAt }.max() ?: 0L
+        return [
+                activeJobs              : activeTasks.size(),
+                refreshesInFlight       : refreshing.size(),
+                refreshes               : refreshes,
+                failedRefreshes         : failedRefreshCount.get(),
+                averageLagMillis        : refreshes > 0 ? totalLagMillis.get().intdiv(refreshes) : 0L,
+                maxLagMillis            : maxLagMillis.get(),
+                oldestSnapshotAgeMillis : oldestSnapshotAge,
+        ] as Map<String, Object>
+    }
+
+    /**
+     * Read the snapshot of a job without blocking. A snapshot older than the max age is still served,
+     * while being refreshed, until it is four times the max age old.
+     */
+    private JobTaskSnapshot getBackgroundSnapshot(String jobId) {
+        final current = snapshots.get(jobId)
+        if (current != null && !current.isExpired(maxAgeMillis)) {
+            return current
+        }
+
+        requestRefresh(jobId)
+        return current != null && !current.isExpired(maxAgeMillis * 4) ? current : null
+    }
+
+    private JobTaskSnapshot getSnapshot(String jobId) {
+        final current = snapshots.get(jobId)
+        if (current != null && !current.isExpired(maxAgeMillis)) {
+            return current
+        }
+
+        synchronized (jobLocks.computeIfAbsent(jobId, { String key -> new Object() })) {
+            // Another handler of the same job may have refreshed the snapshot while waiting for the lock
+            final latest = snapshots.get(jobId)
+            if (latest != null && !latest.isExpired(maxAgeMillis)) {
+                return latest
+            }
+
+            log.trace "[FOVUS] Listing task statuses for job ${jobId}"
+            final JobTaskSnapshot snapshot
+            try {
+                snapshot = new JobTaskSnapshot(taskClient.listTaskStatuses(jobId), System.currentTimeMillis())
+            } catch (FovusCliUnavailableException e) {
+                // Keep serving the last known statuses while the backend is unavailable
+                if (latest != null) {
+                    log.trace "[FOVUS] Using stale task statuses for job ${jobId}: ${e.message}"
+                    return latest
+                }
+                throw e
+            }
+            if (activeTasks.containsKey(jobId)) {
+                snapshots.put(jobId, snapshot)
+            }
+            return snapshot
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory() {
+        final counter = new AtomicInteger()
+        return { Runnable runnable ->
+            final thread = new Thread(runnable, "fovus-status-refresh-${counter.incrementAndGet()}".toString())
+            thread.setDaemon(true)
+            return thread
+        } as ThreadFactory
+    }
+
+    @CompileStatic
+    private static class JobTaskSnapshot {
+        final Map<String, FovusTaskStatus> statuses
+        final long fetchedAt
+
+        JobTaskSnapshot(Map<String, FovusTaskStatus> statuses, long fetchedAt) {
+            this.statuses = statuses
+            this.fetchedAt = fetchedAt
+        }
+
+        boolean isExpired(long maxAgeMillis) {
+            return System.currentTimeMillis() - fetchedAt >= maxAgeMillis
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package fovus.plugin.transport
+
+import fovus.plugin.CliOutputParser
+import fovus.plugin.FovusConfig
+import fovus.plugin.FovusUtil
+import fovus.plugin.cli.FovusCliPriority
+import fovus.plugin.nio.FovusFileMetadata
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+/**
+ * {@link FovusTransport} backed by the Fovus CLI
+ */
+@CompileStatic
+@Slf4j
+class FovusCliTransport implements FovusTransport {
+    private final FovusConfig config
+
+    FovusCliTransport(FovusConfig config) {
+        this.config = config
+    }
+
+    @Override
+    CreateJobResponse createJob(CreateJobRequest request) {
+        def command = [config.getCliPath(), '--silence', '--nextflow', 'job', 'create', request.jobConfigFilePath, request.jobDirectory]
+
+        if (request.pipelineId) {
+            command << "--pipeline-id"
+            command << request.pipelineId
+        }
+
+        if (request.jobName) {
+            command << "--job-name"
+            command << request.jobName
+        }
+
+        if (request.includePaths.size() > 0) {
+            command << "--include-paths"
+            command << request.includePaths.join(",")
+        }
+
+        if (request.projectName != null && request.projectName != "") {
+            command << "--project-name"
+            command << request.projectName
+        }
+
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.SUBMIT)
+
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to create Fovus job: ${result.error}")
+        }
+
+        // Get the Job ID (the last line of the output)
+        return new CreateJobResponse(jobId: result.output.trim().split('\n')[-1])
+    }
+
+    @Override
+    CreateJobsResponse createJobs(CreateJobsRequest request) {
+        // Write the manifest next to the job configs it references
+        final manifestDir = new File(request.jobs[0].jobConfigFilePath).getAbsoluteFile().getParentFile()
+        final manifestFile = File.createTempFile("batch_", ".json", manifestDir)
+        try {
+            manifestFile.text = JsonOutput.toJson(request.jobs.collect { CreateJobRequest job ->
+                [
+                        jobConfigFilePath: job.jobConfigFilePath,
+                        jobDirectory     : job.jobDirectory,
+                        pipelineId       : job.pipelineId,
+                        includePaths     : job.includePaths,
+                        jobName          : job.jobName,
+                        isArrayJob       : job.arrayJob,
+                        projectName      : job.projectName,
+                ]
+            })
+
+            def command = [config.getCliPath(), '--silence', '--nextflow', 'job', 'create-batch', manifestFile.getPath()]
+            def result = FovusUtil.executeCommand(command, FovusCliPriority.SUBMIT)
+
+            if (result.exitCode != 0) {
+                if (result.error?.contains('No such command')) {
+                    throw new UnsupportedOperationException("The Fovus CLI does not support job create-batch")
+                }
+                throw new RuntimeException("Failed to create Fovus jobs: ${result.error}")
+            }
+
+            // The job IDs are printed as a JSON array, in the order of the manifest
+            def matcher = (result.output =~ /(?s)\[.*]/)
+            if (!matcher.find()) {
+                throw new RuntimeException("No job IDs found in the output of the job batch creation")
+            }
+
+            final jobIds = (new JsonSlurper().parseText(matcher.group(0)) as List).collect { it as String }
+            return new CreateJobsResponse(jobIds: jobIds)
+        } finally {
+            manifestFile.delete()
+        }
+    }
+
+    @Override
+    JobStatusResponse getJobStatus(JobStatusRequest request) {
+        def command = [config.getCliPath(), 'job', 'status', '--job-id', request.jobId]
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.STATUS)
+
+        return new JobStatusResponse(jobId: request.jobId, status: result.output.trim().split('\n')[-1])
+    }
+
+    @Override
+    void terminateJob(TerminateJobRequest request) {
+        def command = [config.getCliPath(), 'job', 'terminate', '--job-id', request.jobId]
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.TERMINATE)
+
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to terminate Fovus job: ${result.error}")
+        }
+    }
+
+    @Override
+    DefaultJobConfigResponse getDefaultJobConfig(DefaultJobConfigRequest request) {
+        def command = [config.getCliPath(), 'job', 'get-default-config', '--benchmarking-profile-name', request.benchmarkingProfileName]
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.DEFAULT)
+
+        log.trace "[FOVUS] getDefaultJobConfig with exit code: ${result.exitCode}"
+        if (result.exitCode != 0) {
+            log.trace "[FOVUS] Command error: ${result.error}"
+            return new DefaultJobConfigResponse(jobConfigJson: null)
+        }
+
+        return new DefaultJobConfigResponse(jobConfigJson: result.output)
+    }
+
+    @Override
+    ListTasksResponse listTasks(ListTasksRequest request) {
+        def command = [config.getCliPath(), 'task', 'list', '--job-id', request.jobId]
+
+        if (request.taskNames) {
+            command << '--task-names'
+            command << request.taskNames.join(',')
+        }
+
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.STATUS)
+
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to list Fovus tasks of job ${request.jobId}: ${result.error}")
+        }
+
+        // Extract the JSON part from the output: a '[' followed by anything, ending with a ']'
+        def matcher = (result.output =~ /(?s)\[.*]/)
+        if (!matcher.find()) {
+            throw new RuntimeException("No JSON found in task list output of job ${request.jobId}")
+        }
+
+        return ListTasksResponse.fromJson((List<Map<String, Object>>) new JsonSlurper().parseText(matcher.group(0)))
+    }
+
+    /**
+     * The CLI has no paged listing, all the objects are returned in a single page
+     */
+    @Override
+    ListObjectsResponse listObjects(ListObjectsRequest request) {
+        def command = [config.getCliPath(), '--silence', 'job', 'list-objects']
+
+        if (request.fileType == "jobs") {
+            def parts = request.path.tokenize('/')
+            if (parts.isEmpty()) {
+                throw new RuntimeException("Invalid Fovus path: ${request.path}")
+            }
+            final jobId = parts[0]
+            final jobRelativePath = parts.size() > 1 ? parts[1..-1].join('/') : ""
+            command << jobRelativePath
+            command << '--job-id'
+            command << jobId.toString()
+        } else {
+            command << request.path
+        }
+
+        // The listing follows two header lines
+        final CliOutputParser parser = { InputStream output -> FovusObjectListingParser.parse(output, 2) } as CliOutputParser
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.LISTING, parser)
+
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to list objects: ${result.error}")
+        }
+
+        if (result.parseError != null) {
+            // Never answer with an empty listing, the objects of the path would be reported missing
+            throw new RuntimeException("Failed to list objects: ${result.parseError}")
+        }
+        if (result.parsedOutput == null) {
+            log.error "[FOVUS] Error listing file objects: No objects found for path: ${request.path}"
+            return new ListObjectsResponse(objects: null)
+        }
+        return new ListObjectsResponse(objects: (List<FovusFileMetadata>) result.parsedOutput)
+    }
+
+    @Override
+    void download(DownloadRequest request) {
+        def command
+        if (request.fileType == "jobs") {
+            command = getJobFileDownloadCommand(request.path, request.localPath)
+        } else {
+            command = getStorageFileDownloadCommand(request.path, request.localPath)
+        }
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.DOWNLOAD)
+
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to download file: ${result.error}")
+        }
+    }
+
+    /**
+     * The CLI only downloads whole files
+     */
+    @Override
+    ReadRangeResponse readRange(ReadRangeRequest request) {
+        throw new UnsupportedOperationException("The Fovus CLI does not support ranged reads")
+    }
+
+    @Override
+    boolean supportsRangedReads() {
+        return false
+    }
+
+    private List<String> getJobFileDownloadCommand(String fovusPath, String localPath) {
+        final parts = fovusPath.split("/")
+        final String jobId = parts[0]
+        final includePath = parts.size() > 1 ? parts[1..-1].join('/') : ""
+
+        def command = [config.getCliPath(), '--silence', 'job', 'download', localPath, '--job-id', jobId]
+
+        if (!includePath.isEmpty()) {
+            command << '--include-paths'
+            command << includePath
+        }
+
+        return command
+    }
+
+    private List<String> getStorageFileDownloadCommand(String fovusPath, String localPath) {
+        final parts = fovusPath.split("/")
+        def fovusPathDir
+        def includePath
+        if (fovusPath.endsWith("/")) {
+            fovusPathDir = parts[0..-1].join('/')
+            includePath = "*"
+        } else {
+            fovusPathDir = parts.size() > 1 ? parts[0..-2].join('/') : ""
+            includePath = parts[-1]
+        }
+        return [config.getCliPath(), '--silence', 'storage', 'download', fovusPathDir, localPath, '--include-paths', includePath]
+    }
+
+    @Override
+    PipelineResponse createPipeline(CreatePipelineRequest request) {
+        def command = [config.getCliPath(), '--silence', 'pipeline', 'create', '--name', request.name, '--workflow-host',
+                       request.workflowHost]
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.PIPELINE)
+
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to create Fovus pipeline: ${result.error}")
+        }
+        // Parse the last line of the output. JsonSlurper is often lenient with single quotes.
+        log.debug "[FOVUS] Output: ${result.output.trim().split('\n')[-1]}"
+
+        def dataObject = new JsonSlurper().parseText((result.output.trim().split('\n')[-1]).replaceAll("'", '"')) as Map
+        return new PipelineResponse(name: request.name, pipelineId: dataObject.get("pipelineId") as String)
+    }
+
+    @Override
+    PipelineResponse getPipeline(GetPipelineRequest request) {
+        def command = [config.getCliPath(), '--silence', 'pipeline', 'get', '--pipeline-id', request.pipelineId]
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.PIPELINE)
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to get Fovus pipeline: ${result.error}")
+        }
+
+        final jsonData = new JsonSlurper().parseText(result.output) as Map
+        return new PipelineResponse(
+                name: jsonData["name"] as String,
+                pipelineId: jsonData["pipelineId"] as String,
+                status: jsonData["status"] as String
+        )
+    }
+
+    @Override
+    void updatePipelineStatus(UpdatePipelineStatusRequest request) {
+        def command = [config.getCliPath(), '--silence', 'pipeline', 'update', '--pipeline-id', request.pipelineId, '--status', request.status]
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.PIPELINE)
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to update Fovus pipeline status: ${result.error}")
+        }
+    }
+
+    @Override
+    void preConfigResources(PreConfigResourcesRequest request) {
+        def command = [
+                config.getCliPath(),
+                '--silence',
+                'pipeline',
+                'pre-config-resources',
+                '--pipeline-id', request.pipelineId,
+                '--configurations', request.configurationsJson
+        ]
+
+        def result = FovusUtil.executeCommand(command, FovusCliPriority.PIPELINE)
+
+        if (result.exitCode != 0) {
+            throw new RuntimeException("Failed to configure Fovus pipeline resources: ${result.error}")
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package fovus.plugin.transport
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import fovus.plugin.cli.FovusCliPriority
+import fovus.plugin.cli.FovusCliScheduler
+import groovy.transform.CompileStatic
+import groovy.transform.MapConstructor
+import groovy.util.logging.Slf4j
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.function.Predicate
+
+/**
+ * {@link FovusTransport} calling the Fovus API over HTTP in-process.
+ *
+ * A single {@link HttpClient} is used per transport, so requests share pooled keep-alive connections
+ * instead of paying a CLI process start for each operation. Each operation runs through the
+ * {@link FovusCliScheduler} like a CLI command, with the same priorities, retries and circuit breaker.
+ * Client errors, i.e. HTTP 4xx other than 408 and 429, are not retried.
+ *
+ * Endpoints, relative to {@code fovus.apiUrl}:
+ * <pre>
+ *   POST /jobs                                  create a job
+ *   POST /jobs/batch                            create several jobs
+ *   GET  /jobs/{jobId}/status                   get the job status
+ *   POST /jobs/{jobId}/terminate                terminate a job
+ *   GET  /jobs/default-config                   get the default job config of a benchmarking profile
+ *   GET  /jobs/{jobId}/tasks                    list the tasks of a job
+ *   GET  /storage/objects                       list objects under a path
+ *   POST /storage/download-urls                 get download URLs of the objects under a path
+ *   GET  {download URL}                         read a file, or a byte range of it
+ *   POST /pipelines                             create a pipeline
+ *   GET  /pipelines/{pipelineId}                get a pipeline
+ *   PUT  /pipelines/{pipelineId}/status         update the pipeline status
+ *   POST /pipelines/{pipelineId}/resource-configurations   pre-configure pipeline resources
+ * </pre>
+ */
+@CompileStatic
+@Slf4j
+class FovusHttpTransport implements FovusTransport {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+    /** How long a download URL is reused for the ranged reads of a file */
+    private static final long DOWNLOAD_URL_TTL_MS = 5 * 60 * 1000
+    /** Responses of an API without the requested endpoint */
+    private static final List<Integer> UNSUPPORTED_STATUS_CODES = [404, 405, 501]
+
+    private final String apiUrl
+    private final String apiToken
+    private final HttpClient httpClient
+    private final Map<String, DownloadUrl> downloadUrls = new ConcurrentHashMap<>()
+    /** The scheduler of the operations, or {@code null} to use the shared scheduler */
+    private final FovusCliScheduler scheduler
+
+    FovusHttpTransport(String apiUrl, String apiToken) {
+        this(apiUrl, apiToken, null)
+    }
+
+    FovusHttpTransport(String apiUrl, String apiToken, FovusCliScheduler scheduler) {
+        this.apiUrl = apiUrl.endsWith('/') ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl
+        this.apiToken = apiToken
+        this.scheduler = scheduler
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(30))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build()
+    }
+
+    @Override
+    CreateJobResponse createJob(CreateJobRequest request) {
+        return scheduled(FovusCliPriority.SUBMIT, 'POST /jobs') {
+            final response = send('POST', '/jobs', toJobBody(request), "Failed to create Fovus job") as Map
+            return new CreateJobResponse(jobId: response.get('jobId') as String)
+        } as CreateJobResponse
+    }
+
+    @Override
+    CreateJobsResponse createJobs(CreateJobsRequest request) {
+        final body = [jobs: request.jobs.collect { CreateJobRequest job -> toJobBody(job) }]
+        final Map response = scheduled(FovusCliPriority.SUBMIT, 'POST /jobs/batch') {
+            try {
+                return send('POST', '/jobs/batch', body, "Failed to create Fovus jobs") as Map
+            } catch (HttpStatusException e) {
+                if (e.statusCode in UNSUPPORTED_STATUS_CODES) {
+                    throw new UnsupportedOperationException("The Fovus API does not support bulk job creation: HTTP ${e.statusCode}")
+                }
+                throw e
+            }
+        } as Map
+        return new CreateJobsResponse(jobIds: (response.get('jobIds') as List).collect { it as String })
+    }
+
+    private static Map toJobBody(CreateJobRequest request) {
+        return [
+                jobConfig   : MAPPER.readValue(new File(request.jobConfigFilePath), Map),
+                jobDirectory: request.jobDirectory,
+                pipelineId  : request.pipelineId,
+                includePaths: request.includePaths,
+                jobName     : request.jobName,
+                isArrayJob  : request.arrayJob,
+                projectName : request.projectName,
+        ]
+    }
+
+    @Override
+    JobStatusResponse getJobStatus(JobStatusRequest request) {
+        final path = "/jobs/${encode(request.jobId)}/status".toString()
+        final response = scheduled(FovusCliPriority.STATUS, "GET ${path}") {
+            send('GET', path, null, "Failed to get Fovus job status")
+        } as Map
+        return new JobStatusResponse(jobId: request.jobId, status: response.get('status') as String)
+    }
+
+    @Override
+    void terminateJob(TerminateJobRequest request) {
+        final path = "/jobs/${encode(request.jobId)}/terminate".toString()
+        scheduled(FovusCliPriority.TERMINATE, "POST ${path}") {
+            send('POST', path, null, "Failed to terminate Fovus job")
+        }
+    }
+
+    @Override
+    DefaultJobConfigResponse getDefaultJobConfig(DefaultJobConfigRequest request) {
+        final path = "/jobs/default-config?benchmarkingProfileName=${encode(request.benchmarkingProfileName)}"
+        try {
+            final response = scheduled(FovusCliPriority.DEFAULT, "GET ${path}") {
+                send('GET', path, null, "Failed to get default Fovus job config")
+            }
+            return new DefaultJobConfigResponse(jobConfigJson: MAPPER.writeValueAsString(response))
+        } catch (RuntimeException e) {
+            log.trace "[FOVUS] ${e.message}"
+            return new DefaultJobConfigResponse(jobConfigJson: null)
+        }
+    }
+
+    @Override
+    ListTasksResponse listTasks(ListTasksRequest request) {
+        def path = "/jobs/${encode(request.jobId)}/tasks"
+        if (request.taskNames) {
+            path += "?taskNames=${encode(request.taskNames.join(','))}"
+        }
+        final response = scheduled(FovusCliPriority.STATUS, "GET ${path}") {
+            send('GET', path, null, "Failed to list Fovus tasks of job ${request.jobId}")
+        }
+        return ListTasksResponse.fromJson((List<Map<String, Object>>) response)
+    }
+
+    @Override
+    ListObjectsResponse listObjects(ListObjectsRequest request) {
+        def path = "/storage/objects?fileType=${encode(request.fileType)}&path=${encode(request.path)}"
+        if (request.maxKeys) {
+            path += "&maxKeys=${request.maxKeys}"
+        }
+        if (request.continuationToken) {
+            path += "&continuationToken=${encode(request.continuationToken)}"
+        }
+        final response = scheduled(FovusCliPriority.LISTING, "GET ${path}") {
+            send('GET', path, null, "Failed to list objects")
+        }
+
+        // A paged listing returns the objects with the token of the next page
+        if (response instanceof Map) {
+            final page = (Map) response
+            final objects = ListObjectsResponse.fromJson((List<Map>) page.get('objects'))
+            objects.nextContinuationToken = page.get('nextContinuationToken') as String
+            return objects
+        }
+        return ListObjectsResponse.fromJson((List<Map>) response)
+    }
+
+    @Override
+    void download(DownloadRequest request) {
+        scheduled(FovusCliPriority.DOWNLOAD, "download ${request.fileType}/${request.path}") {
+            downloadFiles(request)
+        }
+    }
+
+    private void downloadFiles(DownloadRequest request) {
+        final body = [fileType: request.fileType, path: request.path]
+        final urls = (List<Map>) send('POST', '/storage/download-urls', body, "Failed to download file")
+
+        // A directory is downloaded with its structure, a file is downloaded into the local directory
+        final isDirectory = request.path.endsWith('/')
+        final localDir = Paths.get(request.localPath)
+        for (Map entry : urls) {
+            final key = entry.get('key') as String
+            final relativePath = isDirectory ? key.substring(request.path.length()) : key.tokenize('/')[-1]
+            if (!relativePath) {
+                continue
+            }
+
+            final target = localDir.resolve(relativePath)
+            Files.createDirectories(target.getParent())
+            downloadUrl(entry.get('url') as String, target)
+        }
+    }
+
+    @Override
+    ReadRangeResponse readRange(ReadRangeRequest request) {
+        return scheduled(FovusCliPriority.DOWNLOAD, "read ${request.fileType}/${request.path}") {
+            readFileRange(request)
+        } as ReadRangeResponse
+    }
+
+    private ReadRangeResponse readFileRange(ReadRangeRequest request) {
+        final url = downloadUrl(request.fileType, request.path)
+        final range = "bytes=${request.offset}-${request.offset + request.length - 1}".toString()
+        final httpRequest = HttpRequest.newBuilder(URI.create(url)).header('Range', range).GET().build()
+        final response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofByteArray())
+
+        if (response.statusCode() == 206) {
+            return new ReadRangeResponse(data: response.body())
+        }
+        if (response.statusCode() == 200) {
+            // The range was ignored, keep the requested part of the whole file
+            final body = response.body()
+            final from = (int) Math.min(request.offset, body.length as long)
+            final to = (int) Math.min(request.offset + request.length, body.length as long)
+            return new ReadRangeResponse(data: Arrays.copyOfRange(body, from, to))
+        }
+        if (response.statusCode() == 416) {
+            return new ReadRangeResponse(data: new byte[0])
+        }
+
+        // The download URL may have expired
+        downloadUrls.remove(downloadUrlKey(request.fileType, request.path))
+        throw new RuntimeException("Failed to read file ${request.path}: HTTP ${response.statusCode()}")
+    }
+
+    @Override
+    boolean supportsRangedReads() {
+        return true
+    }
+
+    /**
+     * The download URL of a file, reused for the ranged reads of the same file
+     */
+    private String downloadUrl(String fileType, String path) {
+        final key = downloadUrlKey(fileType, path)
+        final cached = downloadUrls.get(key)
+        if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+            return cached.url
+        }
+
+        final urls = (List<Map>) send('POST', '/storage/download-urls', [fileType: fileType, path: path], "Failed to read file")
+        if (!urls) {
+            throw new RuntimeException("Failed to read file ${path}: no download URL")
+        }
+        final url = urls[0].get('url') as String
+        downloadUrls.put(key, new DownloadUrl(url: url, expiresAt: System.currentTimeMillis() + DOWNLOAD_URL_TTL_MS))
+        return url
+    }
+
+    private static String downloadUrlKey(String fileType, String path) {
+        return "${fileType}/${path}".toString()
+    }
+
+    @Override
+    PipelineResponse createPipeline(CreatePipelineRequest request) {
+        final body = [name: request.name, workflowHost: request.workflowHost]
+        final response = scheduled(FovusCliPriority.PIPELINE, 'POST /pipelines') {
+            send('POST', '/pipelines', body, "Failed to create Fovus pipeline")
+        }
+        return toPipelineResponse(response as Map)
+    }
+
+    @Override
+    PipelineResponse getPipeline(GetPipelineRequest request) {
+        final path = "/pipelines/${encode(request.pipelineId)}".toString()
+        final response = scheduled(FovusCliPriority.PIPELINE, "GET ${path}") {
+            send('GET', path, null, "Failed to get Fovus pipeline")
+        }
+        return toPipelineResponse(response as Map)
+    }
+
+    @Override
+    void updatePipelineStatus(UpdatePipelineStatusRequest request) {
+        final path = "/pipelines/${encode(request.pipelineId)}/status".toString()
+        scheduled(FovusCliPriority.PIPELINE, "PUT ${path}") {
+            send('PUT', path, [status: request.status], "Failed to update Fovus pipeline status")
+        }
+    }
+
+    @Override
+    void preConfigResources(PreConfigResourcesRequest request) {
+        final configurations = MAPPER.readValue(request.configurationsJson, List)
+        final path = "/pipelines/${encode(request.pipelineId)}/resource-configurations".toString()
+        scheduled(FovusCliPriority.PIPELINE, "POST ${path}") {
+            send('POST', path, configurations, "Failed to configure Fovus pipeline resources")
+        }
+    }
+
+    private static PipelineResponse toPipelineResponse(Map json) {
+        return new PipelineResponse(
+                name: json.get('name') as String,
+                pipelineId: json.get('pipelineId') as String,
+                status: json.get('status') as String
+        )
+    }
+
+    /**
+     * Run an operation through the scheduler. The operations only call {@link #send} directly, never another
+     * scheduled operation, so that they cannot wait for a slot they hold.
+     */
+    private <T> T scheduled(FovusCliPriority priority, String description, Closure<T> action) {
+        final target = scheduler ?: FovusCliScheduler.getInstance()
+        return target.execute(description, priority, action as Callable<T>, { Throwable e -> isDefinitive(e) } as Predicate<Throwable>)
+    }
+
+    /**
+     * Whether a failed operation would fail again, i.e. the API rejected the request itself
+     */
+    static boolean isDefinitive(Throwable e) {
+        if (e instanceof UnsupportedOperationException) {
+            return true
+        }
+        if (e instanceof HttpStatusException) {
+            final status = ((HttpStatusException) e).statusCode
+            return status >= 400 && status < 500 && status != 408 && status != 429
+        }
+        return false
+    }
+
+    /**
+     * Send a JSON request to the Fovus API and return the parsed JSON response body, if any.
+     */
+    private Object send(String method, String path, Object body, String errorMessage) {
+        final builder = HttpRequest.newBuilder(URI.create(apiUrl + path))
+                .timeout(Duration.ofMinutes(5))
+                .header('Accept', 'application/json')
+
+        if (apiToken) {
+            builder.header('Authorization', "Bearer ${apiToken}".toString())
+        }
+
+        if (body != null) {
+            builder.header('Content-Type', 'application/json')
+            builder.method(method, HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(body), StandardCharsets.UTF_8))
+        } else {
+            builder.method(method, HttpRequest.BodyPublishers.noBody())
+        }
+
+        log.debug "[FOVUS] ${method} ${path}"
+        final response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+        log.debug "[FOVUS] ${method} ${path} responded with status: ${response.statusCode()}"
+
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw new HttpStatusException(response.statusCode(), "${errorMessage}: HTTP ${response.statusCode()} ${response.body()}")
+        }
+
+        final responseBody = response.body()
+        return responseBody ? MAPPER.readValue(responseBody, Object) : null
+    }
+
+    private void downloadUrl(String url, Path target) {
+        final request = HttpRequest.newBuilder(URI.create(url)).GET().build()
+        final response = httpClient.send(request, HttpResponse.BodyHandlers.ofFile(target))
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            Files.deleteIfExists(target)
+            throw new RuntimeException("Failed to download file ${target.getFileName()}: HTTP ${response.statusCode()}")
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value ?: '', StandardCharsets.UTF_8)
+    }
+}
+
+@CompileStatic
+@MapConstructor
+class DownloadUrl {
+    String url
+    long expiresAt
+}
+
+/**
+ * A Fovus API call answered with an error status
+ */
+@CompileStatic
+class HttpStatusException extends RuntimeException {
+    final int statusCode
+
+    HttpStatusException(int statusCode, String message) {
+        super(message)
+        this.statusCode = statusCode
+    }
+}
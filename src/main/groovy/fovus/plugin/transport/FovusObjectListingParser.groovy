@@ -0,0 +1,93 @@
+package fovus.plugin.transport
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import fovus.plugin.nio.FovusFileMetadata
+import groovy.transform.CompileStatic
+
+import java.time.OffsetDateTime
+import java.time.format.DateTimeFormatter
+
+/**
+ * Streaming decoder of the object listings, e.g. the output of {@code fovus job list-objects}.
+ *
+ * The objects are read token by token into {@link FovusFileMetadata}, so the listing is never held in memory
+ * as text or as a generic JSON tree.
+ */
+@CompileStatic
+class FovusObjectListingParser {
+    /** Format of the {@code LastModified} field, e.g. {@code 2024-01-02T03:04:05+00:00} */
+    static final DateTimeFormatter LAST_MODIFIED_FORMAT = DateTimeFormatter.ISO_OFFSET_DATE_TIME
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+
+    /**
+     * Parse a listing after skipping the header lines printed before it.
+     *
+     * @param input The listing, left open
+     * @param headerLines The number of lines to skip
+     * @return The listed objects, or {@code null} if the listing is not a JSON array
+     */
+    static List<FovusFileMetadata> parse(InputStream input, int headerLines) throws IOException {
+        final stream = input.markSupported() ? input : new BufferedInputStream(input)
+        skipLines(stream, headerLines)
+
+        final parser = JSON_FACTORY.createParser(stream)
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return null
+            }
+
+            final List<FovusFileMetadata> objects = []
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                objects.add(readObject(parser))
+            }
+            return objects
+        } finally {
+            parser.close()
+        }
+    }
+
+    static Date parseLastModified(String value) {
+        return value != null ? Date.from(OffsetDateTime.parse(value, LAST_MODIFIED_FORMAT).toInstant()) : null
+    }
+
+    private static FovusFileMetadata readObject(JsonParser parser) throws IOException {
+        final meta = new FovusFileMetadata()
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final field = parser.currentName()
+            parser.nextToken()
+            switch (field) {
+                case 'Key':
+                    meta.setKey(parser.getValueAsString())
+                    break
+                case 'LastModified':
+                    meta.setLastModified(parseLastModified(parser.getValueAsString()))
+                    break
+                case 'ETag':
+                    meta.setETag(parser.getValueAsString())
+                    break
+                case 'Size':
+                    meta.setSize(parser.getValueAsLong())
+                    break
+                default:
+                    parser.skipChildren()
+            }
+        }
+        return meta
+    }
+
+    private static void skipLines(InputStream stream, int lines) throws IOException {
+        int skipped = 0
+        while (skipped < lines) {
+            final b = stream.read()
+            if (b == -1) {
+                return
+            }
+            if (b == (int) ((char) '\n')) {
+                skipped++
+            }
+        }
+    }
+}
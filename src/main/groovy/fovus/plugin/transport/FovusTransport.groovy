@@ -0,0 +1,54 @@
+package fovus.plugin.transport
+
+/**
+ * Transport used by the Fovus clients to talk to the Fovus backend.
+ *
+ * Implementations are free to use the Fovus CLI ({@link FovusCliTransport}) or
+ * to call the Fovus API directly ({@link FovusHttpTransport}). Failed operations
+ * throw a {@link RuntimeException} describing the error.
+ */
+interface FovusTransport {
+
+    CreateJobResponse createJob(CreateJobRequest request)
+
+    /**
+     * Create several jobs at once from a multi-job manifest
+     */
+    CreateJobsResponse createJobs(CreateJobsRequest request)
+
+    JobStatusResponse getJobStatus(JobStatusRequest request)
+
+    void terminateJob(TerminateJobRequest request)
+
+    DefaultJobConfigResponse getDefaultJobConfig(DefaultJobConfigRequest request)
+
+    ListTasksResponse listTasks(ListTasksRequest request)
+
+    /**
+     * List the objects under a path, one page at a time. A transport that cannot page the listing
+     * returns all the objects in a single page.
+     */
+    ListObjectsResponse listObjects(ListObjectsRequest request)
+
+    void download(DownloadRequest request)
+
+    /**
+     * Read a byte range of a file.
+     *
+     * @throws UnsupportedOperationException if the transport can only download whole files
+     */
+    ReadRangeResponse readRange(ReadRangeRequest request)
+
+    /**
+     * Whether {@link #readRange} is supported
+     */
+    boolean supportsRangedReads()
+
+    PipelineResponse createPipeline(CreatePipelineRequest request)
+
+    PipelineResponse getPipeline(GetPipelineRequest request)
+
+    void updatePipelineStatus(UpdatePipelineStatusRequest request)
+
+    void preConfigResources(PreConfigResourcesRequest request)
+}
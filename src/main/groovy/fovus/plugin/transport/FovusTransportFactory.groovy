@@ -0,0 +1,42 @@
+package fovus.plugin.transport
+
+import fovus.plugin.FovusConfig
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Creates the {@link FovusTransport} selected by {@code fovus.transport}.
+ *
+ * Transports are shared by all the clients with the same settings, so the HTTP
+ * transport keeps reusing the same pooled connections.
+ */
+@Slf4j
+@CompileStatic
+class FovusTransportFactory {
+    static final String CLI = 'cli'
+    static final String HTTP = 'http'
+
+    private static final Map<String, FovusTransport> transports = new ConcurrentHashMap<>()
+
+    static FovusTransport get(FovusConfig config) {
+        final transport = config.getTransport()
+        if (transport == HTTP) {
+            if (!config.getApiUrl()) {
+                throw new IllegalArgumentException("[FOVUS] fovus.apiUrl is required when using the http transport")
+            }
+            return transports.computeIfAbsent("${HTTP}:${config.getApiUrl()}".toString(), { String key ->
+                log.debug "[FOVUS] Using HTTP transport: ${config.getApiUrl()}"
+                new FovusHttpTransport(config.getApiUrl(), config.getApiToken()) as FovusTransport
+            })
+        }
+
+        if (transport != CLI) {
+            throw new IllegalArgumentException("[FOVUS] Unknown transport: ${transport}. Supported values are: ${CLI}, ${HTTP}")
+        }
+        return transports.computeIfAbsent("${CLI}:${config.getCliPath()}".toString(), { String key ->
+            new FovusCliTransport(config) as FovusTransport
+        })
+    }
+}
@@ -0,0 +1,228 @@
+package fovus.plugin.transport
+
+import fovus.plugin.nio.FovusFileMetadata
+import groovy.transform.Canonical
+import groovy.transform.CompileStatic
+import groovy.transform.MapConstructor
+
+
+/*
+ * Typed requests and responses exchanged with a {@link FovusTransport}
+ */
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class CreateJobRequest {
+    String jobConfigFilePath
+    String jobDirectory
+    String pipelineId
+    List<String> includePaths = []
+    String jobName
+    boolean arrayJob
+    String projectName
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class CreateJobResponse {
+    String jobId
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class CreateJobsRequest {
+    List<CreateJobRequest> jobs = []
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class CreateJobsResponse {
+    /** The ids of the created jobs, in the order of the requested jobs */
+    List<String> jobIds = []
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class JobStatusRequest {
+    String jobId
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class JobStatusResponse {
+    String jobId
+    /** The status as reported by Fovus, e.g. {@code Running} */
+    String status
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class TerminateJobRequest {
+    String jobId
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class DefaultJobConfigRequest {
+    String benchmarkingProfileName
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class DefaultJobConfigResponse {
+    /** The default job config JSON, or {@code null} when none is available */
+    String jobConfigJson
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class ListTasksRequest {
+    String jobId
+    /** Names of the tasks to list. All tasks of the job are listed when empty */
+    List<String> taskNames = []
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class TaskInfo {
+    String taskName
+    /** The status as reported by Fovus, e.g. {@code Running} */
+    String status
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class ListTasksResponse {
+    List<TaskInfo> tasks = []
+
+    static ListTasksResponse fromJson(List<Map<String, Object>> json) {
+        return new ListTasksResponse(tasks: json.collect { Map<String, Object> task ->
+            new TaskInfo(taskName: task.get('taskName') as String, status: task.get('status') as String)
+        })
+    }
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class ListObjectsRequest {
+    /** jobs or files */
+    String fileType
+    /** The path to list relative to jobs/ or files/ */
+    String path
+    /** Maximum number of objects in the response, or {@code null} to list all the objects */
+    Integer maxKeys
+    /** The token of the page to list, returned by the previous page */
+    String continuationToken
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class ListObjectsResponse {
+    /** The listed objects, or {@code null} if the CLI printed no listing for the path */
+    List<FovusFileMetadata> objects
+    /** The token of the next page, or {@code null} if this is the last page */
+    String nextContinuationToken
+
+    static ListObjectsResponse fromJson(List<Map> json) {
+        final List<FovusFileMetadata> objects = new ArrayList<>(json.size())
+        for (Map obj : json) {
+            objects.add(new FovusFileMetadata(
+                    obj['Key'] as String,
+                    FovusObjectListingParser.parseLastModified(obj['LastModified'] as String),
+                    obj['ETag'] as String,
+                    (obj['Size'] as Number).longValue(),
+            ))
+        }
+        return new ListObjectsResponse(objects: objects)
+    }
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class DownloadRequest {
+    /** jobs or files */
+    String fileType
+    /**
+     * The path relative to jobs/ or files/. A directory must end with /
+     */
+    String path
+    /** The local directory to download to */
+    String localPath
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class ReadRangeRequest {
+    /** jobs or files */
+    String fileType
+    /** The path of the file relative to jobs/ or files/ */
+    String path
+    /** The offset of the first byte to read */
+    long offset
+    /** The number of bytes to read */
+    int length
+}
+
+@CompileStatic
+@MapConstructor
+class ReadRangeResponse {
+    /** The bytes read, shorter than requested at the end of the file */
+    byte[] data
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class CreatePipelineRequest {
+    String name
+    String workflowHost = 'local'
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class GetPipelineRequest {
+    String pipelineId
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class PipelineResponse {
+    String name
+    String pipelineId
+    String status
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class UpdatePipelineStatusRequest {
+    String pipelineId
+    String status
+}
+
+@CompileStatic
+@Canonical
+@MapConstructor
+class PreConfigResourcesRequest {
+    String pipelineId
+    /** The resource configurations serialized as a JSON array */
+    String configurationsJson
+}
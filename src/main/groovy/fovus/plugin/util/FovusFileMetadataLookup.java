@@ -25,7 +25,9 @@ import org.slf4j.LoggerFactory;
 
 
 import fovus.plugin.job.FovusJobClient;
+import fovus.plugin.nio.FovusFileMetadataCache;
 import fovus.plugin.nio.FovusPath;
+import fovus.plugin.nio.FovusPathIndex;
 import fovus.plugin.nio.FovusFileMetadata;
 
 public class FovusFileMetadataLookup {
@@ -49,39 +51,99 @@ public class FovusFileMetadataLookup {
             return fileMetadata;
         }
 
+        final FovusFileMetadataCache cache = fovusPath.getFileSystem().getMetadataCache();
+        final String fileType = fovusPath.getFileType();
+        fileMetadata = cache.get(fileType, fovusPath.getKey());
+        if (fileMetadata == FovusFileMetadataCache.MISSING) {
+            throw noSuchFile(fovusPath);
+        }
+        if (fileMetadata != null) {
+            return fileMetadata;
+        }
+
+        /*
+         * answer from the listings of the parent directories
+         */
+        final FovusPathIndex pathIndex = fovusPath.getFileSystem().getPathIndex();
+        fileMetadata = pathIndex.lookup(fovusPath.getKey());
+        if (fileMetadata == null && fovusPath.getFileSystem().getAttributePrefetcher().onCacheMiss(fovusPath)) {
+            // enough files of this directory were looked up, it has been listed in the index, or up to one page in the cache
+            fileMetadata = cache.get(fileType, fovusPath.getKey());
+            if (fileMetadata == null || fileMetadata == FovusFileMetadataCache.MISSING) {
+                fileMetadata = pathIndex.lookup(fovusPath.getKey());
+            }
+        }
+        if (fileMetadata == FovusPathIndex.MISSING) {
+            throw noSuchFile(fovusPath);
+        }
+        if (fileMetadata != null) {
+            return fileMetadata;
+        }
+
         final FovusJobClient fovusJobClient = fovusPath.getFileSystem().getJobClient();
         /*
          * when `key` is an empty string retrieve the object meta-data of the fileType/ directory
          */
         if ("".equals(fovusPath.getKey())) {
-            FovusFileMetadata meta = fovusJobClient.getFileObject(fovusPath.getFileType(), "");
+            FovusFileMetadata meta = fovusJobClient.getFileObject(fileType, "");
             if (meta == null)
-                throw new NoSuchFileException("fovus:/" + FovusPath.FOVUS_PATH_PREFIX + "/" + fovusPath.getFileType());
+                throw new NoSuchFileException("fovus:/" + FovusPath.FOVUS_PATH_PREFIX + "/" + fileType);
 
             meta.setKey(fovusPath.getKey());
+            cache.put(fileType, fovusPath.getKey(), meta);
             return meta;
         } else {
-            List<FovusFileMetadata> metaDataList = fovusJobClient.listFileObjects(fovusPath.getFileType(), fovusPath.getKey());
+            List<FovusFileMetadata> metaDataList = fovusJobClient.listFileObjects(fileType, fovusPath.getKey());
             log.trace("metaDataList: {}", metaDataList);
             if (metaDataList == null || metaDataList.isEmpty()) {
+                cache.putMissing(fileType, fovusPath.getKey());
                 throw new NoSuchFileException("fovus://" + fovusPath.getKey());
             }
 
+            FovusFileMetadata result = null;
             for (FovusFileMetadata fovusFileMetadata : metaDataList) {
-                if (matchName(fovusPath, fovusFileMetadata)) {
+                if (result == null && matchName(fovusPath, fovusFileMetadata)) {
                     if (fovusFileMetadata.getKey().endsWith("/")) {
                         fovusFileMetadata.setKey(fovusPath.getKey() + "/");
                     } else {
                         fovusFileMetadata.setKey(fovusPath.getKey());
                     }
-                    return fovusFileMetadata;
+                    result = fovusFileMetadata;
+                } else {
+                    cacheListedObject(cache, fileType, fovusFileMetadata);
                 }
             }
+            if (result != null) {
+                cache.put(fileType, fovusPath.getKey(), result);
+                return result;
+            }
         }
 
         log.trace("Throwing NoSuchFileException");
-        throw new NoSuchFileException("fovus:/" + FovusPath.FOVUS_PATH_PREFIX + "/" + fovusPath.getFileType() + "/" + fovusPath.getKey());
+        cache.putMissing(fileType, fovusPath.getKey());
+        throw noSuchFile(fovusPath);
+
+    }
+
+    /**
+     * The listing of a key also returns the objects below it, e.g. the files of a directory.
+     * Cache the ones that are the exact match of their own path so that their lookup can be skipped.
+     */
+    private void cacheListedObject(FovusFileMetadataCache cache, String fileType, FovusFileMetadata fovusFileMetadata) {
+        final String prefix = fileType + "/";
+        final String foundKey = fovusFileMetadata.getKey();
+        if (foundKey == null || !foundKey.startsWith(prefix) || foundKey.length() == prefix.length()) {
+            return;
+        }
+
+        final String key = foundKey.substring(prefix.length());
+        final String pathKey = key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+        final FovusFileMetadata meta = new FovusFileMetadata(key, fovusFileMetadata.getLastModified(), fovusFileMetadata.getETag(), fovusFileMetadata.getSize());
+        cache.put(fileType, pathKey, meta);
+    }
 
+    private NoSuchFileException noSuchFile(FovusPath fovusPath) {
+        return new NoSuchFileException("fovus:/" + FovusPath.FOVUS_PATH_PREFIX + "/" + fovusPath.getFileType() + "/" + fovusPath.getKey());
     }
 
     private boolean matchName(FovusPath fovusPath, FovusFileMetadata fovusFileMetadata) {
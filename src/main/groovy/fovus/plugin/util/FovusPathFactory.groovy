@@ -16,13 +16,16 @@
 package fovus.plugin.util
 
 import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
 import groovy.util.logging.Slf4j
 import nextflow.Global
+import fovus.plugin.nio.FovusFileSystem
 import fovus.plugin.nio.FovusPath
 import nextflow.file.FileHelper
 import nextflow.file.FileSystemPathFactory
 
 import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Implements the a factory strategy to parse and build Fovus path URIs
@@ -33,6 +36,12 @@ import java.nio.file.Path
 @CompileStatic
 class FovusPathFactory extends FileSystemPathFactory {
 
+    /**
+     * The file system of each file type, so that deserialized paths skip the URI parsing and the file system lookup
+     */
+    @PackageScope
+    static final Map<String, FovusFileSystem> fileSystems = new ConcurrentHashMap<>()
+
     @Override
     protected Path parseUri(String str) {
         if (str.startsWith('fovus://') && str[8] != '/') {
@@ -79,7 +88,30 @@ class FovusPathFactory extends FileSystemPathFactory {
         // note: this URI constructor parse the path parameter and extract the `scheme` and `authority` components
         final uri = new URI(null, null, path, null, null)
 
-        log.debug "ParseURI create: $path"
+        log.trace "ParseURI create: $path"
         return (FovusPath) FileHelper.getOrCreateFileSystemFor(uri, config()).provider().getPath(uri)
     }
+
+    /**
+     * Get the file system of a file type, creating it on first use
+     *
+     * @param fileType The Fovus Storage file type, e.g. {@code files}
+     */
+    static FovusFileSystem fileSystem(String fileType) {
+        final cached = fileSystems.get(fileType)
+        if (cached != null)
+            return cached
+
+        final uri = new URI("fovus:///fovus-storage/${fileType}/")
+        final fileSystem = (FovusFileSystem) FileHelper.getOrCreateFileSystemFor(uri, config())
+        fileSystems.putIfAbsent(fileType, fileSystem)
+        return fileSystem
+    }
+
+    /**
+     * Forget a closed file system, so that the next deserialized paths get the file system replacing it
+     */
+    static void invalidate(String fileType, FovusFileSystem fileSystem) {
+        fileSystems.remove(fileType, fileSystem)
+    }
 }
\ No newline at end of file
@@ -29,6 +29,11 @@ import org.pf4j.Extension
 /**
  * Register the FovusPath serializer.
  *
+ * Paths are written in a compact binary format: a version marker, the file type tag and the key segments.
+ * A segment already written in the same object graph, e.g. the common folders of the inputs of a task,
+ * is written as its index in the dictionary of the graph. Paths written by the previous format, the scheme
+ * and the path strings, are still read.
+ *
  * Adapted from S3PathSerializer
  */
 @Slf4j
@@ -36,6 +41,17 @@ import org.pf4j.Extension
 @CompileStatic
 class FovusPathSerializer extends Serializer<FovusPath> implements SerializerRegistrant {
 
+    /**
+     * The first byte of the compact format. A string written by Kryo never starts with it.
+     */
+    static final byte COMPACT_V1 = 0x01
+
+    static final List<String> FILE_TYPES = [null, 'files', 'jobs'].asImmutable()
+
+    static private final Object WRITE_DICTIONARY = new Object()
+
+    static private final Object READ_DICTIONARY = new Object()
+
     @Override
     void register(Map<Class, Object> serializers) {
         serializers.put(FovusPath, FovusPathSerializer)
@@ -43,20 +59,84 @@ class FovusPathSerializer extends Serializer<FovusPath> implements SerializerReg
 
     @Override
     void write(Kryo kryo, Output output, FovusPath target) {
-        final scheme = target.getFileSystem().provider().getScheme()
-        final path = target.toString()
-        log.trace "FovusPath serialization > scheme: $scheme; path: $path"
-        output.writeString(scheme)
-        output.writeString(path)
+        log.trace "FovusPath serialization > path: $target"
+        final dictionary = writeDictionary(kryo)
+        final segments = target.getParts()
+        output.writeByte(COMPACT_V1)
+        output.writeByte(FILE_TYPES.indexOf(target.getFileType()))
+        output.writeVarInt(segments.size(), true)
+        for (String segment : segments) {
+            final index = dictionary.get(segment)
+            if (index != null) {
+                output.writeVarInt(index + 1, true)
+            } else {
+                output.writeVarInt(0, true)
+                output.writeString(segment)
+                dictionary.put(segment, dictionary.size())
+            }
+        }
     }
 
     @Override
     FovusPath read(Kryo kryo, Input input, Class<FovusPath> type) {
+        final marker = input.readByte()
+        if (marker != COMPACT_V1) {
+            input.setPosition(input.position() - 1)
+            return readLegacy(input)
+        }
+
+        final dictionary = readDictionary(kryo)
+        final tag = input.readByte() as int
+        if (tag < 0 || tag >= FILE_TYPES.size())
+            throw new IllegalStateException("Unexpected file type for Fovus path -- offending value '$tag'")
+        final fileType = FILE_TYPES[tag]
+
+        final count = input.readVarInt(true)
+        final segments = new ArrayList<String>(count)
+        for (int i = 0; i < count; i++) {
+            final index = input.readVarInt(true)
+            if (index == 0) {
+                final segment = input.readString()
+                dictionary.add(segment)
+                segments.add(segment)
+            } else {
+                segments.add(dictionary[index - 1])
+            }
+        }
+        // a relative path is not bound to a file type, any file system resolves it
+        final fileSystem = FovusPathFactory.fileSystem(fileType ?: 'files')
+        final result = FovusPath.of(fileSystem, fileType, segments)
+        log.trace "FovusPath de-serialization > path: $result"
+        return result
+    }
+
+    private static FovusPath readLegacy(Input input) {
         final scheme = input.readString()
         final path = input.readString()
         if (scheme != 'fovus') throw new IllegalStateException("Unexpected scheme for Fovus path -- offending value '$scheme'")
         log.trace "FovusPath de-serialization > scheme: $scheme; path: $path"
+        final fileType = path.startsWith(FovusPath.FOVUS_PATH_PREFIX + '/') ? path.tokenize('/')[1] : null
+        if (fileType != null && fileType in FILE_TYPES)
+            return new FovusPath(FovusPathFactory.fileSystem(fileType), path)
         return (FovusPath) FovusPathFactory.create("fovus://${path}")
     }
 
-}
\ No newline at end of file
+    private static Map<String, Integer> writeDictionary(Kryo kryo) {
+        def dictionary = kryo.getGraphContext().get(WRITE_DICTIONARY) as Map<String, Integer>
+        if (dictionary == null) {
+            dictionary = new HashMap<String, Integer>()
+            kryo.getGraphContext().put(WRITE_DICTIONARY, dictionary)
+        }
+        return dictionary
+    }
+
+    private static List<String> readDictionary(Kryo kryo) {
+        def dictionary = kryo.getGraphContext().get(READ_DICTIONARY) as List<String>
+        if (dictionary == null) {
+            dictionary = new ArrayList<String>()
+            kryo.getGraphContext().put(READ_DICTIONARY, dictionary)
+        }
+        return dictionary
+    }
+
+}
@@ -0,0 +1,247 @@
+package fovus.plugin
+
+import fovus.plugin.job.FovusJobClient
+import fovus.plugin.job.FovusJobConfig
+import fovus.plugin.job.FovusJobStatus
+import fovus.plugin.task.FovusPollSchedule
+import fovus.plugin.task.FovusTaskClient
+import fovus.plugin.task.FovusTaskStatus
+import fovus.plugin.task.FovusTaskStatusCache
+import nextflow.processor.TaskArrayRun
+import nextflow.processor.TaskConfig
+import nextflow.processor.TaskHandler
+import nextflow.processor.TaskRun
+import nextflow.processor.TaskStatus
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Test the tracking of the children of array jobs, the launcher running them from the array manifest,
+ * and the termination of the jobs created for killed tasks
+ */
+class FovusTaskHandlerTest extends Specification {
+
+    static final String JOB_ID = '1000-job'
+
+    static class FakeTaskClient extends FovusTaskClient {
+        volatile Map<String, FovusTaskStatus> statuses = [:]
+        volatile RuntimeException failure
+
+        FakeTaskClient() {
+            super(new FovusConfig([pipelineName: 'test']))
+        }
+
+        @Override
+        Map<String, FovusTaskStatus> listTaskStatuses(String jobId) {
+            if (failure != null) {
+                throw failure
+            }
+            return new HashMap<>(statuses)
+        }
+    }
+
+    private FakeTaskClient taskClient
+    private FovusExecutor executor
+    private Path root
+
+    def setup() {
+        taskClient = new FakeTaskClient()
+        root = Files.createTempDirectory('handler')
+        final statusCache = new FovusTaskStatusCache(taskClient, 0)
+        executor = Stub(FovusExecutor) {
+            getFovusConfig() >> new FovusConfig([pipelineName: 'test'])
+            newPollSchedule() >> { new FovusPollSchedule(0, 0) }
+            getTaskStatusCache() >> statusCache
+        }
+    }
+
+    def cleanup() {
+        root?.deleteDir()
+    }
+
+    private FovusTaskHandler arrayHandler(List<String> taskNames) {
+        final children = taskNames.collect { String name ->
+            final workDir = Files.createDirectories(root.resolve(name))
+            workDir.resolve(TaskRun.CMD_EXIT).text = '0'
+            new FovusTaskHandler(new TaskRun(workDir: workDir, config: new TaskConfig()), executor, Stub(FovusJobConfig))
+        }
+        final array = new TaskArrayRun(workDir: root, config: new TaskConfig(), children: children as List<TaskHandler>)
+        final handler = new FovusTaskHandler(array, executor)
+        handler.jobClient = Mock(FovusJobClient)
+        handler.onJobCreated(JOB_ID)
+        handler.status = TaskStatus.SUBMITTED
+        return handler
+    }
+
+    private static FovusTaskHandler child(FovusTaskHandler handler, int index) {
+        return (handler.task as TaskArrayRun).children[index] as FovusTaskHandler
+    }
+
+    def 'should complete each child of an array job on its own task status' () {
+        given:
+        def handler = arrayHandler(['111', '222'])
+        taskClient.statuses = ['111': FovusTaskStatus.COMPLETED, '222': FovusTaskStatus.RUNNING]
+
+        expect:
+        handler.checkIfRunning()
+        !handler.checkIfCompleted()
+        child(handler, 0).isCompleted()
+        child(handler, 0).task.error == null
+        child(handler, 1).isRunning()
+
+        when:
+        taskClient.statuses = ['111': FovusTaskStatus.COMPLETED, '222': FovusTaskStatus.FAILED]
+
+        then:
+        handler.checkIfCompleted()
+        child(handler, 1).isCompleted()
+        child(handler, 1).task.error != null
+        handler.task.error != null
+        0 * handler.jobClient.getJobStatus(_)
+    }
+
+    def 'should use the job status when a child is missing from the task listing' () {
+        given:
+        def handler = arrayHandler(['111', '222'])
+        taskClient.statuses = ['111': FovusTaskStatus.RUNNING]
+
+        when:
+        def running = handler.checkIfRunning()
+
+        then:
+        1 * handler.jobClient.getJobStatus(JOB_ID) >> FovusJobStatus.RUNNING
+        running
+        handler.childTrackingUnavailable
+
+        when:
+        taskClient.statuses = ['111': FovusTaskStatus.COMPLETED, '222': FovusTaskStatus.COMPLETED]
+        def completed = handler.checkIfCompleted()
+
+        then:
+        1 * handler.jobClient.getJobStatus(JOB_ID) >> FovusJobStatus.COMPLETED
+        completed
+        handler.task.error == null
+    }
+
+    def 'should skip the poll when the task listing fails' () {
+        given:
+        def handler = arrayHandler(['111', '222'])
+        taskClient.failure = new RuntimeException('listing failed')
+
+        when:
+        def running = handler.checkIfRunning()
+
+        then:
+        !running
+        !handler.childTrackingUnavailable
+        handler.isSubmitted()
+
+        when:
+        taskClient.failure = null
+        taskClient.statuses = ['111': FovusTaskStatus.RUNNING, '222': FovusTaskStatus.RUNNING]
+        running = handler.checkIfRunning()
+
+        then:
+        running
+        handler.isRunning()
+        child(handler, 0).isRunning()
+        0 * handler.jobClient.getJobStatus(_)
+    }
+
+    private FovusTaskHandler taskHandler(String name) {
+        final workDir = Files.createDirectories(root.resolve(name))
+        final handler = new FovusTaskHandler(new TaskRun(workDir: workDir, config: new TaskConfig()), executor, Stub(FovusJobConfig))
+        handler.jobClient = Mock(FovusJobClient)
+        handler.status = TaskStatus.SUBMITTED
+        return handler
+    }
+
+    def 'should terminate a job created in the background after the task is killed' () {
+        given:
+        def handler = taskHandler('111')
+
+        when: 'the task is killed while its job is being created'
+        handler.killTask()
+        handler.onJobCreated(JOB_ID)
+
+        then:
+        1 * handler.jobClient.terminateJob(JOB_ID)
+        handler.jobId == null
+        !handler.checkIfRunning()
+    }
+
+    def 'should remove a killed task from the status listings' () {
+        given:
+        def handler = taskHandler('111')
+        def array = arrayHandler(['222', '333'])
+        handler.onJobCreated('2000-job')
+
+        expect:
+        executor.taskStatusCache.activeJobIds == [JOB_ID, '2000-job'] as Set
+
+        when:
+        handler.killTask()
+        array.killTask()
+
+        then:
+        executor.taskStatusCache.activeJobIds.isEmpty()
+    }
+
+    def 'should not terminate a packed job when one of its tasks is killed' () {
+        given:
+        def handler = taskHandler('111')
+
+        when:
+        handler.killTask()
+        handler.onJobCreated(JOB_ID, false)
+
+        then: 'the killed task is neither submitted nor polled'
+        0 * handler.jobClient.terminateJob(_)
+        handler.jobId == null
+        executor.taskStatusCache.activeJobIds.isEmpty()
+    }
+
+    private static String launch(Path cwd, String command, Map<String, String> env) {
+        final builder = new ProcessBuilder('/bin/bash', '-c', command).directory(cwd.toFile()).redirectErrorStream(true)
+        builder.environment().remove('FOVUS_TASK_ARRAY')
+        builder.environment().putAll(env)
+        final process = builder.start()
+        final output = process.inputStream.text
+        process.waitFor()
+        return output.trim()
+    }
+
+    @Requires({ new File('/bin/bash').canExecute() })
+    def 'should run the child of the task folder and check the array index' () {
+        given:
+        def children = ['ab/111', 'cd/222', 'ef/3x3'].collect { name ->
+            def dir = Files.createDirectories(root.resolve("remote/${name}"))
+            dir.resolve('.command.run').text = "#!/bin/bash\necho ran ${name}\n"
+            dir.resolve('.command.run').toFile().setExecutable(true)
+            dir.resolve('.command.sh').text = ''
+            dir
+        }
+        def manifest = root.resolve(FovusTaskHandler.ARRAY_MANIFEST)
+        manifest.text = children.collect { it.toString() + '\n' }.join('')
+        def command = FovusTaskHandler.arrayLaunchCommand(manifest, 'FOVUS_TASK_ARRAY', 0)
+
+        expect:
+        launch(Files.createDirectories(root.resolve('by-name/111')), command, [:]) == 'ran ab/111'
+        launch(Files.createDirectories(root.resolve('same-index/222')), command, [FOVUS_TASK_ARRAY: '1']) == 'ran cd/222'
+
+        and: 'the task folder wins over an array index listing another child'
+        def mismatch = launch(Files.createDirectories(root.resolve('other-index/111')), command, [FOVUS_TASK_ARRAY: '1'])
+        mismatch.contains('Array index 1 is listed as ' + children[1])
+        mismatch.endsWith('ran ab/111')
+
+        and: 'a task folder missing from the manifest fails'
+        launch(Files.createDirectories(root.resolve('by-index')), command, [FOVUS_TASK_ARRAY: '1']).contains('No work directory for task folder by-index')
+
+        and: 'the task folder is matched exactly, not as a pattern'
+        launch(Files.createDirectories(root.resolve('pattern/3.3')), command, [:]).contains('No work directory for task folder 3.3')
+        launch(Files.createDirectories(root.resolve('suffix/11')), command, [:]).contains('No work directory for task folder 11')
+    }
+}
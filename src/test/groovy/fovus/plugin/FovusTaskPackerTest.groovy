@@ -0,0 +1,130 @@
+package fovus.plugin
+
+import fovus.plugin.job.Constraints
+import fovus.plugin.job.FovusJobConfig
+import fovus.plugin.job.JobConstraints
+import fovus.plugin.job.Objective
+import fovus.plugin.job.TaskConstraints
+import fovus.plugin.job.Workload
+import fovus.plugin.task.FovusPollSchedule
+import nextflow.processor.TaskConfig
+import nextflow.processor.TaskRun
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Test the selection and the grouping of the tasks of {@link FovusTaskPacker}
+ */
+class FovusTaskPackerTest extends Specification {
+
+    static class RecordingTaskPacker extends FovusTaskPacker {
+        final List<List<String>> packs = [].asSynchronized()
+
+        RecordingTaskPacker(long windowMillis, int maxTasks, int maxvCpu) {
+            super(null, null, windowMillis, maxTasks, 600_000, maxvCpu, 2)
+        }
+
+        @Override
+        void createPackedJob(List<FovusTaskHandler> pack) {
+            packs.add(pack.collect { it.task.workDir.fileName.toString() })
+        }
+    }
+
+    private FovusExecutor executor
+    private Path root
+
+    def setup() {
+        root = Files.createTempDirectory('packer')
+        executor = Stub(FovusExecutor) {
+            getFovusConfig() >> new FovusConfig([pipelineName: 'test'])
+            newPollSchedule() >> { new FovusPollSchedule(0, 0) }
+        }
+    }
+
+    def cleanup() {
+        root?.deleteDir()
+    }
+
+    private static FovusJobConfig jobConfig(String input, int minvCpu) {
+        final jobConfig = new FovusJobConfig()
+        jobConfig.setConstraints(new Constraints(jobConstraints: new JobConstraints(), taskConstraints: new TaskConstraints(minvCpu: minvCpu)))
+        jobConfig.setObjective(new Objective())
+        jobConfig.setWorkload(new Workload(remoteInputsForAllTasks: [input]))
+        return jobConfig
+    }
+
+    private FovusTaskHandler handler(String name, Map config, FovusJobConfig jobConfig) {
+        final workDir = Files.createDirectories(root.resolve(name))
+        return new FovusTaskHandler(new TaskRun(workDir: workDir, config: new TaskConfig(config)), executor, jobConfig)
+    }
+
+    def 'should only pack the short tasks' () {
+        given:
+        def packer = new RecordingTaskPacker(60_000, 10, 192)
+        def config = jobConfig('input', 1)
+
+        expect:
+        packer.isPackable(handler('short', [time: '5m'], config))
+        !packer.isPackable(handler('long', [time: '2h'], config))
+        !packer.isPackable(handler('untimed', [:], config))
+        packer.isPackable(handler('forced', [ext: [packTasks: true]], config))
+        !packer.isPackable(handler('disabled', [time: '5m', ext: [packTasks: false]], config))
+    }
+
+    def 'should share the pack key of the compatible tasks only' () {
+        expect:
+        FovusTaskPacker.packKey(jobConfig('input', 1)) == FovusTaskPacker.packKey(jobConfig('input', 1))
+        FovusTaskPacker.packKey(jobConfig('input', 1)) != FovusTaskPacker.packKey(jobConfig('other', 1))
+        FovusTaskPacker.packKey(jobConfig('input', 1)) != FovusTaskPacker.packKey(jobConfig('input', 2))
+    }
+
+    def 'should group the tasks by pack key' () {
+        given:
+        def packer = new RecordingTaskPacker(60_000, 2, 192)
+        def conditions = new PollingConditions(timeout: 5)
+
+        when:
+        packer.add(handler('a1', [:], jobConfig('a', 1)))
+        packer.add(handler('b1', [:], jobConfig('b', 1)))
+        packer.add(handler('a2', [:], jobConfig('a', 1)))
+        packer.add(handler('b2', [:], jobConfig('b', 1)))
+
+        then:
+        conditions.eventually {
+            assert packer.packs.toSet() == [['a1', 'a2'], ['b1', 'b2']].toSet()
+        }
+    }
+
+    def 'should send a pack before its tasks exceed the vCPU bound' () {
+        given:
+        def packer = new RecordingTaskPacker(60_000, 10, 8)
+        def conditions = new PollingConditions(timeout: 5)
+
+        when:
+        packer.add(handler('t1', [:], jobConfig('a', 4)))
+        packer.add(handler('t2', [:], jobConfig('a', 4)))
+        packer.add(handler('t3', [:], jobConfig('a', 4)))
+
+        then:
+        conditions.eventually {
+            assert packer.packs == [['t1', 't2']]
+        }
+    }
+
+    def 'should send a pack at the end of the window' () {
+        given:
+        def packer = new RecordingTaskPacker(50, 10, 192)
+        def conditions = new PollingConditions(timeout: 5)
+
+        when:
+        packer.add(handler('t1', [:], jobConfig('a', 1)))
+
+        then:
+        conditions.eventually {
+            assert packer.packs == [['t1']]
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package fovus.plugin
+
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Test the permission and parallel preparation helpers of {@link FovusUtil}
+ */
+@Requires({ java.nio.file.FileSystems.default.supportedFileAttributeViews().contains('posix') })
+class FovusUtilTest extends Specification {
+
+    def 'should change the permissions without a process' () {
+        given:
+        def dir = Files.createTempDirectory('work')
+        def script = Files.write(dir.resolve('.command.run'), 'echo'.bytes)
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString('rw-r-----'))
+        def bin = Files.createDirectories(dir.resolve('bin/nested'))
+        def tool = Files.write(bin.resolve('tool.sh'), 'echo'.bytes)
+
+        when:
+        FovusUtil.makeExecutable(script)
+        FovusUtil.setPermissions(dir, FovusUtil.SHARED_DIR_PERMISSIONS)
+        FovusUtil.setPermissionsRecursively(dir.resolve('bin'), FovusUtil.EXECUTABLE_PERMISSIONS)
+
+        then:
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(script)) == 'rwxr-x--x'
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(dir)) == 'rwxrwxrwx'
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(bin)) == 'rwxr-xr-x'
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(tool)) == 'rwxr-xr-x'
+
+        cleanup:
+        dir?.deleteDir()
+    }
+
+    def 'should return once all the items are done' () {
+        given:
+        def done = ConcurrentHashMap.newKeySet()
+
+        when:
+        FovusUtil.forEachInParallel((1..1000).toList()) { Integer item -> sleep 1; done.add(item) }
+
+        then:
+        done.size() == 1000
+    }
+
+    def 'should report a failed item' () {
+        when:
+        FovusUtil.forEachInParallel((1..1000).toList()) { Integer item -> if (item == 500) throw new IllegalStateException('boom') }
+
+        then:
+        def e = thrown(RuntimeException)
+        e.cause instanceof IllegalStateException
+    }
+}
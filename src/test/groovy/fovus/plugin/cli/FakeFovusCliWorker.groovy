@@ -0,0 +1,53 @@
+package fovus.plugin.cli
+
+import com.fasterxml.jackson.databind.ObjectMapper
+
+/**
+ * Scripted stand-in for a Fovus CLI worker process, used to test the worker bridge offline.
+ *
+ * Supported commands:
+ * <ul>
+ *   <li>{@code echo <words>}: succeed and print the words</li>
+ *   <li>{@code pid}: succeed and print the worker process id</li>
+ *   <li>{@code fail <message>}: exit with code 1 and print the message on the error stream</li>
+ *   <li>{@code crash}: terminate the worker without answering</li>
+ *   <li>{@code sleep <millis>}: succeed after the given time</li>
+ * </ul>
+ */
+class FakeFovusCliWorker {
+
+    static void main(String[] argv) {
+        final mapper = new ObjectMapper()
+        final out = new PrintStream(System.out, true, 'UTF-8')
+
+        System.in.newReader('UTF-8').eachLine { String line ->
+            final request = mapper.readValue(line, Map)
+            final args = request.args as List<String>
+            final response = [id: request.id, exitCode: 0, output: '', error: '']
+
+            switch (args[0]) {
+                case 'echo':
+                    response.output = args.drop(1).join(' ')
+                    break
+                case 'pid':
+                    response.output = ProcessHandle.current().pid().toString()
+                    break
+                case 'fail':
+                    response.exitCode = 1
+                    response.error = args.drop(1).join(' ')
+                    break
+                case 'crash':
+                    System.exit(3)
+                    break
+                case 'sleep':
+                    Thread.sleep(args[1] as long)
+                    break
+                default:
+                    response.exitCode = 2
+                    response.error = "Unknown command: ${args[0]}".toString()
+            }
+
+            out.println(mapper.writeValueAsString(response))
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package fovus.plugin.cli
+
+import fovus.plugin.CliExecutionResult
+import spock.lang.Specification
+
+/**
+ * Test the retries and the circuit breaker of {@link FovusCliScheduler}
+ */
+class FovusCliSchedulerTest extends Specification {
+
+    def 'should run a command' () {
+        given:
+        def scheduler = new FovusCliScheduler(2, 3, 10, 50, 5, 60_000)
+
+        when:
+        def result = scheduler.execute(['sh', '-c', 'echo hello'], FovusCliPriority.STATUS)
+
+        then:
+        result.exitCode == 0
+        result.output.trim() == 'hello'
+        scheduler.metrics.executed == 1L
+        scheduler.metrics.retries == 0L
+
+        cleanup:
+        scheduler.close()
+    }
+
+    def 'should retry a failed command' () {
+        given:
+        def scheduler = new FovusCliScheduler(2, 3, 10, 50, 0, 60_000)
+
+        when:
+        def result = scheduler.execute(['sh', '-c', 'exit 3'], FovusCliPriority.DEFAULT)
+
+        then:
+        result.exitCode == 3
+        scheduler.metrics.executed == 3L
+        scheduler.metrics.retries == 2L
+
+        cleanup:
+        scheduler.close()
+    }
+
+    def 'should reject status polls while the circuit is open' () {
+        given:
+        def scheduler = new FovusCliScheduler(2, 1, 10, 50, 2, 60_000)
+
+        when:
+        scheduler.execute(['sh', '-c', 'exit 1'], FovusCliPriority.STATUS)
+        scheduler.execute(['sh', '-c', 'exit 1'], FovusCliPriority.STATUS)
+        scheduler.execute(['sh', '-c', 'echo status'], FovusCliPriority.STATUS)
+
+        then:
+        scheduler.circuitOpen
+        thrown(FovusCliUnavailableException)
+
+        when:
+        def submit = scheduler.execute(['sh', '-c', 'echo submit'], FovusCliPriority.SUBMIT)
+
+        then:
+        submit.exitCode == 0
+        !scheduler.circuitOpen
+        scheduler.metrics.rejectedPolls == 1L
+
+        cleanup:
+        scheduler.close()
+    }
+
+    def 'should let a probe through after the cooldown' () {
+        given:
+        def scheduler = new FovusCliScheduler(2, 1, 10, 50, 1, 100)
+
+        when:
+        scheduler.execute(['sh', '-c', 'exit 1'], FovusCliPriority.STATUS)
+        sleep(200)
+        def probe = scheduler.execute(['sh', '-c', 'echo status'], FovusCliPriority.STATUS)
+
+        then:
+        probe.exitCode == 0
+        !scheduler.circuitOpen
+
+        cleanup:
+        scheduler.close()
+    }
+
+    def 'should not retry a definitive error' () {
+        given:
+        def scheduler = new FovusCliScheduler(2, 3, 10, 50, 1, 60_000)
+
+        when:
+        def usage = scheduler.execute(['sh', '-c', 'exit 2'], FovusCliPriority.STATUS)
+        def missing = scheduler.execute(['sh', '-c', 'echo "Job 123 does not exist" >&2; exit 1'], FovusCliPriority.STATUS)
+
+        then:
+        usage.exitCode == 2
+        missing.exitCode == 1
+        scheduler.metrics.executed == 2L
+        scheduler.metrics.retries == 0L
+        !scheduler.circuitOpen
+
+        cleanup:
+        scheduler.close()
+    }
+
+    def 'should only treat the missing objects named by the CLI as definitive' () {
+        expect:
+        FovusCliScheduler.isDefinitiveFailure(new CliExecutionResult(exitCode: 1, error: error)) == definitive
+
+        where:
+        error                                       | definitive
+        'Job 123 does not exist'                    | true
+        'File data/a.txt not found'                 | true
+        'Task id abc was not found'                 | true
+        'Failed to create job: 404 Not Found'       | false
+        'Connection error: host not found'          | false
+        'Upstream service does not exist right now' | false
+    }
+
+    def 'should report the circuit closed once the cooldown is over' () {
+        given:
+        def scheduler = new FovusCliScheduler(2, 1, 10, 50, 1, 100)
+
+        when:
+        scheduler.execute(['sh', '-c', 'exit 1'], FovusCliPriority.STATUS)
+
+        then:
+        scheduler.metrics.circuitOpen
+
+        when:
+        sleep(200)
+
+        then:
+        !scheduler.metrics.circuitOpen
+
+        cleanup:
+        scheduler.close()
+    }
+
+    def 'should count one failure per command after its last attempt' () {
+        given:
+        def scheduler = new FovusCliScheduler(2, 3, 10, 50, 3, 60_000)
+
+        when:
+        scheduler.execute(['sh', '-c', 'exit 1'], FovusCliPriority.STATUS)
+        scheduler.execute(['sh', '-c', 'exit 1'], FovusCliPriority.STATUS)
+
+        then:
+        scheduler.metrics.executed == 6L
+        !scheduler.circuitOpen
+
+        when:
+        scheduler.execute(['sh', '-c', 'exit 1'], FovusCliPriority.STATUS)
+
+        then:
+        scheduler.circuitOpen
+
+        cleanup:
+        scheduler.close()
+    }
+}
@@ -0,0 +1,132 @@
+package fovus.plugin.cli
+
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * Test the CLI worker bridge against {@link FakeFovusCliWorker}
+ */
+class FovusCliWorkerPoolTest extends Specification {
+
+    private static List<String> fakeWorkerCommand() {
+        final javaBin = "${System.getProperty('java.home')}/bin/java".toString()
+        return [javaBin, '-cp', System.getProperty('java.class.path'), FakeFovusCliWorker.name]
+    }
+
+    def 'should execute commands on a persistent worker' () {
+        given:
+        def pool = new FovusCliWorkerPool('fovus', fakeWorkerCommand(), 1, 60_000)
+
+        when:
+        def first = pool.execute(['fovus', 'pid'])
+        def second = pool.execute(['fovus', 'pid'])
+        def echo = pool.execute(['fovus', 'echo', 'hello', 'world'])
+
+        then:
+        first.exitCode == 0
+        first.output == second.output
+        echo.output == 'hello world'
+
+        cleanup:
+        pool.close()
+    }
+
+    def 'should return the command failure' () {
+        given:
+        def pool = new FovusCliWorkerPool('fovus', fakeWorkerCommand(), 1, 60_000)
+
+        when:
+        def result = pool.execute(['fovus', 'fail', 'bad request'])
+
+        then:
+        result.exitCode == 1
+        result.error == 'bad request'
+
+        cleanup:
+        pool.close()
+    }
+
+    def 'should only accept Fovus CLI commands' () {
+        given:
+        def pool = new FovusCliWorkerPool('fovus', fakeWorkerCommand(), 1, 60_000)
+
+        expect:
+        pool.accepts(['fovus', 'job', 'status'])
+        !pool.accepts(['chmod', '+x', 'file'])
+        !pool.accepts([])
+
+        cleanup:
+        pool.close()
+    }
+
+    def 'should replace a crashed worker' () {
+        given:
+        def pool = new FovusCliWorkerPool('fovus', fakeWorkerCommand(), 1, 60_000)
+        def before = pool.execute(['fovus', 'pid']).output
+
+        when:
+        pool.execute(['fovus', 'crash'])
+
+        then:
+        thrown(IOException)
+
+        when:
+        def after = pool.execute(['fovus', 'pid'])
+
+        then:
+        after.exitCode == 0
+        after.output != before
+
+        cleanup:
+        pool.close()
+    }
+
+    def 'should replace a worker not answering in time' () {
+        given:
+        def pool = new FovusCliWorkerPool('fovus', fakeWorkerCommand(), 1, 500)
+        def before = pool.execute(['fovus', 'pid']).output
+
+        when:
+        pool.execute(['fovus', 'sleep', '60000'])
+
+        then:
+        def e = thrown(IOException)
+        e.message.contains('did not answer')
+
+        when:
+        def after = pool.execute(['fovus', 'pid'])
+
+        then:
+        after.exitCode == 0
+        after.output != before
+
+        cleanup:
+        pool.close()
+    }
+
+    def 'should not start a pool when a worker cannot be started' () {
+        when:
+        new FovusCliWorkerPool('fovus', ['/nonexistent/fovus-cli-worker'], 2, 60_000)
+
+        then:
+        thrown(IOException)
+    }
+
+    def 'should serve concurrent requests from the pool' () {
+        given:
+        def pool = new FovusCliWorkerPool('fovus', fakeWorkerCommand(), 3, 60_000)
+        def threads = Executors.newFixedThreadPool(6)
+
+        when:
+        def futures = (1..12).collect { i -> threads.submit({ pool.execute(['fovus', 'echo', i.toString()]).output } as Callable<String>) }
+
+        then:
+        futures*.get() == (1..12)*.toString()
+
+        cleanup:
+        threads.shutdown()
+        pool.close()
+    }
+}
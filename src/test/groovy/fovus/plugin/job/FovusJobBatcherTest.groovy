@@ -0,0 +1,144 @@
+package fovus.plugin.job
+
+import fovus.plugin.FovusConfig
+import fovus.plugin.transport.CreateJobRequest
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Test the bulk job creation of {@link FovusJobBatcher}
+ */
+class FovusJobBatcherTest extends Specification {
+
+    static class RecordingJobClient extends FovusJobClient {
+        final List<Integer> batchSizes = [].asSynchronized()
+        final List<String> singleJobs = [].asSynchronized()
+        volatile int batchCalls = 0
+        boolean rejectBatches = false
+        boolean failBatches = false
+        long createMillis = 0
+        final AtomicInteger running = new AtomicInteger()
+        final AtomicInteger maxRunning = new AtomicInteger()
+
+        RecordingJobClient() {
+            super(new FovusConfig([pipelineName: 'test']))
+        }
+
+        @Override
+        List<String> createJobs(List<CreateJobRequest> requests) {
+            batchCalls++
+            if (rejectBatches) {
+                throw new UnsupportedOperationException('create-batch is not supported')
+            }
+            if (failBatches) {
+                throw new RuntimeException('Failed to create Fovus jobs: expected 3 job ids, got 2')
+            }
+            batchSizes.add(requests.size())
+            return requests.collect { "id-${it.jobName}".toString() }
+        }
+
+        @Override
+        String createJob(CreateJobRequest request) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), { int a, int b -> Math.max(a, b) })
+            sleep createMillis
+            running.decrementAndGet()
+            singleJobs.add(request.jobName)
+            return "single-${request.jobName}".toString()
+        }
+    }
+
+    def 'should create the jobs of a window in one batch' () {
+        given:
+        def client = new RecordingJobClient()
+        def batcher = new FovusJobBatcher(client, 200, 100, 4)
+
+        when:
+        def futures = (1..5).collect { batcher.submit(new CreateJobRequest(jobName: "job${it}")) }
+        def jobIds = futures.collect { it.get(5, TimeUnit.SECONDS) }
+
+        then:
+        jobIds == ['id-job1', 'id-job2', 'id-job3', 'id-job4', 'id-job5']
+        client.batchSizes == [5]
+        client.singleJobs.isEmpty()
+    }
+
+    def 'should send a batch as soon as it is full' () {
+        given:
+        def client = new RecordingJobClient()
+        def batcher = new FovusJobBatcher(client, 60_000, 2, 4)
+
+        when:
+        def futures = (1..4).collect { batcher.submit(new CreateJobRequest(jobName: "job${it}")) }
+        def jobIds = futures.collect { it.get(5, TimeUnit.SECONDS) }
+
+        then:
+        jobIds == ['id-job1', 'id-job2', 'id-job3', 'id-job4']
+        client.batchSizes == [2, 2]
+    }
+
+    def 'should create the jobs one by one when the batch is rejected' () {
+        given:
+        def client = new RecordingJobClient(rejectBatches: true)
+        def batcher = new FovusJobBatcher(client, 50, 100, 4)
+
+        when:
+        def futures = (1..3).collect { batcher.submit(new CreateJobRequest(jobName: "job${it}")) }
+        def jobIds = futures.collect { it.get(5, TimeUnit.SECONDS) }
+
+        then:
+        jobIds == ['single-job1', 'single-job2', 'single-job3']
+        client.singleJobs.toSorted() == ['job1', 'job2', 'job3']
+    }
+
+    def 'should stop sending batches once they are unsupported' () {
+        given:
+        def client = new RecordingJobClient(rejectBatches: true)
+        def batcher = new FovusJobBatcher(client, 60_000, 2, 4)
+
+        when:
+        (1..2).collect { batcher.submit(new CreateJobRequest(jobName: "job${it}")) }.each { it.get(5, TimeUnit.SECONDS) }
+        (3..4).collect { batcher.submit(new CreateJobRequest(jobName: "job${it}")) }.each { it.get(5, TimeUnit.SECONDS) }
+
+        then:
+        client.batchCalls == 1
+        client.singleJobs.toSorted() == ['job1', 'job2', 'job3', 'job4']
+    }
+
+    def 'should fail the whole batch without creating its jobs again' () {
+        given:
+        def client = new RecordingJobClient(failBatches: true)
+        def batcher = new FovusJobBatcher(client, 50, 100, 4)
+
+        when:
+        def futures = (1..3).collect { batcher.submit(new CreateJobRequest(jobName: "job${it}")) }
+        def errors = futures.collect { future ->
+            try {
+                future.get(5, TimeUnit.SECONDS)
+                return null
+            } catch (ExecutionException e) {
+                return e.cause
+            }
+        }
+
+        then:
+        errors.every { it?.message?.contains('expected 3 job ids') }
+        client.singleJobs.isEmpty()
+    }
+
+    def 'should bound the jobs created concurrently one by one' () {
+        given:
+        def client = new RecordingJobClient(rejectBatches: true, createMillis: 50)
+        def batcher = new FovusJobBatcher(client, 50, 100, 2)
+
+        when:
+        def futures = (1..6).collect { batcher.submit(new CreateJobRequest(jobName: "job${it}")) }
+        futures.each { it.get(5, TimeUnit.SECONDS) }
+
+        then:
+        client.singleJobs.size() == 6
+        client.maxRunning.get() <= 2
+    }
+}
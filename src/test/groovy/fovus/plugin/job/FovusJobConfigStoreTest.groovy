@@ -0,0 +1,76 @@
+package fovus.plugin.job
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.nio.file.attribute.FileTime
+
+/**
+ * Test the content-addressed files of {@link FovusJobConfigStore}
+ */
+class FovusJobConfigStoreTest extends Specification {
+
+    private static FovusJobConfig config(String jobName, String runCommand) {
+        final config = new FovusJobConfig()
+        config.environment = new ContainerizedEnvironment(containerized: new Containerized(imagePath: 'ubuntu'))
+        config.constraints = new Constraints(jobConstraints: new JobConstraints(), taskConstraints: new TaskConstraints(minvCpu: 4))
+        config.objective = new Objective()
+        config.workload = new Workload(runCommand: runCommand)
+        config.jobName = jobName
+        return config
+    }
+
+    def 'should share one file between the same configs' () {
+        given:
+        def dir = Files.createTempDirectory('job_config')
+        def store = new FovusJobConfigStore(dir, 60_000)
+
+        when:
+        def first = store.write(config('process_1', './.command.run'))
+        def second = store.write(config('process_2', './.command.run'))
+        def other = store.write(config('process_1', './other.sh'))
+
+        then:
+        first == second
+        first != other
+        dir.toFile().list().sort() == [Paths.get(first).fileName.toString(), Paths.get(other).fileName.toString()].sort()
+
+        and: 'only the config fields are written'
+        def json = new ObjectMapper().readTree(Paths.get(first).toFile())
+        json.fieldNames().toList() == ['environment', 'constraints', 'objective', 'workload']
+        json.path('environment').path('containerized').path('imagePath').asText() == 'ubuntu'
+        json.path('constraints').path('taskConstraints').path('minvCpu').asInt() == 4
+        json.path('workload').path('runCommand').asText() == './.command.run'
+
+        and: 'the file is read back by the job config parser'
+        def parsed = FovusJobConfigBuilder.fromJsonString(Paths.get(first).text)
+        (parsed.environment as ContainerizedEnvironment).containerized.imagePath == 'ubuntu'
+        parsed.constraints.taskConstraints.minvCpu == 4
+
+        cleanup:
+        store?.close()
+        dir?.deleteDir()
+    }
+
+    def 'should delete the files not used for the retention period' () {
+        given:
+        def dir = Files.createTempDirectory('job_config')
+        def store = new FovusJobConfigStore(dir, 60_000)
+        def old = Files.write(dir.resolve('process_1_123.json'), '{}'.bytes)
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - 120_000))
+        def used = Paths.get(store.write(config('process_1', './.command.run')))
+
+        when:
+        store.sweep()
+
+        then:
+        !Files.exists(old)
+        Files.exists(used)
+
+        cleanup:
+        store?.close()
+        dir?.deleteDir()
+    }
+}
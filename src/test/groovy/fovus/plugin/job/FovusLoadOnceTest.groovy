@@ -0,0 +1,90 @@
+package fovus.plugin.job
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Test the single-flight loading of {@link FovusLoadOnce} and the job config templates
+ */
+class FovusLoadOnceTest extends Specification {
+
+    def 'should load a value once for concurrent callers' () {
+        given:
+        def cache = new ConcurrentHashMap<String, FovusLoadOnce<String>>()
+        def loads = new AtomicInteger()
+        def start = new CountDownLatch(1)
+        def pool = Executors.newFixedThreadPool(16)
+
+        when:
+        def results = (1..100).collect {
+            pool.submit {
+                start.await()
+                FovusLoadOnce.load(cache, 'Default', null, 60_000) {
+                    loads.incrementAndGet()
+                    sleep 50
+                    '{"objective":{}}'
+                }
+            }
+        }
+        start.countDown()
+        def values = results*.get(10, TimeUnit.SECONDS)
+
+        then:
+        loads.get() == 1
+        values.unique() == ['{"objective":{}}']
+
+        cleanup:
+        pool.shutdownNow()
+    }
+
+    def 'should load again a failed, expired or changed value' () {
+        given:
+        def cache = new ConcurrentHashMap<String, FovusLoadOnce<String>>()
+
+        when:
+        FovusLoadOnce.load(cache, 'key', 1, 0) { throw new IllegalStateException('boom') }
+
+        then:
+        thrown(IllegalStateException)
+
+        and: 'the failure is not kept'
+        FovusLoadOnce.load(cache, 'key', 1, 0) { 'first' } == 'first'
+        FovusLoadOnce.load(cache, 'key', 1, 0) { 'second' } == 'first'
+        FovusLoadOnce.load(cache, 'key', 2, 0) { 'third' } == 'third'
+        FovusLoadOnce.load(cache, 'null', 1, 0) { null } == null
+        !cache.containsKey('null')
+    }
+
+    def 'should parse a job config file once per version' () {
+        given:
+        def file = Files.createTempFile('jobConfig', '.json')
+        file.text = '{"objective":{"timeToCostPriorityRatio":"0.3/0.7"},"environment":{"containerized":{"container":"Docker","imagePath":"ubuntu"}}}'
+
+        when:
+        def first = FovusJobConfigBuilder.templateFromJsonFile(file.toString())
+        def second = FovusJobConfigBuilder.templateFromJsonFile(file.toString())
+
+        then:
+        first.is(second)
+        first.objective.timeToCostPriorityRatio == '0.3/0.7'
+        (first.environment as ContainerizedEnvironment).containerized.imagePath == 'ubuntu'
+
+        when:
+        file.text = '{"objective":{"timeToCostPriorityRatio":"0.9/0.1"}}'
+        file.toFile().setLastModified(file.toFile().lastModified() + 2000)
+        def updated = FovusJobConfigBuilder.templateFromJsonFile(file.toString())
+
+        then:
+        !updated.is(first)
+        updated.objective.timeToCostPriorityRatio == '0.9/0.1'
+
+        cleanup:
+        Files.deleteIfExists(file)
+    }
+}
@@ -0,0 +1,119 @@
+package fovus.plugin.nio
+
+import fovus.plugin.FovusConfig
+import fovus.plugin.job.FovusJobClient
+import fovus.plugin.transport.ListObjectsResponse
+import spock.lang.Specification
+
+/**
+ * Test the bulk attribute reads of {@link FovusAttributePrefetcher}
+ */
+class FovusAttributePrefetcherTest extends Specification {
+
+    static class PrefixJobClient extends FovusJobClient {
+        final List<FovusFileMetadata> objects = []
+        final List<String> prefixes = [].asSynchronized()
+        int pageSize = 1000
+
+        PrefixJobClient() {
+            super(new FovusConfig([pipelineName: 'test']))
+        }
+
+        @Override
+        ListObjectsResponse listFileObjectsPage(String fileType, String path, String continuationToken) {
+            prefixes.add(path)
+            final matching = objects.findAll { it.key.startsWith("${fileType}/${path}".toString()) }
+            final page = matching.take(pageSize).collect { new FovusFileMetadata(it.key, it.lastModified, it.getETag(), it.size) }
+            return new ListObjectsResponse(objects: page, nextContinuationToken: matching.size() > pageSize ? 'next' : null)
+        }
+    }
+
+    private static FovusFileMetadata object(String key, long size) {
+        return new FovusFileMetadata(key, new Date(1000), 'etag', size)
+    }
+
+    private static FovusFileSystem fileSystem(PrefixJobClient client, int threshold, int listPageSize = 1000) {
+        def config = new FovusConfig([pipelineName: 'test', attributePrefetchThreshold: threshold, listPageSize: listPageSize])
+        return new FovusFileSystem(null, client, new URI('fovus:///fovus-storage/files/'), config)
+    }
+
+    def 'should list a directory after enough lookups missed it' () {
+        given:
+        def client = new PrefixJobClient()
+        (1..10).each { client.objects << object("files/run42/${it}.fq", it) }
+        client.objects << object('files/run42-other/1.fq', 1)
+        def fs = fileSystem(client, 3)
+        def prefetcher = fs.attributePrefetcher
+        def path = { int i -> new FovusPath(fs, "/fovus-storage/files/run42/${i}.fq") }
+
+        expect:
+        !prefetcher.onCacheMiss(path(1))
+        !prefetcher.onCacheMiss(path(2))
+        prefetcher.onCacheMiss(path(3))
+        client.prefixes == ['run42']
+        fs.pathIndex.lookup('run42/7.fq').size == 7
+        fs.pathIndex.lookup('run42/11.fq').is(FovusPathIndex.MISSING)
+        fs.metadataCache.get('files', 'run42-other/1.fq') == null
+    }
+
+    def 'should only list the first page of a large directory' () {
+        given:
+        def client = new PrefixJobClient(pageSize: 4)
+        (1..10).each { client.objects << object("files/run42/${it}.fq", it) }
+        def fs = fileSystem(client, 2)
+        def prefetcher = fs.attributePrefetcher
+        def path = { int i -> new FovusPath(fs, "/fovus-storage/files/run42/${i}.fq") }
+
+        when:
+        prefetcher.onCacheMiss(path(1))
+        def listed = prefetcher.onCacheMiss(path(2))
+
+        then: 'the listed objects are cached but the directory is not indexed'
+        listed
+        client.prefixes == ['run42']
+        fs.metadataCache.get('files', 'run42/3.fq').size == 3
+        fs.pathIndex.lookup('run42/3.fq') == null
+
+        when: 'the directory is not listed again'
+        (5..10).each { prefetcher.onCacheMiss(path(it)) }
+
+        then:
+        client.prefixes == ['run42']
+    }
+
+    def 'should cap the listing of a transport that does not page' () {
+        given: 'a client returning the whole listing in one page'
+        def client = new PrefixJobClient(pageSize: Integer.MAX_VALUE)
+        (1..10).each { client.objects << object("files/run42/${it}.fq", it) }
+        def fs = fileSystem(client, 2, 4)
+        def prefetcher = fs.attributePrefetcher
+        def path = { int i -> new FovusPath(fs, "/fovus-storage/files/run42/${i}.fq") }
+
+        when:
+        prefetcher.onCacheMiss(path(1))
+        prefetcher.onCacheMiss(path(2))
+
+        then: 'only the first objects are cached and the directory is not indexed'
+        client.prefixes == ['run42']
+        fs.metadataCache.get('files', 'run42/4.fq').size == 4
+        fs.metadataCache.get('files', 'run42/5.fq') == null
+        fs.pathIndex.lookup('run42/3.fq') == null
+        fs.pathIndex.size() == 0
+
+        when: 'the directory is not listed again'
+        (5..10).each { prefetcher.onCacheMiss(path(it)) }
+
+        then:
+        client.prefixes == ['run42']
+    }
+
+    def 'should not prefetch when disabled' () {
+        given:
+        def client = new PrefixJobClient()
+        def fs = fileSystem(client, 0)
+
+        expect:
+        !fs.attributePrefetcher.onCacheMiss(new FovusPath(fs, '/fovus-storage/files/run42/1.fq'))
+        client.prefixes.isEmpty()
+    }
+}
@@ -0,0 +1,158 @@
+package fovus.plugin.nio
+
+import fovus.plugin.FovusConfig
+import fovus.plugin.job.FovusJobClient
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.security.MessageDigest
+
+/**
+ * Test the parallel downloads of {@link FovusDownloadEngine}
+ */
+class FovusDownloadEngineTest extends Specification {
+
+    static class StorageJobClient extends FovusJobClient {
+        final Map<String, byte[]> files
+        final boolean ranged
+        final List<String> ranges = [].asSynchronized()
+        final List<String> downloads = [].asSynchronized()
+
+        StorageJobClient(Map<String, byte[]> files, boolean ranged) {
+            super(new FovusConfig([pipelineName: 'test']))
+            this.files = files
+            this.ranged = ranged
+        }
+
+        @Override
+        List<FovusFileMetadata> listFileObjects(String fileType, String path) {
+            return files.findAll { it.key.startsWith(path) }.collect { String key, byte[] data ->
+                new FovusFileMetadata("${fileType}/${key}".toString(), new Date(), "\"${md5(data)}\"".toString(), data.length)
+            }
+        }
+
+        @Override
+        byte[] readFileRange(String fileType, String path, long offset, int length) {
+            if (!ranged) {
+                throw new UnsupportedOperationException('ranged reads not supported')
+            }
+            ranges.add("${path}@${offset}".toString())
+            final data = files[path]
+            return Arrays.copyOfRange(data, (int) offset, (int) Math.min(data.length, offset + length))
+        }
+
+        @Override
+        boolean supportsRangedReads() {
+            return ranged
+        }
+
+        @Override
+        void downloadFile(String fovusPath, String localPath, String fileType) {
+            downloads.add(fovusPath)
+            if (!fovusPath.endsWith('/')) {
+                Files.write(Paths.get(localPath).resolve(fovusPath.tokenize('/')[-1]), files[fovusPath])
+                return
+            }
+            // A directory is downloaded with its structure into the local path
+            files.findAll { it.key.startsWith(fovusPath) }.each { String key, byte[] data ->
+                final file = Paths.get(localPath).resolve(key.substring(fovusPath.length()))
+                Files.createDirectories(file.parent)
+                Files.write(file, data)
+            }
+        }
+    }
+
+    static String md5(byte[] data) {
+        return MessageDigest.getInstance('MD5').digest(data).encodeHex().toString()
+    }
+
+    private static byte[] content(int size, int seed) {
+        final bytes = new byte[size]
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) ((i * seed) % 251)
+        }
+        return bytes
+    }
+
+    private static FovusPath path(FovusJobClient client, String key) {
+        def fs = new FovusFileSystem(null, client, new URI('fovus:///fovus-storage/files/'))
+        return new FovusPath(fs, "/fovus-storage/files/${key}")
+    }
+
+    def 'should download a file in chunks' () {
+        given:
+        def data = content(1000, 7)
+        def client = new StorageJobClient(['data/big.bin': data], true)
+        def engine = new FovusDownloadEngine(4, 300)
+        def target = Files.createTempDirectory('download').resolve('big.bin')
+
+        when:
+        engine.downloadFile(path(client, 'data/big.bin'), new FovusFileMetadata('data/big.bin', null, md5(data), data.length), target)
+
+        then:
+        Files.readAllBytes(target) == data
+        client.ranges.toSorted() == ['data/big.bin@0', 'data/big.bin@300', 'data/big.bin@600', 'data/big.bin@900']
+        !Files.exists(target.resolveSibling('big.bin.fovus-part'))
+    }
+
+    def 'should reject a file not matching its ETag' () {
+        given:
+        def data = content(100, 3)
+        def client = new StorageJobClient(['data/a.txt': data], true)
+        def engine = new FovusDownloadEngine(2, 64)
+        def target = Files.createTempDirectory('download').resolve('a.txt')
+
+        when:
+        engine.downloadFile(path(client, 'data/a.txt'), new FovusFileMetadata('data/a.txt', null, md5(new byte[1]), data.length), target)
+
+        then:
+        def e = thrown(IOException)
+        e.message.contains('MD5')
+        !Files.exists(target)
+    }
+
+    def 'should download a directory in one transfer without ranged reads' () {
+        given:
+        def files = [
+                'data/a.txt'      : content(10, 1),
+                'data/sub/b.txt'  : content(20, 2),
+                'data/sub/c/d.txt': content(0, 3),
+                'database.txt'    : content(5, 4),
+        ]
+        def client = new StorageJobClient(files, false)
+        def engine = new FovusDownloadEngine(4, 8)
+        def target = Files.createTempDirectory('download').resolve('data')
+
+        when:
+        engine.downloadDirectory(path(client, 'data'), target)
+
+        then:
+        Files.readAllBytes(target.resolve('a.txt')) == files['data/a.txt']
+        Files.readAllBytes(target.resolve('sub/b.txt')) == files['data/sub/b.txt']
+        Files.size(target.resolve('sub/c/d.txt')) == 0
+        !Files.exists(target.resolveSibling('database.txt'))
+        client.downloads == ['data/']
+    }
+
+    def 'should download a whole file without replacing its siblings' () {
+        given:
+        def data = content(10, 1)
+        def client = new StorageJobClient(['data/a.txt': data], false)
+        def engine = new FovusDownloadEngine(2, 8)
+        def dir = Files.createTempDirectory('download')
+        def sibling = dir.resolve('a.txt')
+        Files.write(sibling, 'sibling'.bytes)
+        def target = dir.resolve('renamed.txt')
+
+        when:
+        engine.downloadFile(path(client, 'data/a.txt'), new FovusFileMetadata('data/a.txt', null, md5(data), data.length), target)
+
+        then:
+        Files.readAllBytes(target) == data
+        new String(Files.readAllBytes(sibling)) == 'sibling'
+        client.downloads == ['data/a.txt']
+        Files.list(dir).count() == 2
+    }
+}
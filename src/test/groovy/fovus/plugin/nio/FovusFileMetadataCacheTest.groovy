@@ -0,0 +1,72 @@
+package fovus.plugin.nio
+
+import spock.lang.Specification
+
+/**
+ * Test the metadata cache of {@link FovusFileMetadataCache}
+ */
+class FovusFileMetadataCacheTest extends Specification {
+
+    def 'should cache the metadata of a key' () {
+        given:
+        def cache = new FovusFileMetadataCache(60_000, 5_000, 100)
+        def meta = new FovusFileMetadata('folder1/input.txt', new Date(1000), 'abc', 10)
+
+        expect:
+        cache.get('files', 'folder1/input.txt') == null
+        cache.misses == 1
+
+        when:
+        cache.put('files', 'folder1/input.txt', meta)
+        def cached = cache.get('files', 'folder1/input.txt')
+
+        then:
+        cached == meta
+        !cached.is(meta)
+        cache.hits == 1
+        cache.get('jobs', 'folder1/input.txt') == null
+    }
+
+    def 'should remember the missing keys for a shorter time' () {
+        given:
+        def cache = new FovusFileMetadataCache(60_000, 100, 100)
+
+        when:
+        cache.putMissing('files', 'missing.txt')
+
+        then:
+        cache.get('files', 'missing.txt').is(FovusFileMetadataCache.MISSING)
+        cache.negativeHits == 1
+
+        when:
+        sleep 150
+
+        then:
+        cache.get('files', 'missing.txt') == null
+    }
+
+    def 'should keep the known metadata over an implicit folder' () {
+        given:
+        def cache = new FovusFileMetadataCache(60_000, 5_000, 100)
+        cache.put('files', 'folder1', new FovusFileMetadata('folder1/', new Date(1000), 'abc', 0))
+
+        when:
+        cache.putIfAbsent('files', 'folder1', new FovusFileMetadata('folder1/', null, null, 0))
+
+        then:
+        cache.get('files', 'folder1').ETag == 'abc'
+    }
+
+    def 'should not cache when disabled' () {
+        given:
+        def cache = new FovusFileMetadataCache(0, 0, 0)
+
+        when:
+        cache.put('files', 'input.txt', new FovusFileMetadata('input.txt', null, null, 1))
+        cache.putMissing('files', 'missing.txt')
+
+        then:
+        cache.get('files', 'input.txt') == null
+        cache.get('files', 'missing.txt') == null
+    }
+}
@@ -0,0 +1,153 @@
+package fovus.plugin.nio
+
+import fovus.plugin.FovusConfig
+import fovus.plugin.transport.ListObjectsResponse
+import spock.lang.Specification
+
+/**
+ * Test the listing index of {@link FovusPathIndex}
+ */
+class FovusPathIndexTest extends Specification {
+
+    private static FovusFileMetadata object(String key) {
+        return new FovusFileMetadata(key, new Date(1000), 'etag', 10)
+    }
+
+    private static void list(FovusPathIndex index, String prefix, String... keys) {
+        def listing = index.startListing(prefix)
+        keys.each { listing.add(it, object(it)) }
+        listing.complete()
+    }
+
+    def 'should answer lookups below a listed prefix' () {
+        given:
+        def index = new FovusPathIndex(60_000, 60_000, 100)
+        def listing = index.startListing('data')
+        listing.add('data/a.txt', object('data/a.txt'))
+        listing.add('data/sub/b.txt', object('data/sub/b.txt'))
+        listing.add('data/empty/', object('data/empty/'))
+
+        expect: 'nothing is known before the listing completes'
+        index.lookup('data/a.txt') == null
+        !index.isListed('data')
+
+        when:
+        listing.complete()
+
+        then:
+        index.isListed('data/sub')
+        index.lookup('data/a.txt').size == 10
+        index.lookup('data/sub').key == 'data/sub/'
+        index.lookup('data/empty').key == 'data/empty/'
+        index.lookup('data/missing.txt').is(FovusPathIndex.MISSING)
+        index.lookup('data/sub/missing/c.txt').is(FovusPathIndex.MISSING)
+        index.lookup('other/a.txt') == null
+    }
+
+    def 'should only report missing keys within the negative TTL' () {
+        given:
+        def index = new FovusPathIndex(60_000, 50, 100)
+        list(index, 'data', 'data/a.txt')
+
+        expect:
+        index.lookup('data/missing.txt').is(FovusPathIndex.MISSING)
+
+        when:
+        sleep 100
+
+        then:
+        index.lookup('data/missing.txt') == null
+        index.lookup('data/a.txt').size == 10
+    }
+
+    def 'should walk a listed prefix' () {
+        given:
+        def index = new FovusPathIndex(60_000, 60_000, 100)
+        list(index, 'data', 'data/a.txt', 'data/sub/b.txt')
+        def visited = [:]
+
+        expect:
+        !index.walk('other', { k, m -> })
+        index.walk('data', { k, m -> visited[k] = m.key })
+        visited == ['data/a.txt': 'data/a.txt', 'data/sub': 'data/sub/', 'data/sub/b.txt': 'data/sub/b.txt']
+    }
+
+    def 'should expire the listings' () {
+        given:
+        def index = new FovusPathIndex(50, 50, 100)
+        list(index, 'data', 'data/a.txt')
+
+        when:
+        sleep 100
+
+        then:
+        !index.isListed('data')
+        index.lookup('data/a.txt') == null
+    }
+
+    def 'should replace the objects of a prefix listed again' () {
+        given:
+        def index = new FovusPathIndex(60_000, 60_000, 100)
+        list(index, 'data', 'data/a.txt', 'data/old/b.txt')
+
+        when:
+        list(index, 'data', 'data/a.txt', 'data/new/c.txt')
+
+        then:
+        index.lookup('data/old/b.txt').is(FovusPathIndex.MISSING)
+        index.lookup('data/old').is(FovusPathIndex.MISSING)
+        index.lookup('data/new/c.txt').size == 10
+        index.size() == 4
+    }
+
+    def 'should not mark a prefix listed when the index is cleared during the listing' () {
+        given:
+        def index = new FovusPathIndex(60_000, 60_000, 2)
+        def listing = index.startListing('data')
+        listing.add('data/a.txt', object('data/a.txt'))
+
+        when: 'another listing overflows the index'
+        list(index, 'other', 'other/b.txt', 'other/c.txt')
+        list(index, 'more', 'more/d.txt')
+        listing.complete()
+
+        then:
+        !index.isListed('data')
+        index.lookup('data/a.txt') == null
+    }
+
+    def 'should not mark a prefix listed from a page without objects' () {
+        given:
+        def client = new FovusPathIteratorTest.PagedJobClient()
+        client.pages[null] = new ListObjectsResponse(objects: null)
+        def fs = new FovusFileSystem(null, client, new URI('fovus:///fovus-storage/files/'), new FovusConfig([pipelineName: 'test']))
+        def dir = new FovusPath(fs, '/fovus-storage/files/data')
+
+        when:
+        def paths = new FovusPathIterator('data/', dir).collect()
+
+        then:
+        paths.isEmpty()
+        !fs.pathIndex.isListed('data')
+        fs.pathIndex.lookup('data/a.txt') == null
+    }
+
+    def 'should list a prefix again from the index' () {
+        given:
+        def client = new FovusPathIteratorTest.PagedJobClient()
+        client.pages[null] = new ListObjectsResponse(objects: [object('files/data/a.txt'), object('files/data/sub/b.txt'), object('files/database.txt')])
+        def fs = new FovusFileSystem(null, client, new URI('fovus:///fovus-storage/files/'), new FovusConfig([pipelineName: 'test']))
+        def dir = new FovusPath(fs, '/fovus-storage/files/data')
+
+        when:
+        def first = new FovusPathIterator('data/', dir).collect { (it as FovusPath).key }
+        def second = new FovusPathIterator('data/', dir).collect { (it as FovusPath).key }
+        def sub = new FovusPathIterator('data/sub/', new FovusPath(fs, '/fovus-storage/files/data/sub')).collect { (it as FovusPath).key }
+
+        then:
+        first == ['data/a.txt', 'data/sub/b.txt', 'data/sub']
+        second.toSet() == first.toSet()
+        sub == ['data/sub/b.txt']
+        client.tokens == [null]
+    }
+}
@@ -0,0 +1,65 @@
+package fovus.plugin.nio
+
+import fovus.plugin.FovusConfig
+import fovus.plugin.job.FovusJobClient
+import fovus.plugin.transport.ListObjectsResponse
+import spock.lang.Specification
+
+/**
+ * Test the paged listing of {@link FovusPathIterator}
+ */
+class FovusPathIteratorTest extends Specification {
+
+    static class PagedJobClient extends FovusJobClient {
+        final Map<String, ListObjectsResponse> pages = [:]
+        final List<String> tokens = [].asSynchronized()
+
+        PagedJobClient() {
+            super(new FovusConfig([pipelineName: 'test']))
+        }
+
+        @Override
+        ListObjectsResponse listFileObjectsPage(String fileType, String path, String continuationToken) {
+            tokens.add(continuationToken)
+            return pages.get(continuationToken)
+        }
+    }
+
+    private static FovusFileMetadata object(String key) {
+        return new FovusFileMetadata(key, new Date(1000), 'etag', 10)
+    }
+
+    def 'should iterate over all the pages' () {
+        given:
+        def client = new PagedJobClient()
+        client.pages[null] = new ListObjectsResponse(objects: [object('files/data/a.txt'), object('files/data/sub/b.txt')], nextContinuationToken: 'token-2')
+        client.pages['token-2'] = new ListObjectsResponse(objects: [object('files/data/sub/c.txt')], nextContinuationToken: 'token-3')
+        client.pages['token-3'] = new ListObjectsResponse(objects: [], nextContinuationToken: 'token-4')
+        client.pages['token-4'] = new ListObjectsResponse(objects: [object('files/data/d.txt')])
+        def fs = new FovusFileSystem(null, client, new URI('fovus:///fovus-storage/files/'))
+        def dir = new FovusPath(fs, '/fovus-storage/files/data')
+
+        when:
+        def keys = new FovusPathIterator('data/', dir).collect { (it as FovusPath).key }
+
+        then:
+        keys == ['data/a.txt', 'data/sub/b.txt', 'data/sub', 'data/sub/c.txt', 'data/d.txt']
+        client.tokens == [null, 'token-2', 'token-3', 'token-4']
+    }
+
+    def 'should not list before the first element is requested' () {
+        given:
+        def client = new PagedJobClient()
+        client.pages[null] = new ListObjectsResponse(objects: [object('files/data/a.txt')])
+        def fs = new FovusFileSystem(null, client, new URI('fovus:///fovus-storage/files/'))
+
+        when:
+        def iterator = new FovusPathIterator('data/', new FovusPath(fs, '/fovus-storage/files/data'))
+
+        then:
+        client.tokens.isEmpty()
+        iterator.hasNext()
+        iterator.next().key == 'data/a.txt'
+        !iterator.hasNext()
+    }
+}
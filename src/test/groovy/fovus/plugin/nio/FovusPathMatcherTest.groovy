@@ -0,0 +1,21 @@
+package fovus.plugin.nio
+
+import spock.lang.Specification
+
+/**
+ * Test the glob and regex matching of {@link FovusPathMatcher}
+ */
+class FovusPathMatcherTest extends Specification {
+
+    def 'should match the paths' () {
+        given:
+        def fs = new FovusFileSystem(null, null, new URI('fovus:///fovus-storage/files/'))
+        def matcher = fs.getPathMatcher('glob:/fovus-storage/files/run42/**/*_R{1,2}.fq.gz')
+
+        expect:
+        matcher.matches(new FovusPath(fs, '/fovus-storage/files/run42/s1/x_R1.fq.gz'))
+        matcher.matches(new FovusPath(fs, '/fovus-storage/files/run42/s1/lane1/x_R2.fq.gz'))
+        !matcher.matches(new FovusPath(fs, '/fovus-storage/files/run42/s1/x_R3.fq.gz'))
+        !matcher.matches(new FovusPath(fs, '/fovus-storage/files/run43/s1/x_R1.fq.gz'))
+    }
+}
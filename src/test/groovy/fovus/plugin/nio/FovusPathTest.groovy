@@ -0,0 +1,110 @@
+package fovus.plugin.nio
+
+import java.lang.management.ManagementFactory
+
+import groovy.transform.CompileStatic
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Test the key handling of {@link FovusPath}
+ */
+class FovusPathTest extends Specification {
+
+    static final FovusFileSystem fs = new FovusFileSystem(null, null, new URI('fovus:///fovus-storage/files/'))
+
+    @Unroll
+    def 'should parse #path' () {
+        when:
+        def fovusPath = new FovusPath(fs, path)
+
+        then:
+        fovusPath.fileType == fileType
+        fovusPath.key == key
+        fovusPath.nameCount == count
+        fovusPath.toString() == string
+
+        where:
+        path                                    | fileType | key                  | count | string
+        '/fovus-storage/files/folder1/a.txt'    | 'files'  | 'folder1/a.txt'      | 2     | '/fovus-storage/files/folder1/a.txt'
+        '/fovus-storage/jobs//run1///out.txt/'  | 'jobs'   | 'run1/out.txt'       | 2     | '/fovus-storage/jobs/run1/out.txt'
+        '/fovus-storage/files/'                 | 'files'  | ''                   | 0     | '/fovus-storage/files/'
+        'folder1/a.txt'                         | null     | 'folder1/a.txt'      | 2     | 'folder1/a.txt'
+        ''                                      | null     | ''                   | 0     | ''
+    }
+
+    def 'should reject paths outside of fovus storage' () {
+        when:
+        new FovusPath(fs, '/files/input.txt')
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def 'should navigate a path' () {
+        given:
+        def path = new FovusPath(fs, '/fovus-storage/files/run42/sample1/a_R1.fq.gz')
+
+        expect:
+        path.parent.toString() == '/fovus-storage/files/run42/sample1'
+        path.parent.parent.key == 'run42'
+        path.fileName.toString() == 'a_R1.fq.gz'
+        path.getName(1).toString() == 'sample1'
+        path.subpath(1, 3).toString() == 'sample1/a_R1.fq.gz'
+        path.root.toString() == '/fovus-storage/files/'
+        path.parts == ['run42', 'sample1', 'a_R1.fq.gz']
+        path.collect { it.toString() } == ['run42', 'sample1', 'a_R1.fq.gz']
+        path.parent.resolve('a_R2.fq.gz').toString() == '/fovus-storage/files/run42/sample1/a_R2.fq.gz'
+        path.resolveSibling('b.txt') == new FovusPath(fs, '/fovus-storage/files/run42/sample1/b.txt')
+        path.startsWith(path.parent)
+        path.startsWith('/fovus-storage/files/run42')
+        !path.startsWith('/fovus-storage/files/run4')
+        path.endsWith('sample1/a_R1.fq.gz')
+        new FovusPath(fs, '/fovus-storage/files/run42').relativize(path).toString() == 'sample1/a_R1.fq.gz'
+        new FovusPath(fs, '/fovus-storage/files/run42/./x/../sample1').normalize() == path.parent
+        path.toUri() == new URI('fovus:///fovus-storage/files/run42/sample1/a_R1.fq.gz')
+    }
+
+    def 'should compare the paths by key' () {
+        given:
+        def path = new FovusPath(fs, '/fovus-storage/files/run42/a.txt')
+        def same = new FovusPath(fs, '/fovus-storage/files/run42', 'a.txt')
+
+        expect:
+        path == same
+        path.hashCode() == same.hashCode()
+        path.parent == new FovusPath(fs, '/fovus-storage/files/run42')
+        path.parent.hashCode() == new FovusPath(fs, '/fovus-storage/files/run42').hashCode()
+        path != new FovusPath(fs, '/fovus-storage/jobs/run42/a.txt')
+        path != new FovusPath(fs, 'run42/a.txt')
+    }
+
+    def 'should not allocate when the key is read again' () {
+        given:
+        def path = new FovusPath(fs, '/fovus-storage/files/run42/sample1/a_R1.fq.gz').parent as FovusPath
+        readAll(path, 1_000)
+
+        when:
+        def allocated = allocatedBytes { readAll(path, 100_000) }
+
+        then:
+        // a key joined on each call allocated several hundred bytes per call
+        allocated < 1_000_000
+    }
+
+    @CompileStatic
+    private static void readAll(FovusPath path, int times) {
+        for (int i = 0; i < times; i++) {
+            path.getKey()
+            path.toString()
+            path.hashCode()
+        }
+    }
+
+    private static long allocatedBytes(Closure action) {
+        def threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        def before = threads.getThreadAllocatedBytes(Thread.currentThread().id)
+        action.call()
+        return threads.getThreadAllocatedBytes(Thread.currentThread().id) - before
+    }
+}
@@ -0,0 +1,172 @@
+package fovus.plugin.nio
+
+import fovus.plugin.FovusConfig
+import fovus.plugin.job.FovusJobClient
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * Test the block cached reads of {@link FovusReadChannel}
+ */
+class FovusReadChannelTest extends Specification {
+
+    static class RangeJobClient extends FovusJobClient {
+        final byte[] content
+        final boolean ranged
+        final List<Long> offsets = [].asSynchronized()
+        int downloads = 0
+        long downloadMillis = 0
+
+        RangeJobClient(byte[] content, boolean ranged) {
+            super(new FovusConfig([pipelineName: 'test']))
+            this.content = content
+            this.ranged = ranged
+        }
+
+        @Override
+        byte[] readFileRange(String fileType, String path, long offset, int length) {
+            if (!ranged) {
+                throw new UnsupportedOperationException('ranged reads not supported')
+            }
+            offsets.add(offset)
+            return Arrays.copyOfRange(content, (int) offset, (int) Math.min(content.length, offset + length))
+        }
+
+        @Override
+        void downloadFile(String fovusPath, String localPath, String fileType) {
+            synchronized (this) {
+                downloads++
+            }
+            sleep downloadMillis
+            Files.write(Paths.get(localPath).resolve(fovusPath.tokenize('/')[-1]), content)
+        }
+    }
+
+    private static byte[] content(int size) {
+        final bytes = new byte[size]
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i % 251)
+        }
+        return bytes
+    }
+
+    private static FovusReadChannel channel(FovusJobClient client, FovusBlockCache cache, long size, int readAhead = 0) {
+        def fs = new FovusFileSystem(null, client, new URI('fovus:///fovus-storage/files/'))
+        def path = new FovusPath(fs, '/fovus-storage/files/data/input.csv')
+        return new FovusReadChannel(cache, path, 'etag', size, readAhead)
+    }
+
+    def 'should only fetch the blocks that are read' () {
+        given:
+        def bytes = content(1000)
+        def client = new RangeJobClient(bytes, true)
+        def cache = new FovusBlockCache(100, 10_000, null)
+        def channel = channel(client, cache, bytes.length)
+
+        when:
+        def buffer = ByteBuffer.allocate(50)
+        channel.position(520)
+        def read = channel.read(buffer)
+
+        then:
+        read == 50
+        buffer.array() == Arrays.copyOfRange(bytes, 520, 570)
+        client.offsets == [500L]
+
+        when: 'reading across two blocks, one of them cached'
+        buffer = ByteBuffer.allocate(100)
+        channel.position(550)
+        channel.read(buffer)
+
+        then:
+        buffer.array() == Arrays.copyOfRange(bytes, 550, 650)
+        client.offsets == [500L, 600L]
+        cache.hits == 1
+    }
+
+    def 'should read the whole file sequentially' () {
+        given:
+        def bytes = content(1050)
+        def client = new RangeJobClient(bytes, true)
+        def cache = new FovusBlockCache(100, 10_000, null)
+        def channel = channel(client, cache, bytes.length, 2)
+
+        when:
+        def out = new ByteArrayOutputStream()
+        def buffer = ByteBuffer.allocate(64)
+        while (channel.read(buffer) > 0) {
+            out.write(buffer.array(), 0, buffer.position())
+            buffer.clear()
+        }
+
+        then:
+        out.toByteArray() == bytes
+        client.offsets.toSet().size() == 11
+    }
+
+    def 'should download the whole file when ranged reads are not supported' () {
+        given:
+        def bytes = content(450)
+        def client = new RangeJobClient(bytes, false)
+        def cache = new FovusBlockCache(100, 10_000, null)
+        def channel = channel(client, cache, bytes.length)
+
+        when:
+        def first = ByteBuffer.allocate(10)
+        channel.position(0)
+        channel.read(first)
+        def last = ByteBuffer.allocate(100)
+        channel.position(400)
+        def read = channel.read(last)
+
+        then:
+        first.array() == Arrays.copyOfRange(bytes, 0, 10)
+        read == 50
+        Arrays.copyOfRange(last.array(), 0, 50) == Arrays.copyOfRange(bytes, 400, 450)
+        client.downloads == 1
+    }
+
+    def 'should download a whole file once for the blocks read concurrently' () {
+        given:
+        def bytes = content(450)
+        def client = new RangeJobClient(bytes, false)
+        client.downloadMillis = 200
+        def cache = new FovusBlockCache(100, 10_000, null)
+        def fs = new FovusFileSystem(null, client, new URI('fovus:///fovus-storage/files/'))
+        def path = new FovusPath(fs, '/fovus-storage/files/data/input.csv')
+        def readers = Executors.newFixedThreadPool(5)
+
+        when:
+        def futures = (0L..4L).collect { long index -> readers.submit({ cache.getBlock(path, 'etag', bytes.length, index) } as Callable<ByteBuffer>) }
+        def blocks = futures*.get()
+
+        then:
+        client.downloads == 1
+        blocks*.remaining() == [100, 100, 100, 100, 50]
+
+        cleanup:
+        readers?.shutdownNow()
+    }
+
+    def 'should evict the least recently used blocks' () {
+        given:
+        def bytes = content(1000)
+        def client = new RangeJobClient(bytes, true)
+        def cache = new FovusBlockCache(100, 300, null)
+        def channel = channel(client, cache, bytes.length)
+
+        when:
+        for (long pos : [0L, 100L, 200L, 300L, 400L]) {
+            channel.position(pos)
+            channel.read(ByteBuffer.allocate(10))
+        }
+
+        then:
+        cache.cachedBytes == 300
+    }
+}
@@ -0,0 +1,74 @@
+package fovus.plugin.nio
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.attribute.FileTime
+
+/**
+ * Test the cross-run staging cache of {@link FovusStagingCache}
+ */
+class FovusStagingCacheTest extends Specification {
+
+    def 'should stage a cached file by ETag and size' () {
+        given:
+        def root = Files.createTempDirectory('staging')
+        def cache = new FovusStagingCache(root.resolve('cache'), 1000)
+        def downloaded = root.resolve('run1/genome.fa')
+        Files.createDirectories(downloaded.parent)
+        downloaded.text = 'ACGT'
+
+        when:
+        cache.store('"etag-1"', 4, downloaded)
+        def target = root.resolve('run2/ref/genome.fa')
+
+        then:
+        cache.restore('"etag-1"', 4, target)
+        target.text == 'ACGT'
+        cache.hits == 1
+
+        and: 'a different version is downloaded again'
+        !cache.restore('"etag-2"', 4, root.resolve('run2/other.fa'))
+        !cache.restore(null, 4, root.resolve('run2/other.fa'))
+    }
+
+    def 'should not share the downloaded file with the cache' () {
+        given:
+        def root = Files.createTempDirectory('staging')
+        def cache = new FovusStagingCache(root.resolve('cache'), 1000)
+        def downloaded = root.resolve('run1/genome.fa')
+        Files.createDirectories(downloaded.parent)
+        downloaded.text = 'ACGT'
+
+        when:
+        cache.store('etag-1', 4, downloaded)
+        downloaded.text = 'TTTT'
+
+        then: 'the downloaded file is still writable and the cache keeps the downloaded content'
+        Files.isWritable(downloaded)
+        cache.restore('etag-1', 4, root.resolve('run2/genome.fa'))
+        root.resolve('run2/genome.fa').text == 'ACGT'
+    }
+
+    def 'should evict the least recently used files' () {
+        given:
+        def root = Files.createTempDirectory('staging')
+        def cache = new FovusStagingCache(root.resolve('cache'), 10)
+        def files = (1..3).collect { i ->
+            def file = root.resolve("file${i}")
+            file.text = '12345'
+            file
+        }
+
+        when:
+        cache.store('a', 5, files[0])
+        Files.list(root.resolve('cache')).withCloseable { it.each { Files.setLastModifiedTime(it, FileTime.fromMillis(1000)) } }
+        cache.store('b', 5, files[1])
+        cache.store('c', 5, files[2])
+
+        then:
+        !cache.restore('a', 5, root.resolve('out/a'))
+        cache.restore('b', 5, root.resolve('out/b'))
+        cache.restore('c', 5, root.resolve('out/c'))
+    }
+}
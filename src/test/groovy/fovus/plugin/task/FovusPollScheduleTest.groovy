@@ -0,0 +1,59 @@
+package fovus.plugin.task
+
+import spock.lang.Specification
+
+/**
+ * Test the adaptive poll intervals of {@link FovusPollSchedule}
+ */
+class FovusPollScheduleTest extends Specification {
+
+    def 'should back off while pending' () {
+        given:
+        def schedule = new FovusPollSchedule(1_000, 8_000)
+
+        when:
+        def intervals = (1..5).collect {
+            def before = System.currentTimeMillis()
+            schedule.pending()
+            schedule.nextPollAt - before
+        }
+
+        then:
+        intervals[0] in 1_000..1_100
+        intervals[1] in 2_000..2_100
+        intervals[2] in 4_000..4_100
+        intervals[3] in 8_000..8_100
+        intervals[4] in 8_000..8_100
+    }
+
+    def 'should poll a running task adaptively' () {
+        given:
+        def schedule = new FovusPollSchedule(2_000, 60_000)
+
+        expect:
+        schedule.runningInterval(ELAPSED, EXPECTED) == INTERVAL
+
+        where:
+        ELAPSED   | EXPECTED  | INTERVAL
+        10_000    | null      | 2_000     // recently started
+        300_000   | null      | 30_000    // grows with the elapsed time
+        3_600_000 | null      | 60_000    // bounded by the max interval
+        120_000   | 600_000   | 60_000    // far from the expected end
+        500_000   | 600_000   | 2_000     // close to the expected end
+        700_000   | 600_000   | 2_000     // past the expected end
+    }
+
+    def 'should be due until scheduled' () {
+        given:
+        def schedule = new FovusPollSchedule(60_000, 60_000)
+
+        expect:
+        schedule.isDue()
+
+        when:
+        schedule.running(null)
+
+        then:
+        !schedule.isDue()
+    }
+}
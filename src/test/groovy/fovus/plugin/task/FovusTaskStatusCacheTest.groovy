@@ -0,0 +1,60 @@
+package fovus.plugin.task
+
+import fovus.plugin.FovusConfig
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+/**
+ * Test the background refresh of {@link FovusTaskStatusCache}
+ */
+class FovusTaskStatusCacheTest extends Specification {
+
+    static class CountingTaskClient extends FovusTaskClient {
+        volatile int listings = 0
+        volatile Map<String, FovusTaskStatus> statuses = [:]
+
+        CountingTaskClient() {
+            super(new FovusConfig([pipelineName: 'test']))
+        }
+
+        @Override
+        Map<String, FovusTaskStatus> listTaskStatuses(String jobId) {
+            listings++
+            return new HashMap<>(statuses)
+        }
+    }
+
+    def 'should serve the statuses refreshed in the background' () {
+        given:
+        def client = new CountingTaskClient(statuses: [task1: FovusTaskStatus.RUNNING, task2: FovusTaskStatus.COMPLETED])
+        def cache = new FovusTaskStatusCache(client, 60_000, 1)
+        def conditions = new PollingConditions(timeout: 5)
+        cache.register('1000-job', 'task1')
+        cache.register('1000-job', 'task2')
+
+        expect:
+        !cache.isReady('1000-job')
+
+        and:
+        conditions.eventually {
+            assert cache.isReady('1000-job')
+        }
+        cache.getTaskStatus('1000-job', 'task1') == FovusTaskStatus.RUNNING
+        cache.getTaskStatus('1000-job', 'task2') == FovusTaskStatus.COMPLETED
+        client.listings == 1
+        cache.metrics.refreshes == 1L
+    }
+
+    def 'should list the tasks on the calling thread without refresh threads' () {
+        given:
+        def client = new CountingTaskClient(statuses: [task1: FovusTaskStatus.RUNNING])
+        def cache = new FovusTaskStatusCache(client, 60_000)
+        cache.register('1000-job', 'task1')
+
+        expect:
+        cache.isReady('1000-job')
+        cache.getTaskStatus('1000-job', 'task1') == FovusTaskStatus.RUNNING
+        cache.getTaskStatus('1000-job', 'task1') == FovusTaskStatus.RUNNING
+        client.listings == 1
+    }
+}
@@ -0,0 +1,239 @@
+package fovus.plugin.transport
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import fovus.plugin.FovusConfig
+import fovus.plugin.cli.FovusCliScheduler
+import fovus.plugin.cli.FovusCliUnavailableException
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+/**
+ * Test the HTTP transport against a local mock of the Fovus API
+ */
+class FovusHttpTransportTest extends Specification {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+
+    HttpServer server
+    List<Map> requests = []
+    Map<String, Object> responses = [:]
+    /** The number of requests of a route answered with HTTP 503 before its response */
+    Map<String, Integer> unavailable = [:]
+    FovusCliScheduler scheduler = new FovusCliScheduler(4, 3, 10, 50, 0, 60_000)
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress('127.0.0.1', 0), 0)
+        server.createContext('/') { HttpExchange exchange ->
+            final body = exchange.requestBody.getText(StandardCharsets.UTF_8.name())
+            final route = "${exchange.requestMethod} ${exchange.requestURI.path}".toString()
+            requests << [
+                    route        : route,
+                    query        : exchange.requestURI.rawQuery,
+                    authorization: exchange.requestHeaders.getFirst('Authorization'),
+                    body         : body ? MAPPER.readValue(body, Object) : null
+            ]
+
+            final response = responses.get(route)
+            final failures = unavailable.getOrDefault(route, 0)
+            if (failures > 0) {
+                unavailable[route] = failures - 1
+                exchange.sendResponseHeaders(503, -1)
+                exchange.close()
+                return
+            }
+            final status = response != null ? 200 : 404
+            final payload = response instanceof byte[] ? (byte[]) response : MAPPER.writeValueAsBytes(response ?: [message: 'not found'])
+            exchange.sendResponseHeaders(status, payload.length)
+            exchange.responseBody.withCloseable { it.write(payload) }
+        }
+        server.start()
+    }
+
+    def cleanup() {
+        server.stop(0)
+        scheduler.close()
+    }
+
+    private FovusHttpTransport transport() {
+        return new FovusHttpTransport("http://127.0.0.1:${server.address.port}/", 'secret', scheduler)
+    }
+
+    def 'should create a job' () {
+        given:
+        def configFile = Files.createTempFile('job_config', '.json')
+        configFile.text = '{"jobName": "foo"}'
+        responses['POST /jobs'] = [jobId: '1700000000000-abc']
+
+        when:
+        def response = transport().createJob(new CreateJobRequest(
+                jobConfigFilePath: configFile.toString(),
+                jobDirectory: '/work/ab',
+                pipelineId: 'pipeline-1',
+                includePaths: ['123/'],
+                jobName: 'foo'
+        ))
+
+        then:
+        response.jobId == '1700000000000-abc'
+        requests[0].authorization == 'Bearer secret'
+        requests[0].body.jobConfig == [jobName: 'foo']
+        requests[0].body.includePaths == ['123/']
+        requests[0].body.pipelineId == 'pipeline-1'
+
+        cleanup:
+        Files.deleteIfExists(configFile)
+    }
+
+    def 'should get the job status' () {
+        given:
+        responses['GET /jobs/job-1/status'] = [status: 'Running']
+
+        expect:
+        transport().getJobStatus(new JobStatusRequest(jobId: 'job-1')).status == 'Running'
+    }
+
+    def 'should list the tasks of a job' () {
+        given:
+        responses['GET /jobs/job-1/tasks'] = [[taskName: 'a', status: 'Running'], [taskName: 'b', status: 'Completed']]
+
+        when:
+        def response = transport().listTasks(new ListTasksRequest(jobId: 'job-1', taskNames: ['a', 'b']))
+
+        then:
+        response.tasks == [new TaskInfo(taskName: 'a', status: 'Running'), new TaskInfo(taskName: 'b', status: 'Completed')]
+        requests[0].query == 'taskNames=a%2Cb'
+    }
+
+    def 'should list objects' () {
+        given:
+        responses['GET /storage/objects'] = [
+                [Key: 'files/data/a.txt', LastModified: '2024-01-02T03:04:05+00:00', ETag: 'etag-a', Size: 10],
+        ]
+
+        when:
+        def response = transport().listObjects(new ListObjectsRequest(fileType: 'files', path: 'data'))
+
+        then:
+        response.objects.size() == 1
+        response.objects[0].key == 'files/data/a.txt'
+        response.objects[0].size == 10
+        response.objects[0].ETag == 'etag-a'
+        requests[0].query == 'fileType=files&path=data'
+    }
+
+    def 'should list a page of objects' () {
+        given:
+        responses['GET /storage/objects'] = [
+                objects: [[Key: 'files/data/b.txt', LastModified: '2024-01-02T03:04:05+00:00', ETag: 'etag-b', Size: 20]],
+                nextContinuationToken: 'token-3'
+        ]
+
+        when:
+        def response = transport().listObjects(new ListObjectsRequest(fileType: 'files', path: 'data', maxKeys: 1, continuationToken: 'token-2'))
+
+        then:
+        response.objects*.key == ['files/data/b.txt']
+        response.nextContinuationToken == 'token-3'
+        requests[0].query == 'fileType=files&path=data&maxKeys=1&continuationToken=token-2'
+    }
+
+    def 'should download a directory' () {
+        given:
+        def localDir = Files.createTempDirectory('download')
+        def url = "http://127.0.0.1:${server.address.port}/blob/a".toString()
+        responses['POST /storage/download-urls'] = [[key: 'data/sub/a.txt', url: url]]
+        responses['GET /blob/a'] = 'hello'.getBytes(StandardCharsets.UTF_8)
+
+        when:
+        transport().download(new DownloadRequest(fileType: 'files', path: 'data/', localPath: localDir.toString()))
+
+        then:
+        localDir.resolve('sub/a.txt').text == 'hello'
+        requests[0].body == [fileType: 'files', path: 'data/']
+
+        cleanup:
+        localDir.toFile().deleteDir()
+    }
+
+    def 'should update the pipeline status' () {
+        given:
+        responses['PUT /pipelines/pipeline-1/status'] = [:]
+
+        when:
+        transport().updatePipelineStatus(new UpdatePipelineStatusRequest(pipelineId: 'pipeline-1', status: 'RUNNING'))
+
+        then:
+        requests[0].body == [status: 'RUNNING']
+    }
+
+    def 'should report failed requests' () {
+        when:
+        transport().terminateJob(new TerminateJobRequest(jobId: 'unknown'))
+
+        then:
+        def e = thrown(RuntimeException)
+        e.message.startsWith('Failed to terminate Fovus job: HTTP 404')
+    }
+
+    def 'should retry the requests through the scheduler' () {
+        given:
+        responses['GET /jobs/job-1/status'] = [status: 'Running']
+        unavailable['GET /jobs/job-1/status'] = 2
+
+        when:
+        def status = transport().getJobStatus(new JobStatusRequest(jobId: 'job-1')).status
+
+        then:
+        status == 'Running'
+        requests.size() == 3
+        scheduler.metrics.retries == 2L
+    }
+
+    def 'should not retry the requests rejected by the API' () {
+        when:
+        transport().terminateJob(new TerminateJobRequest(jobId: 'unknown'))
+
+        then:
+        def e = thrown(HttpStatusException)
+        e.statusCode == 404
+        requests.size() == 1
+        scheduler.metrics.retries == 0L
+    }
+
+    def 'should reject the status polls while the circuit is open' () {
+        given:
+        def breaker = new FovusCliScheduler(4, 1, 10, 50, 1, 60_000)
+        def transport = new FovusHttpTransport("http://127.0.0.1:${server.address.port}/", 'secret', breaker)
+        unavailable['GET /jobs/job-1/status'] = 1
+
+        when:
+        transport.getJobStatus(new JobStatusRequest(jobId: 'job-1'))
+
+        then:
+        thrown(HttpStatusException)
+        breaker.circuitOpen
+
+        when:
+        transport.getJobStatus(new JobStatusRequest(jobId: 'job-1'))
+
+        then:
+        thrown(FovusCliUnavailableException)
+        requests.size() == 1
+
+        cleanup:
+        breaker.close()
+    }
+
+    def 'should reuse the transport for the same settings' () {
+        given:
+        def config = new FovusConfig([pipelineName: 'test', transport: 'http', apiUrl: 'http://127.0.0.1:1'])
+
+        expect:
+        FovusTransportFactory.get(config).is(FovusTransportFactory.get(config))
+        FovusTransportFactory.get(config) instanceof FovusHttpTransport
+    }
+}
@@ -0,0 +1,46 @@
+package fovus.plugin.transport
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.time.Instant
+
+/**
+ * Test the streaming decoder of {@link FovusObjectListingParser}
+ */
+class FovusObjectListingParserTest extends Specification {
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))
+    }
+
+    def 'should parse the listing after the header lines' () {
+        given:
+        def output = '''\
+            Listing objects...
+            Done.
+            [
+              {"Key": "files/data/a.txt", "LastModified": "2024-01-02T03:04:05+00:00", "ETag": "\\"etag-a\\"", "Size": 10, "StorageClass": "STANDARD"},
+              {"Key": "files/data/sub/", "LastModified": "2024-01-02T03:04:05.123Z", "Owner": {"ID": "x"}, "ETag": "etag-b", "Size": 0}
+            ]
+            '''.stripIndent()
+
+        when:
+        def objects = FovusObjectListingParser.parse(stream(output), 2)
+
+        then:
+        objects.size() == 2
+        objects[0].key == 'files/data/a.txt'
+        objects[0].ETag == '"etag-a"'
+        objects[0].size == 10
+        objects[0].lastModified == Date.from(Instant.parse('2024-01-02T03:04:05Z'))
+        objects[1].key == 'files/data/sub/'
+        objects[1].lastModified.time == Date.from(Instant.parse('2024-01-02T03:04:05.123Z')).time
+    }
+
+    def 'should return null when the listing is not an array' () {
+        expect:
+        FovusObjectListingParser.parse(stream('header\nheader\n{"message": "not found"}'), 2) == null
+        FovusObjectListingParser.parse(stream('header\nheader\n'), 2) == null
+    }
+}
@@ -0,0 +1,116 @@
+package fovus.plugin.util
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import fovus.plugin.nio.FovusFileSystem
+import fovus.plugin.nio.FovusFileSystemProvider
+import fovus.plugin.nio.FovusPath
+import spock.lang.Specification
+
+/**
+ * Test the compact encoding of {@link FovusPathSerializer}
+ */
+class FovusPathSerializerTest extends Specification {
+
+    FovusFileSystem files = new FovusFileSystem(null, null, new URI('fovus:///fovus-storage/files/'))
+
+    FovusFileSystem jobs = new FovusFileSystem(null, null, new URI('fovus:///fovus-storage/jobs/'))
+
+    Kryo kryo = new Kryo()
+
+    def setup() {
+        FovusPathFactory.fileSystems.put('files', files)
+        FovusPathFactory.fileSystems.put('jobs', jobs)
+        kryo.register(FovusPath, new FovusPathSerializer())
+        kryo.register(ArrayList)
+    }
+
+    def cleanup() {
+        FovusPathFactory.fileSystems.clear()
+    }
+
+    private byte[] serialize(Object value) {
+        final output = new Output(1024, -1)
+        kryo.writeClassAndObject(output, value)
+        return output.toBytes()
+    }
+
+    private Object deserialize(byte[] bytes) {
+        return kryo.readClassAndObject(new Input(bytes))
+    }
+
+    def 'should round trip a path' () {
+        given:
+        def path = new FovusPath(files, '/fovus-storage/files/run42/sample1/a_R1.fq.gz')
+
+        when:
+        def copy = deserialize(serialize(path)) as FovusPath
+
+        then:
+        copy == path
+        copy.fileSystem.is(files)
+        copy.toString() == '/fovus-storage/files/run42/sample1/a_R1.fq.gz'
+    }
+
+    def 'should round trip the paths of a graph with shared segments' () {
+        given:
+        def paths = new ArrayList<FovusPath>()
+        paths << new FovusPath(jobs, '/fovus-storage/jobs/job1/work/ab/cdef/out.txt')
+        paths << new FovusPath(jobs, '/fovus-storage/jobs/job1/work/ab/cdef/out.log')
+        paths << new FovusPath(files, '/fovus-storage/files/')
+        paths << new FovusPath(files, 'relative/file.txt')
+
+        when:
+        def copy = deserialize(serialize(paths)) as List<FovusPath>
+
+        then:
+        copy == paths
+        copy*.fileSystem == [jobs, jobs, files, files]
+        !copy[3].absolute
+    }
+
+    def 'should be smaller than the scheme and path strings' () {
+        given:
+        def paths = new ArrayList<FovusPath>()
+        (1..1000).each { paths << new FovusPath(files, "/fovus-storage/files/run42/samples/batch${it % 10}/sample${it}_R1.fq.gz") }
+        def legacy = new Output(1024, -1)
+        paths.each { legacy.writeString('fovus'); legacy.writeString(it.toString()) }
+
+        when:
+        def compact = serialize(paths)
+
+        then:
+        compact.length < legacy.toBytes().length / 2
+        deserialize(compact) == paths
+    }
+
+    def 'should read the paths written by the previous format' () {
+        given:
+        def output = new Output(1024, -1)
+        kryo.writeClass(output, FovusPath)
+        output.writeString('fovus')
+        output.writeString('/fovus-storage/files/run42/a.txt')
+
+        when:
+        def path = deserialize(output.toBytes()) as FovusPath
+
+        then:
+        path == new FovusPath(files, '/fovus-storage/files/run42/a.txt')
+        path.fileSystem.is(files)
+    }
+
+    def 'should forget a closed file system' () {
+        given:
+        def provider = new FovusFileSystemProvider()
+        def closed = new FovusFileSystem(provider, null, new URI('fovus:///fovus-storage/files/'))
+        FovusPathFactory.fileSystems.put('files', closed)
+
+        when:
+        closed.close()
+
+        then:
+        !FovusPathFactory.fileSystems.containsKey('files')
+        FovusPathFactory.fileSystems.get('jobs').is(jobs)
+    }
+}